@@ -0,0 +1,86 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link TileUp#createTiles() createTiles()} end to end, from decoding the input file to
+ * the tile files in a temporary directory. One operation tiles the whole image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class CreateTilesBenchmark {
+
+  @Param({"2048"})
+  int imageSize;
+
+  @Param({"256"})
+  int tileSize;
+
+  @Param({"1", "4"})
+  int zoomLevels;
+
+  @Param({"false", "true"})
+  boolean streaming;
+
+  private File dir;
+  private TileUp tileUp;
+  private int tiles;
+
+  @Setup
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("tileup-bench").toFile();
+    File input = new File(dir, "input.png");
+    ImageIO.write(SyntheticImages.create(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB), "png", input);
+    tileUp = new TileUp(input.getPath(), new File(dir, "tiles").getPath(), "tile", tileSize, tileSize, zoomLevels);
+    tileUp.setStreaming(streaming);
+    int size = imageSize;
+    for (int z = 0; z < zoomLevels; z++) {
+      tiles += TileCounter.tilesOf(size, size, tileSize);
+      size = (size + 1) / 2;
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    delete(dir);
+  }
+
+  @Benchmark
+  public void createTiles(TileCounter counter) throws Exception {
+    tileUp.createTiles();
+    counter.tiles += tiles;
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (null != children) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
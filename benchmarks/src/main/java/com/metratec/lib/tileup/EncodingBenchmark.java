@@ -0,0 +1,84 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the PNG encoding of a single tile into memory, so one operation is one tile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodingBenchmark {
+
+  @Param({"256", "512"})
+  int tileSize;
+
+  private BufferedImage tile;
+  private ImageWriter writer;
+  private ByteArrayOutputStream bytes;
+
+  @Setup
+  public void setUp() {
+    ImageIO.setUseCache(false);
+    tile = SyntheticImages.create(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+    writer = ImageIO.getImageWritersByFormatName("png").next();
+    bytes = new ByteArrayOutputStream(4 * tileSize * tileSize);
+  }
+
+  @TearDown
+  public void tearDown() {
+    writer.dispose();
+  }
+
+  /**
+   * TileUp 1.0.3: {@link ImageIO#write(java.awt.image.RenderedImage, String, java.io.OutputStream)
+   * ImageIO.write} looks up a new PNG writer for every tile.
+   */
+  @Benchmark
+  public int imageIoWrite() throws IOException {
+    bytes.reset();
+    ImageIO.write(tile, "png", bytes);
+    return bytes.size();
+  }
+
+  /**
+   * The PNG writer is reused for every tile.
+   */
+  @Benchmark
+  public int reusedWriter() throws IOException {
+    bytes.reset();
+    ImageOutputStream out = new MemoryCacheImageOutputStream(bytes);
+    try {
+      writer.setOutput(out);
+      writer.write(tile);
+    } finally {
+      writer.setOutput(null);
+      out.close();
+    }
+    return bytes.size();
+  }
+}
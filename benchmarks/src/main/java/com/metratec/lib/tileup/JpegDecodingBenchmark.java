@@ -0,0 +1,114 @@
+package com.metratec.lib.tileup;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures getting a low zoom level of a JPEG image, the start of a run with a tile range of low
+ * zoom levels only. One operation reads the image file and returns zoom level <code>level</code>,
+ * the tile counter reports the number of tiles of the level.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class JpegDecodingBenchmark {
+
+  @Param({"4096", "8192"})
+  int imageSize;
+
+  @Param({"256"})
+  int tileSize;
+
+  @Param({"1", "3"})
+  int level;
+
+  private File input;
+  private ImageSource source;
+  private int tiles;
+
+  @Setup
+  public void setUp() throws IOException {
+    input = File.createTempFile("tileup-bench", ".jpg");
+    ImageIO.write(SyntheticImages.create(imageSize, imageSize, BufferedImage.TYPE_INT_RGB), "jpg", input);
+    source = new ImageSource(input);
+    int size = (imageSize - 1 >> level) + 1;
+    tiles = TileCounter.tilesOf(size, size, tileSize);
+  }
+
+  @TearDown
+  public void tearDown() {
+    input.delete();
+  }
+
+  /**
+   * TileUp 1.0.3: the image is decoded by {@link ImageIO#read(File) ImageIO.read} and scaled by
+   * 1/2^level with a bilinear {@link AffineTransformOp AffineTransformOp}.
+   */
+  @Benchmark
+  public BufferedImage affineTransformOp(TileCounter counter) throws IOException {
+    BufferedImage image = ImageIO.read(input);
+    double scale = 1.0 / (1 << level);
+    AffineTransform at = new AffineTransform();
+    at.scale(scale, scale);
+    BufferedImage scaled = new AffineTransformOp(at, AffineTransformOp.TYPE_BILINEAR).filter(image, null);
+    counter.tiles += tiles;
+    return scaled;
+  }
+
+  /**
+   * The whole image is decoded and halved down to the level by {@link Downsampler Downsampler}.
+   */
+  @Benchmark
+  public BufferedImage decodeAndHalve(TileCounter counter) throws IOException {
+    BufferedImage image = read(0);
+    for (int z = 0; z < level; z++) {
+      image = Downsampler.halve(image, DownsampleFilter.BOX);
+    }
+    counter.tiles += tiles;
+    return image;
+  }
+
+  /**
+   * The level is decoded directly with subsampling, see
+   * {@link TileUp#setSubsampledDecoding(boolean) setSubsampledDecoding}.
+   */
+  @Benchmark
+  public BufferedImage subsampled(TileCounter counter) throws IOException {
+    BufferedImage image = read(level);
+    counter.tiles += tiles;
+    return image;
+  }
+
+  private BufferedImage read(int z) throws IOException {
+    ImageReader reader = source.openReader();
+    try {
+      return source.read(reader, z, ImageSource.scale(new Rectangle(imageSize, imageSize), z));
+    } finally {
+      ImageSource.closeReader(reader);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.metratec.lib.tileup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how the pixels of one zoom level get into the tiles. Each operation copies a whole zoom
+ * level whose size is not a multiple of the tile size, so edge tiles have to be extended.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RasterCopyBenchmark {
+
+  @Param({"2000", "4000"})
+  int imageSize;
+
+  @Param({"256", "512"})
+  int tileSize;
+
+  private BufferedImage image;
+  private BufferedImage bgrImage;
+  private int[] pixels;
+  private int tiles;
+  private BufferedImage tile;
+
+  @Setup
+  public void setUp() {
+    image = SyntheticImages.create(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB);
+    bgrImage = SyntheticImages.create(imageSize, imageSize, BufferedImage.TYPE_3BYTE_BGR);
+    pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    tiles = TileCounter.tilesOf(imageSize, imageSize, tileSize);
+    tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+  }
+
+  /**
+   * TileUp 1.0.3: <code>img_ext.setData(sm.getData())</code> copies the level into a buffer
+   * padded to whole tiles, through a temporary full copy of the raster.
+   */
+  @Benchmark
+  public void setDataGetData(TileCounter counter, Blackhole bh) {
+    int x = (imageSize + tileSize - 1) / tileSize;
+    BufferedImage img_ext = new BufferedImage(x * tileSize, x * tileSize, BufferedImage.TYPE_INT_ARGB);
+    img_ext.setData(image.getData());
+    bh.consume(img_ext);
+    counter.tiles += tiles;
+  }
+
+  /**
+   * Every tile is copied into a reused tile buffer by {@link TileWriter#copy(int[], int, int, int,
+   * int, int, BufferedImage) TileWriter.copy}, which also clears the padding.
+   */
+  @Benchmark
+  public void tileCopy(TileCounter counter, Blackhole bh) {
+    for (int y = 0; y < imageSize; y += tileSize) {
+      for (int x = 0; x < imageSize; x += tileSize) {
+        TileWriter.copy(pixels, imageSize, x, y, Math.min(tileSize, imageSize - x), Math.min(tileSize, imageSize - y),
+            tile);
+        bh.consume(tile);
+      }
+    }
+    counter.tiles += tiles;
+  }
+
+  /**
+   * A 3 byte BGR image, as decoded from JPEG, is converted to ARGB as a whole before its tiles are
+   * copied.
+   */
+  @Benchmark
+  public void convertThenCopy(TileCounter counter, Blackhole bh) {
+    BufferedImage argb = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = argb.createGraphics();
+    g.drawImage(bgrImage, 0, 0, null);
+    g.dispose();
+    int[] argbPixels = ((DataBufferInt) argb.getRaster().getDataBuffer()).getData();
+    for (int y = 0; y < imageSize; y += tileSize) {
+      for (int x = 0; x < imageSize; x += tileSize) {
+        TileWriter.copy(argbPixels, imageSize, x, y, Math.min(tileSize, imageSize - x),
+            Math.min(tileSize, imageSize - y), tile);
+        bh.consume(tile);
+      }
+    }
+    counter.tiles += tiles;
+  }
+
+  /**
+   * Only the tiles of a 3 byte BGR image are converted to ARGB, by {@link Pixels#copyArgb(
+   * BufferedImage, int, int, int, int, int[], int, int) Pixels.copyArgb}.
+   */
+  @Benchmark
+  public void nativeTileCopy(TileCounter counter, Blackhole bh) {
+    int[] dst = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+    for (int y = 0; y < imageSize; y += tileSize) {
+      for (int x = 0; x < imageSize; x += tileSize) {
+        Pixels.copyArgb(bgrImage, x, y, Math.min(tileSize, imageSize - x), Math.min(tileSize, imageSize - y), dst, 0,
+            tileSize);
+        bh.consume(tile);
+      }
+    }
+    counter.tiles += tiles;
+  }
+}
@@ -0,0 +1,97 @@
+package com.metratec.lib.tileup;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the creation of the lower zoom levels. Each operation creates the zoom levels 1 to
+ * <code>zoomLevels</code> - 1 of one image, the tile counter reports the number of tiles these
+ * levels contain.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScalingBenchmark {
+
+  @Param({"2048", "4096"})
+  int imageSize;
+
+  @Param({"256"})
+  int tileSize;
+
+  @Param({"2", "4"})
+  int zoomLevels;
+
+  private BufferedImage image;
+  private int levelTiles;
+
+  @Setup
+  public void setUp() {
+    image = SyntheticImages.create(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB);
+    levelTiles = 0;
+    int size = imageSize;
+    for (int z = 1; z < zoomLevels; z++) {
+      size = (size + 1) / 2;
+      levelTiles += TileCounter.tilesOf(size, size, tileSize);
+    }
+  }
+
+  /**
+   * TileUp 1.0.3: a bilinear {@link AffineTransformOp AffineTransformOp} scales the full original
+   * image by 1/2^z into a buffer of the original size for every zoom level.
+   */
+  @Benchmark
+  public void affineTransformOp(TileCounter counter, Blackhole bh) {
+    for (int z = 1; z < zoomLevels; z++) {
+      double scale_inv = 1.0 / Math.pow(2.0, z);
+      BufferedImage sm = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB);
+      AffineTransform at = new AffineTransform();
+      at.scale(scale_inv, scale_inv);
+      bh.consume(new AffineTransformOp(at, AffineTransformOp.TYPE_BILINEAR).filter(image, sm));
+    }
+    counter.tiles += levelTiles;
+  }
+
+  /**
+   * Each zoom level is halved from the previous one by {@link Downsampler Downsampler}, with each
+   * {@link DownsampleFilter DownsampleFilter}.
+   */
+  @Benchmark
+  public void pyramid(FilterState filter, TileCounter counter, Blackhole bh) {
+    BufferedImage level = image;
+    for (int z = 1; z < zoomLevels; z++) {
+      level = Downsampler.halve(level, filter.filter);
+      bh.consume(level);
+    }
+    counter.tiles += levelTiles;
+  }
+
+  /**
+   * The filter of {@link #pyramid(FilterState, TileCounter, Blackhole) pyramid}, in its own state
+   * so the other benchmarks do not run once per filter.
+   */
+  @State(Scope.Thread)
+  public static class FilterState {
+
+    @Param({"BOX", "BILINEAR", "LANCZOS2"})
+    DownsampleFilter filter;
+  }
+}
@@ -0,0 +1,55 @@
+package com.metratec.lib.tileup;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Generates the input images of the benchmarks in-process, so the benchmarks do not need any image
+ * files.
+ */
+final class SyntheticImages {
+
+  private SyntheticImages() {
+  }
+
+  /**
+   * Creates an image with gradients, hard edges and noise, which is roughly as hard to compress as
+   * a scanned map.
+   *
+   * @param width the image width
+   * @param height the image height
+   * @param type the image type, e.g. {@link BufferedImage#TYPE_INT_ARGB TYPE_INT_ARGB}
+   * @return the image
+   */
+  static BufferedImage create(int width, int height, int type) {
+    BufferedImage image = new BufferedImage(width, height, type);
+    Graphics2D g = image.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g.setPaint(new GradientPaint(0, 0, new Color(30, 90, 160), width, height, new Color(230, 210, 140)));
+      g.fillRect(0, 0, width, height);
+      Random random = new Random(42);
+      for (int k = 0; k < width * height / 20000; k++) {
+        g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        int x = random.nextInt(width);
+        int y = random.nextInt(height);
+        if (0 == k % 2) {
+          g.fillOval(x, y, 10 + random.nextInt(200), 10 + random.nextInt(200));
+        } else {
+          g.drawLine(x, y, random.nextInt(width), random.nextInt(height));
+        }
+      }
+    } finally {
+      g.dispose();
+    }
+    Random random = new Random(7);
+    for (int k = 0; k < width * height / 50; k++) {
+      image.setRGB(random.nextInt(width), random.nextInt(height), 0xff000000 | random.nextInt(0x1000000));
+    }
+    return image;
+  }
+}
@@ -0,0 +1,35 @@
+package com.metratec.lib.tileup;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the tiles processed by a benchmark, so JMH reports the throughput in tiles per second
+ * next to the operations per second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class TileCounter {
+
+  public long tiles;
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    tiles = 0;
+  }
+
+  /**
+   * Computes the number of tiles of a zoom level.
+   *
+   * @param width the width of the zoom level
+   * @param height the height of the zoom level
+   * @param tileSize the tile width and height
+   * @return the number of tiles
+   */
+  static int tilesOf(int width, int height, int tileSize) {
+    return ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+  }
+}
@@ -0,0 +1,65 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link TileEncoder TileEncoder} implementations on a single opaque tile, so one
+ * operation is one tile. Compare with {@link EncodingBenchmark EncodingBenchmark} for ImageIO.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileEncoderBenchmark {
+
+  @Param({"256"})
+  int tileSize;
+
+  /**
+   * <code>png-</code> followed by the deflate level, <code>jpg</code> or <code>raw</code>.
+   */
+  @Param({"png-1", "png-6", "png-9", "jpg", "raw"})
+  String encoder;
+
+  private BufferedImage tile;
+  private TileEncoder tileEncoder;
+  private ByteArrayOutputStream bytes;
+
+  @Setup
+  public void setUp() {
+    tile = SyntheticImages.create(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+    if (encoder.startsWith("png-")) {
+      tileEncoder =
+          new PngTileEncoder(Integer.parseInt(encoder.substring(4)), PngTileEncoder.Filter.ADAPTIVE);
+    } else if ("jpg".equals(encoder)) {
+      tileEncoder = new JpegTileEncoder();
+    } else {
+      tileEncoder = new RawTileEncoder();
+    }
+    bytes = new ByteArrayOutputStream(4 * tileSize * tileSize);
+  }
+
+  @Benchmark
+  public int encode() throws IOException {
+    bytes.reset();
+    tileEncoder.encode(tile, bytes);
+    return bytes.size();
+  }
+}
@@ -0,0 +1,126 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the tile extraction of TileUp 1.0.3 ({@link BufferedImage#getSubimage(int, int, int, int)
+ * getSubimage}, {@link ImageIO#write(java.awt.image.RenderedImage, String, java.io.OutputStream)
+ * ImageIO.write} and two explicit garbage collections per tile) with the reusable tile buffers of
+ * {@link TileWriter TileWriter}. Each operation extracts and encodes one tile.
+ * <p>
+ * Run with the GC profiler to see the allocation rate and the GC time:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar TileExtractionBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileExtractionBenchmark {
+
+  @Param({"2048"})
+  int imageSize;
+
+  @Param({"256", "512"})
+  int tileSize;
+
+  private BufferedImage image;
+  private int[] pixels;
+  private int columns;
+  private int next;
+  private BufferedImage tile;
+  private ImageWriter writer;
+  private ByteArrayOutputStream bytes;
+
+  @Setup
+  public void setUp() {
+    ImageIO.setUseCache(false);
+    image = SyntheticImages.create(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB);
+    pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    columns = imageSize / tileSize;
+    tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+    writer = ImageIO.getImageWritersByFormatName("png").next();
+    bytes = new ByteArrayOutputStream(4 * tileSize * tileSize);
+  }
+
+  @TearDown
+  public void tearDown() {
+    writer.dispose();
+  }
+
+  /**
+   * The tile loop of TileUp 1.0.3.
+   */
+  @Benchmark
+  public int subimageWithExplicitGc() throws IOException {
+    int n = nextTile();
+    BufferedImage out = image.getSubimage(n % columns * tileSize, n / columns * tileSize, tileSize, tileSize);
+    System.gc();
+    bytes.reset();
+    ImageIO.write(out, "png", bytes);
+    System.gc();
+    return bytes.size();
+  }
+
+  /**
+   * The tile loop of TileUp 1.0.3 without the explicit garbage collections.
+   */
+  @Benchmark
+  public int subimage() throws IOException {
+    int n = nextTile();
+    BufferedImage out = image.getSubimage(n % columns * tileSize, n / columns * tileSize, tileSize, tileSize);
+    bytes.reset();
+    ImageIO.write(out, "png", bytes);
+    return bytes.size();
+  }
+
+  /**
+   * Copying into a reused tile buffer and encoding with a reused PNG writer.
+   */
+  @Benchmark
+  public int reusedBuffer() throws IOException {
+    int n = nextTile();
+    TileWriter.copy(pixels, imageSize, n % columns * tileSize, n / columns * tileSize, tileSize, tileSize, tile);
+    bytes.reset();
+    ImageOutputStream out = new MemoryCacheImageOutputStream(bytes);
+    try {
+      writer.setOutput(out);
+      writer.write(tile);
+    } finally {
+      writer.setOutput(null);
+      out.close();
+    }
+    return bytes.size();
+  }
+
+  private int nextTile() {
+    next = (next + 1) % (columns * columns);
+    return next;
+  }
+}
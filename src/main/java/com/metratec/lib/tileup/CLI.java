@@ -1,5 +1,26 @@
 package com.metratec.lib.tileup;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import javax.imageio.ImageIO;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -19,10 +40,32 @@ public class CLI {
 
     Options options = new Options();
 
-    Option input = new Option("i", "in", true, "Required input file, your large image to tile up.");
-    input.setRequired(true);
+    Option input = new Option("i", "in", true,
+        "Input file, your large image to tile up. Required unless --in-list or --in-dir is given.");
+    input.setRequired(false);
     options.addOption(input);
 
+    Option inputList = new Option("il", "in-list", true,
+        "Batch mode: file listing one input image per line. The tiles of each image are saved into a directory "
+            + "named after the image in the output directory.");
+    inputList.setRequired(false);
+    options.addOption(inputList);
+
+    Option inputDir = new Option("id", "in-dir", true,
+        "Batch mode: directory of input images, optionally ending with a pattern, e.g. scans/*.tif.");
+    inputDir.setRequired(false);
+    options.addOption(inputDir);
+
+    Option batchImages = new Option("bi", "batch-images", true,
+        "Number of images tiled at the same time in batch mode. Default is the number of processors.");
+    batchImages.setRequired(false);
+    options.addOption(batchImages);
+
+    Option batchMemory = new Option("bm", "batch-memory", true,
+        "Memory in MB the images tiled at the same time may use in batch mode. Default is 3/4 of the heap.");
+    batchMemory.setRequired(false);
+    options.addOption(batchMemory);
+
     Option outputDir = new Option("o", "output-dir", true, "Output directory (will be created if it doesn't exist).");
     outputDir.setRequired(false);
     options.addOption(outputDir);
@@ -57,6 +100,142 @@ public class CLI {
     extend.setRequired(false);
     options.addOption(extend);
 
+    Option threads =
+        new Option("t", "threads", true, "Number of threads used to encode and save tiles. Default is 1.");
+    threads.setRequired(false);
+    options.addOption(threads);
+
+    Option ioThreads = new Option("io", "io-threads", true,
+        "Number of additional threads used only to save tiles, e.g. on network storage. Default is 0.");
+    ioThreads.setRequired(false);
+    options.addOption(ioThreads);
+
+    Option stream = new Option("s", "streaming", false,
+        "Read the input image in strips of one tile row instead of as a whole, to save memory.");
+    stream.setRequired(false);
+    options.addOption(stream);
+
+    Option quadtree = new Option("qt", "quadtree", false,
+        "Create the tiles of all zoom levels in one pass, each tile halved from the four tiles above it. "
+            + "Needs the box filter and even tile sizes, otherwise --streaming is used.");
+    quadtree.setRequired(false);
+    options.addOption(quadtree);
+
+    Option maxMemory = new Option("mx", "max-memory", true,
+        "Memory in MB the image data and tile buffers of an image may use. Switches to a mode that needs less "
+            + "memory, or fails before the first tile, if the estimate exceeds it. Default is no limit.");
+    maxMemory.setRequired(false);
+    options.addOption(maxMemory);
+
+    Option format =
+        new Option("f", "format", true, "Tile format: png, jpg or raw (uncompressed RGBA). Default is png.");
+    format.setRequired(false);
+    options.addOption(format);
+
+    Option level = new Option("l", "compression-level", true,
+        "PNG deflate level from 0 (fastest) to 9 (smallest files). Default is 6.");
+    level.setRequired(false);
+    options.addOption(level);
+
+    Option filter = new Option("pf", "png-filter", true,
+        "PNG filter: none, sub, up, average, paeth or adaptive. Default is adaptive.");
+    filter.setRequired(false);
+    options.addOption(filter);
+
+    Option quality = new Option("jq", "jpeg-quality", true, "JPEG quality from 0 to 100. Default is 85.");
+    quality.setRequired(false);
+    options.addOption(quality);
+
+    Option uniform = new Option("u", "uniform-tiles", true,
+        "How tiles with a single color are saved: write, skip-empty (do not save fully transparent tiles) or link "
+            + "(hard link all tiles of a color to one file). Default is write.");
+    uniform.setRequired(false);
+    options.addOption(uniform);
+
+    Option downsampling = new Option("ds", "downsampling", true,
+        "Filter halving each zoom level into the next: box, bilinear or lanczos2. Default is box.");
+    downsampling.setRequired(false);
+    options.addOption(downsampling);
+
+    Option incremental = new Option("r", "incremental", false,
+        "Only save tiles that changed since the last run into the output directory, or resume an aborted run.");
+    incremental.setRequired(false);
+    options.addOption(incremental);
+
+    Option index = new Option("ix", "index", false,
+        "Write an index of the saved tiles and their sizes to tileup.index in the output directory.");
+    index.setRequired(false);
+    options.addOption(index);
+
+    Option pack = new Option("pk", "pack", true,
+        "Save all tiles into this single pack file instead of separate files in the output directory.");
+    pack.setRequired(false);
+    options.addOption(pack);
+
+    Option mapped = new Option("m", "memory-mapped", false,
+        "Store the zoom levels in memory-mapped temporary files, for images larger than the heap.");
+    mapped.setRequired(false);
+    options.addOption(mapped);
+
+    Option tempDir = new Option("tmp", "temp-dir", true,
+        "Directory of the temporary files of --memory-mapped. Default is the system temporary directory.");
+    tempDir.setRequired(false);
+    options.addOption(tempDir);
+
+    Option overviews = new Option("eo", "embedded-overviews", false,
+        "Read zoom levels from the overviews stored in a pyramidal TIFF instead of halving the original image.");
+    overviews.setRequired(false);
+    options.addOption(overviews);
+
+    Option subsampled = new Option("sd", "subsampled-decoding", false,
+        "Decode JPEG images at 1/2, 1/4 or 1/8 of their size if only lower zoom levels are created, instead of "
+            + "halving the original image. Faster, but the tiles are sharper and may alias.");
+    subsampled.setRequired(false);
+    options.addOption(subsampled);
+
+    Option shard = new Option("sh", "shard", true,
+        "Only create shard k of n, given as k/n, e.g. 2/4. The output directories of all shards combined hold all "
+            + "tiles.");
+    shard.setRequired(false);
+    options.addOption(shard);
+
+    Option tileRange = new Option("tr", "tile-range", true,
+        "Only create the tiles of the zoom levels a to b within the columns c to d and rows e to f of level b, given"
+            + " as a-b,c-d,e-f. Level 0 is the original size.");
+    tileRange.setRequired(false);
+    options.addOption(tileRange);
+
+    Option stats = new Option("st", "stats", true,
+        "Write the time spent in each phase, the bytes written and the peak buffer memory as JSON to this file, or "
+            + "- for the console. In batch mode one entry per image.");
+    stats.setRequired(false);
+    options.addOption(stats);
+
+    Option jmx = new Option("jmx", "jmx", false, "Register the statistics of each running image as JMX MBean.");
+    jmx.setRequired(false);
+    options.addOption(jmx);
+
+    Option serve = new Option("sv", "serve", true,
+        "Serve the tiles over HTTP on this port at /{zoom}/{x}/{y}.png instead of creating all of them. Each tile is "
+            + "created when it is first requested.");
+    serve.setRequired(false);
+    options.addOption(serve);
+
+    Option cacheSize = new Option("cs", "cache-size", true,
+        "Size of the cache of served tiles in MB. Default is 256.");
+    cacheSize.setRequired(false);
+    options.addOption(cacheSize);
+
+    Option quiet = new Option("q", "quiet", false,
+        "Do not print the image size, the progress of the tiles and the result of batch images.");
+    quiet.setRequired(false);
+    options.addOption(quiet);
+
+    Option progressInterval = new Option("pi", "progress-interval", true,
+        "Minimum time in ms between two progress lines, 0 prints every tile. Default is 1000.");
+    progressInterval.setRequired(false);
+    options.addOption(progressInterval);
+
     Option help = new Option("h", "help", false, "Shows help.");
     help.setRequired(false);
     options.addOption(help);
@@ -86,31 +265,336 @@ public class CLI {
       return;
     }
 
+    TileEncoder encoder;
+    UniformTiles uniformTiles;
+    DownsampleFilter downsampleFilter;
+    int[] shardOf = null;
+    TileRange range = null;
+    try {
+      int inputs = 0;
+      for (String in : new String[] {"in", "in-list", "in-dir"}) {
+        inputs += cmd.hasOption(in) ? 1 : 0;
+      }
+      if (1 != inputs) {
+        throw new IllegalArgumentException("Exactly one of --in, --in-list or --in-dir is required");
+      }
+      if (!cmd.hasOption("in") && (cmd.hasOption("pack") || cmd.hasOption("serve"))) {
+        throw new IllegalArgumentException("--pack and --serve can not be combined with --in-list or --in-dir");
+      }
+      encoder = createEncoder(cmd);
+      uniformTiles = UniformTiles.valueOf(cmd.getOptionValue("uniform-tiles", "write").toUpperCase().replace('-', '_'));
+      downsampleFilter = DownsampleFilter.valueOf(cmd.getOptionValue("downsampling", "box").toUpperCase());
+      if (cmd.hasOption("shard")) {
+        shardOf = parseRange(cmd.getOptionValue("shard"), "/");
+        if (shardOf[0] < 1 || shardOf[0] > shardOf[1]) {
+          throw new IllegalArgumentException("Invalid shard: " + cmd.getOptionValue("shard"));
+        }
+      }
+      if (cmd.hasOption("tile-range")) {
+        String[] parts = cmd.getOptionValue("tile-range").split(",");
+        if (3 != parts.length) {
+          throw new IllegalArgumentException("Invalid tile range: " + cmd.getOptionValue("tile-range"));
+        }
+        int[] levels = parseRange(parts[0], "-");
+        int[] columns = parseRange(parts[1], "-");
+        int[] rows = parseRange(parts[2], "-");
+        range = new TileRange(levels[0], levels[1], columns[0], rows[0], columns[1], rows[1]);
+      }
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      formatter.printHelp(usage, options);
+
+      System.exit(1);
+      return;
+    }
+
     String inputFilePath = cmd.getOptionValue("in");
     String outputDirPath = cmd.getOptionValue("output-dir", ".");
     String prefixName = cmd.getOptionValue("prefix", "");
     String tileWidth = cmd.getOptionValue("tile-width", "256");
     String tileHeight = cmd.getOptionValue("tile-height", "256");
     String zoomlevel = cmd.getOptionValue("zoom-levels", "1");
-    boolean autozoom = cmd.hasOption("auto-zoom");
+    String packFilePath = cmd.getOptionValue("pack");
     boolean ext = !cmd.hasOption("dont-extend-incomplete-tiles");
 
     int w = Integer.parseInt(tileWidth);
     int h = Integer.parseInt(tileHeight);
     int z = Integer.parseInt(zoomlevel);
 
+    if (!cmd.hasOption("in")) {
+      try {
+        tileBatch(cmd, outputDirPath, prefixName, w, h, z, ext, encoder, uniformTiles, downsampleFilter, shardOf,
+            range);
+      } catch (Exception ex) {
+        ex.printStackTrace();
+      }
+      return;
+    }
+
     try {
       TileUp tu = new TileUp(inputFilePath, outputDirPath, prefixName, w, h, z, ext);
-      if (autozoom) {
-        tu.setAutoZoom();
+      configure(tu, cmd, encoder, uniformTiles, downsampleFilter, shardOf, range);
+      boolean verbose = !cmd.hasOption("quiet");
+      if (null != shardOf && verbose) {
+        System.out.println("Shard " + shardOf[0] + "/" + shardOf[1] + ": " + tu.getTileRange());
+      }
+      if (null != packFilePath) {
+        tu.setTileSink(new PackTileSink(new File(packFilePath), encoder.getFileExtension()));
       }
 
-      System.out.println("Image width: " + tu.getImageWidth());
-      System.out.println("Image height: " + tu.getImageHeight());
+      if (verbose) {
+        System.out.println("Image width: " + tu.getImageWidth());
+        System.out.println("Image height: " + tu.getImageHeight());
+      }
+
+      if (cmd.hasOption("serve")) {
+        long cacheBytes = Long.parseLong(cmd.getOptionValue("cache-size", "256")) * 1024 * 1024;
+        TileServer server = new TileServer(new TileRenderer(tu, cacheBytes),
+            new InetSocketAddress(Integer.parseInt(cmd.getOptionValue("serve"))), Math.max(2, tu.getThreads()));
+        System.out.println("Serving tiles at http://localhost:" + server.getAddress().getPort() + "/{zoom}/{x}/{y}."
+            + encoder.getFileExtension());
+        // the threads of the server keep running
+        return;
+      }
 
       tu.createTiles();
+      if (cmd.hasOption("stats")) {
+        // on the error stream, so the JSON of --stats - can be piped
+        if (verbose) {
+          System.err.println("Pipeline: " + tu.getPipelineStats());
+        }
+        writeStats(cmd.getOptionValue("stats"), tu.getTileStats().toJson());
+      }
     } catch (Exception ex) {
       ex.printStackTrace();
     }
   }
+
+  // applies the settings shared by single images and batches
+  private static void configure(TileUp tu, CommandLine cmd, TileEncoder encoder, UniformTiles uniformTiles,
+      DownsampleFilter downsampleFilter, int[] shardOf, TileRange range) {
+    if (cmd.hasOption("auto-zoom")) {
+      tu.setAutoZoom();
+    }
+    tu.setThreads(Integer.parseInt(cmd.getOptionValue("threads", "1")));
+    tu.setIoThreads(Integer.parseInt(cmd.getOptionValue("io-threads", "0")));
+    tu.setStreaming(cmd.hasOption("streaming"));
+    tu.setMemoryMapped(cmd.hasOption("memory-mapped"));
+    tu.setQuadtree(cmd.hasOption("quadtree"));
+    tu.setMaxMemory(Long.parseLong(cmd.getOptionValue("max-memory", "0")) * 1024 * 1024);
+    if (cmd.hasOption("temp-dir")) {
+      tu.setTempDir(new File(cmd.getOptionValue("temp-dir")));
+    }
+    tu.setEncoder(encoder);
+    tu.setUniformTiles(uniformTiles);
+    tu.setDownsampleFilter(downsampleFilter);
+    tu.setEmbeddedOverviews(cmd.hasOption("embedded-overviews"));
+    tu.setSubsampledDecoding(cmd.hasOption("subsampled-decoding"));
+    tu.setQuiet(cmd.hasOption("quiet"));
+    tu.setProgressInterval(Long.parseLong(cmd.getOptionValue("progress-interval", "1000")));
+    tu.setIncremental(cmd.hasOption("incremental"));
+    tu.setIndexEnabled(cmd.hasOption("index"));
+    tu.setJmxEnabled(cmd.hasOption("jmx"));
+    if (null != shardOf) {
+      tu.setShard(shardOf[0] - 1, shardOf[1]);
+    } else {
+      tu.setTileRange(range);
+    }
+  }
+
+  // tiles all images of --in-list or --in-dir into sub-directories and writes a summary
+  private static void tileBatch(CommandLine cmd, String outputDirPath, String prefixName, int w, int h, int z,
+      boolean ext, TileEncoder encoder, UniformTiles uniformTiles, DownsampleFilter downsampleFilter, int[] shardOf,
+      TileRange range) throws Exception {
+    List<File> images = cmd.hasOption("in-list") ? readList(new File(cmd.getOptionValue("in-list")))
+        : listDir(cmd.getOptionValue("in-dir"));
+    int concurrent = Integer.parseInt(
+        cmd.getOptionValue("batch-images", String.valueOf(Runtime.getRuntime().availableProcessors())));
+    long budget = cmd.hasOption("batch-memory") ? Long.parseLong(cmd.getOptionValue("batch-memory")) * 1024 * 1024
+        : Runtime.getRuntime().maxMemory() / 4 * 3;
+    File outDir = new File(outputDirPath);
+    outDir.mkdirs();
+    boolean verbose = !cmd.hasOption("quiet");
+    if (verbose) {
+      System.out.println("Batch: " + images.size() + " images");
+    }
+
+    long start = System.nanoTime();
+    TileBatch batch = new TileBatch(concurrent, budget, Integer.parseInt(cmd.getOptionValue("threads", "1")),
+        Integer.parseInt(cmd.getOptionValue("io-threads", "0")));
+    List<CompletableFuture<TileResult>> results = new ArrayList<CompletableFuture<TileResult>>();
+    Set<String> names = new HashSet<String>();
+    try {
+      for (File image : images) {
+        CompletableFuture<TileResult> result;
+        try {
+          TileUp tu = new TileUp(image.getPath(), new File(outDir, outputName(image, names)).getPath(), prefixName, w,
+              h, z, ext);
+          configure(tu, cmd, encoder, uniformTiles, downsampleFilter, shardOf, range);
+          result = batch.submit(tu, null);
+        } catch (Exception e) {
+          result = new CompletableFuture<TileResult>();
+          result.completeExceptionally(e);
+        }
+        results.add(result);
+      }
+
+      int tiled = 0;
+      StringBuilder stats = new StringBuilder("[");
+      PrintWriter summary = new PrintWriter(new File(outDir, "tileup-batch.tsv"), "UTF-8");
+      try {
+        summary.println("image\tstatus\tcreated\tskipped\ttotal\tseconds\terror");
+        for (int k = 0; k < images.size(); k++) {
+          String image = images.get(k).getPath();
+          try {
+            TileResult result = results.get(k).get();
+            double seconds = result.getPipelineStats().getElapsedNanos() / 1e9;
+            if (verbose) {
+              System.out.println(String.format(Locale.ROOT, "Tiled %s: %s in %.1f s", image, result, seconds));
+            }
+            summary.println(String.format(Locale.ROOT, "%s\tok\t%d\t%d\t%d\t%.3f\t", image,
+                result.getCreatedTiles(), result.getSkippedTiles(), result.getTotalTiles(), seconds));
+            stats.append(tiled > 0 ? ",\n" : "\n").append("{\"image\":").append(jsonString(image))
+                .append(",\"stats\":").append(result.getTileStats().toJson()).append('}');
+            tiled++;
+          } catch (ExecutionException e) {
+            String message = String.valueOf(e.getCause());
+            System.err.println("Failed " + image + ": " + message);
+            summary.println(image + "\tfailed\t\t\t\t\t" + message.replace('\t', ' ').replace('\n', ' '));
+          }
+          summary.flush();
+        }
+      } finally {
+        summary.close();
+      }
+      if (verbose) {
+        System.out.println(String.format(Locale.ROOT, "Batch: %d of %d images tiled in %.1f s", tiled,
+            images.size(), (System.nanoTime() - start) / 1e9));
+      }
+      if (cmd.hasOption("stats")) {
+        writeStats(cmd.getOptionValue("stats"), stats.append("\n]").toString());
+      }
+    } finally {
+      batch.close();
+    }
+  }
+
+  // writes the JSON statistics to a file, or to the console for -
+  private static void writeStats(String path, String json) throws IOException {
+    if ("-".equals(path)) {
+      System.out.println(json);
+      return;
+    }
+    PrintWriter out = new PrintWriter(new File(path), "UTF-8");
+    try {
+      out.println(json);
+    } finally {
+      out.close();
+    }
+    if (out.checkError()) {
+      throw new IOException("Can not write " + path);
+    }
+  }
+
+  // quotes a string for JSON
+  private static String jsonString(String value) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (int k = 0; k < value.length(); k++) {
+      char c = value.charAt(k);
+      if ('"' == c || '\\' == c) {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  // the name of the output directory of an image, its file name without extension if unique
+  private static String outputName(File image, Set<String> names) {
+    String name = image.getName();
+    int dot = name.lastIndexOf('.');
+    if (dot > 0 && names.add(name.substring(0, dot))) {
+      return name.substring(0, dot);
+    }
+    for (int k = 2; !names.add(name); k++) {
+      name = image.getName() + "_" + k;
+    }
+    return name;
+  }
+
+  // reads one path per line, ignoring empty lines and lines starting with #
+  private static List<File> readList(File list) throws IOException {
+    List<File> images = new ArrayList<File>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(list), "UTF-8"));
+    try {
+      for (String line = reader.readLine(); null != line; line = reader.readLine()) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          images.add(new File(line));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return images;
+  }
+
+  // lists the images of a directory, either matching a pattern in the last path element or all
+  // files ImageIO has a reader for, sorted by name
+  private static List<File> listDir(String path) throws IOException {
+    File dir = new File(path);
+    String pattern = null;
+    if (dir.getName().matches(".*[*?\\[{].*")) {
+      pattern = dir.getName();
+      dir = null != dir.getParentFile() ? dir.getParentFile() : new File(".");
+    }
+    File[] files = dir.listFiles();
+    if (null == files) {
+      throw new IOException("Can not list " + dir);
+    }
+    PathMatcher matcher = null != pattern ? FileSystems.getDefault().getPathMatcher("glob:" + pattern) : null;
+    Set<String> suffixes = new HashSet<String>();
+    for (String suffix : ImageIO.getReaderFileSuffixes()) {
+      suffixes.add(suffix.toLowerCase(Locale.ROOT));
+    }
+    Arrays.sort(files);
+    List<File> images = new ArrayList<File>();
+    for (File file : files) {
+      String name = file.getName();
+      int dot = name.lastIndexOf('.');
+      boolean selected = null != matcher ? matcher.matches(Paths.get(name))
+          : dot > 0 && suffixes.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+      if (file.isFile() && selected) {
+        images.add(file);
+      }
+    }
+    return images;
+  }
+
+  private static TileEncoder createEncoder(CommandLine cmd) {
+    String format = cmd.getOptionValue("format", "png").toLowerCase();
+    if ("png".equals(format)) {
+      int level = Integer.parseInt(cmd.getOptionValue("compression-level", "6"));
+      String filter = cmd.getOptionValue("png-filter", "adaptive").toUpperCase();
+      return new PngTileEncoder(level, PngTileEncoder.Filter.valueOf(filter));
+    } else if ("jpg".equals(format) || "jpeg".equals(format)) {
+      int quality = Integer.parseInt(cmd.getOptionValue("jpeg-quality", "85"));
+      return new JpegTileEncoder(quality / 100f);
+    } else if ("raw".equals(format)) {
+      return new RawTileEncoder();
+    }
+    throw new IllegalArgumentException("Unknown tile format: " + format);
+  }
+
+  // parses two numbers separated by a separator, e.g. 2/4 or 0-3
+  private static int[] parseRange(String value, String separator) {
+    String[] parts = value.split(separator);
+    if (2 != parts.length) {
+      throw new IllegalArgumentException("Invalid value: " + value);
+    }
+    return new int[] {Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())};
+  }
 }
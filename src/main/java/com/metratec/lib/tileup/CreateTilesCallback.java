@@ -16,12 +16,28 @@ public interface CreateTilesCallback {
   final int RESULT_ERROR = -1;
 
   /**
+   * Called for every saved tile, or at most once per {@link TileUp#setProgressInterval(long) progress
+   * interval} and once with the count of all tiles at the end of the run. The calls are serialized.
+   *
    * @param createdTile create tile name
    * @param count created tiles count
    * @param total total numbers of tiles to create
    */
   void createTilesProgress(String createdTile, int count, int total);
 
+  /**
+   * Called instead of {@link #createTilesProgress(String, int, int) createTilesProgress} for tiles
+   * that are not saved: empty tiles (see {@link UniformTiles#SKIP_EMPTY}) and tiles that did not
+   * change since the last run (see {@link TileUp#setIncremental(boolean)}). Skipped tiles are
+   * included in the count of the next {@link #createTilesProgress(String, int, int)
+   * createTilesProgress} call. The default implementation does nothing.
+   *
+   * @param skippedTile skipped tile name
+   * @param skipped skipped tiles count
+   */
+  default void createTilesSkipped(String skippedTile, int skipped) {
+  }
+
   /**
    * @param retval if finish without erros {@link #RESULT_OK}, otherwise {@link #RESULT_ERROR}
    * @param e if retval set to {@link #RESULT_ERROR} then this is set, otherwise null
@@ -0,0 +1,124 @@
+package com.metratec.lib.tileup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Saves every tile as a separate file
+ * <code>&lt;dir&gt;/&lt;zoom&gt;/&lt;prefix&gt;_&lt;x&gt;_&lt;y&gt;.&lt;extension&gt;</code>. This is the
+ * default {@link TileSink TileSink}.
+ * <p>
+ * Shared tiles are saved once into the directory <code>&lt;dir&gt;/uniform</code> and hard linked
+ * into the zoom level directories. If the file system does not support hard links, they are
+ * copied. Files are replaced rather than overwritten, so saving a tile into the output of an
+ * earlier run never changes the files linked to it.
+ */
+public class DirectoryTileSink implements TileSink {
+
+  private final String dir;
+  private final String prefix;
+  private final String extension;
+  private final Map<Integer, File> zoomDirs = new HashMap<Integer, File>();
+  private final Map<String, File> sharedFiles = new HashMap<String, File>();
+
+  /**
+   * Constructs a {@link DirectoryTileSink DirectoryTileSink}. The directories are created when the
+   * first tile is saved into them.
+   *
+   * @param dir path to the folder where the tiles should be saved
+   * @param prefix prefix of the tile file names
+   * @param extension the file extension of the tiles, without the leading dot
+   */
+  public DirectoryTileSink(String dir, String prefix, String extension) {
+    this.dir = dir;
+    this.prefix = prefix;
+    this.extension = extension;
+  }
+
+  @Override
+  public void put(int zoom, int x, int y, byte[] data, int length) throws IOException {
+    write(file(zoom, x, y), data, length);
+  }
+
+  @Override
+  public void putShared(int zoom, int x, int y, String id, byte[] data, int length) throws IOException {
+    File target = sharedFile(id, data, length);
+    File file = file(zoom, x, y);
+    Files.deleteIfExists(file.toPath());
+    try {
+      Files.createLink(file.toPath(), target.toPath());
+    } catch (UnsupportedOperationException e) {
+      Files.copy(target.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (FileSystemException e) {
+      Files.copy(target.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  @Override
+  public boolean contains(int zoom, int x, int y) {
+    return new File(getName(zoom, x, y)).isFile();
+  }
+
+  @Override
+  public void remove(int zoom, int x, int y) throws IOException {
+    Files.deleteIfExists(new File(getName(zoom, x, y)).toPath());
+  }
+
+  @Override
+  public String getName(int zoom, int x, int y) {
+    return String.format("%s/%d/%s_%d_%d.%s", dir, zoom, prefix, x, y, extension);
+  }
+
+  @Override
+  public void close() {
+  }
+
+  private File file(int zoom, int x, int y) {
+    return new File(zoomDir(zoom), String.format("%s_%d_%d.%s", prefix, x, y, extension));
+  }
+
+  private synchronized File zoomDir(int zoom) {
+    File zoomDir = zoomDirs.get(zoom);
+    if (null == zoomDir) {
+      zoomDir = new File(dir, Integer.toString(zoom));
+      zoomDir.mkdirs();
+      zoomDirs.put(zoom, zoomDir);
+    }
+    return zoomDir;
+  }
+
+  // shared tiles are rare enough to save them under a lock
+  private synchronized File sharedFile(String id, byte[] data, int length) throws IOException {
+    File file = sharedFiles.get(id);
+    if (null == file) {
+      File sharedDir = new File(dir, "uniform");
+      sharedDir.mkdirs();
+      file = new File(sharedDir, id + "." + extension);
+      write(file, data, length);
+      sharedFiles.put(id, file);
+    }
+    return file;
+  }
+
+  // the old file may be a hard link to a shared tile, writing into it would change all its links
+  private static void write(File file, byte[] data, int length) throws IOException {
+    Files.deleteIfExists(file.toPath());
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.metratec.lib.tileup;
+
+/**
+ * Defines the filter {@link TileUp TileUp} uses to halve each zoom level into the next lower one.
+ * All filters weight the color of each pixel by its alpha value, so transparent pixels do not
+ * darken or tint their neighbors.
+ * <p>
+ * See also {@link TileUp#setDownsampleFilter(DownsampleFilter)
+ * TileUp.setDownsampleFilter(DownsampleFilter)}.
+ */
+public enum DownsampleFilter {
+
+  /**
+   * Averages each block of 2 × 2 pixels, this is the default. It is the fastest filter and never
+   * creates colors that are not in the block, but keeps some aliasing of fine patterns.
+   */
+  BOX(new double[] {1, 1}),
+
+  /**
+   * A tent filter over 4 × 4 pixels, with the weights 1, 3, 3, 1 per axis. It is softer than
+   * {@link #BOX BOX} and reduces aliasing.
+   */
+  BILINEAR(new double[] {1, 3, 3, 1}),
+
+  /**
+   * A Lanczos filter with 2 lobes over 8 × 8 pixels. It keeps edges sharper than
+   * {@link #BILINEAR BILINEAR} with little aliasing, but its negative lobes can cause slight halos
+   * at hard edges.
+   */
+  LANCZOS2(lanczos2());
+
+  private final float[] weights;
+
+  private DownsampleFilter(double[] weights) {
+    double sum = 0;
+    for (double weight : weights) {
+      sum += weight;
+    }
+    this.weights = new float[weights.length];
+    for (int t = 0; t < weights.length; t++) {
+      this.weights[t] = (float) (weights[t] / sum);
+    }
+  }
+
+  /**
+   * Gets the normalized weights of the source pixels of one axis. The pixels of a target pixel
+   * <code>x</code> start at the source pixel <code>2 * x - (weights.length / 2 - 1)</code>.
+   *
+   * @return the weights, the array must not be changed
+   */
+  float[] weights() {
+    return weights;
+  }
+
+  // the kernel sin(pi x) / (pi x) * sin(pi x / 2) / (pi x / 2) stretched by 2, at the source pixel centers
+  private static double[] lanczos2() {
+    double[] weights = new double[8];
+    for (int t = 0; t < 8; t++) {
+      double x = Math.abs(t - 3.5) / 2;
+      weights[t] = Math.sin(Math.PI * x) / (Math.PI * x) * Math.sin(Math.PI * x / 2) / (Math.PI * x / 2);
+    }
+    return weights;
+  }
+}
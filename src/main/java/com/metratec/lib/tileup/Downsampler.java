@@ -0,0 +1,121 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Builds the zoom levels of the image pyramid. Each level is half the size of the previous one and
+ * is computed from it, so creating all levels costs about 4/3 of a single pass over the original
+ * image.
+ * <p>
+ * With the default {@link DownsampleFilter#BOX BOX} filter every pixel of a level is the alpha
+ * weighted average of a 2 × 2 block of the previous level. For the first halving of an opaque
+ * image this is the same result as a bilinear scale by 0.5 (apart from rounding, at most 1 per
+ * channel). The colors of translucent pixels are weighted by their alpha, so almost transparent
+ * pixels hardly tint their neighbors, while the bilinear scale of TileUp 1.0.3 averaged them
+ * unweighted. Their colors therefore differ from 1.0.3 by up to the contrast of the block. Lower
+ * levels differ from a direct bilinear scale of the original image by 1/2^z, because such a scale
+ * only samples a 2 × 2 block out of every 2^z × 2^z block, while the pyramid averages all of them.
+ * The difference is therefore bounded by the local contrast of the original image and vanishes on
+ * smooth areas.
+ */
+final class Downsampler {
+
+  private Downsampler() {
+  }
+
+  /**
+   * Halves an image into a {@link BufferedImage#TYPE_INT_ARGB TYPE_INT_ARGB} image. Odd widths and
+   * heights are rounded up, the last column or row is then averaged with itself.
+   * <p>
+   * Images created by this method are halved directly with the {@link DownsampleFilter#BOX BOX}
+   * filter. Otherwise the image is converted row by row by {@link Pixels#copyArgb(BufferedImage,
+   * int, int, int, int, int[], int, int) Pixels.copyArgb} and halved by a {@link RowHalver
+   * RowHalver}, so no ARGB copy of the whole image is needed.
+   *
+   * @param src the image
+   * @param filter the filter
+   * @return the image with half the width and half the height
+   */
+  static BufferedImage halve(BufferedImage src, DownsampleFilter filter) {
+    int sw = src.getWidth();
+    int sh = src.getHeight();
+    int dw = (sw + 1) / 2;
+    int dh = (sh + 1) / 2;
+    BufferedImage dst = new BufferedImage(dw, dh, BufferedImage.TYPE_INT_ARGB);
+    int[] d = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+    boolean direct = BufferedImage.TYPE_INT_ARGB == src.getType() && isCompact(src.getRaster());
+    if (direct && DownsampleFilter.BOX == filter) {
+      int[] s = ((DataBufferInt) src.getRaster().getDataBuffer()).getData();
+      for (int y = 0; y < dh; y++) {
+        halveRow(s, 2 * y * sw, s, Math.min(2 * y + 1, sh - 1) * sw, sw, d, y * dw);
+      }
+    } else {
+      RowHalver halver = new RowHalver(filter, sw, sh);
+      int[] s = direct ? ((DataBufferInt) src.getRaster().getDataBuffer()).getData() : new int[sw];
+      int y = 0;
+      for (int row = 0; row < sh; row++) {
+        if (direct) {
+          halver.push(s, row * sw);
+        } else {
+          Pixels.copyArgb(src, 0, row, sw, 1, s, 0, sw);
+          halver.push(s, 0);
+        }
+        while (halver.poll(d, y * dw)) {
+          y++;
+        }
+      }
+    }
+    return dst;
+  }
+
+  /**
+   * Averages two neighboring rows of ARGB pixels into one row of half the width.
+   *
+   * @param upper the pixels of the upper row
+   * @param upperOffset the offset of the upper row
+   * @param lower the pixels of the lower row
+   * @param lowerOffset the offset of the lower row
+   * @param width the width of the rows
+   * @param dst the array receiving the (width + 1) / 2 averaged pixels
+   * @param dstOffset the offset of the averaged pixels
+   */
+  static void halveRow(int[] upper, int upperOffset, int[] lower, int lowerOffset, int width, int[] dst,
+      int dstOffset) {
+    int dw = (width + 1) / 2;
+    for (int x = 0; x < dw; x++) {
+      int x0 = 2 * x;
+      int x1 = Math.min(x0 + 1, width - 1);
+      dst[dstOffset + x] = average(upper[upperOffset + x0], upper[upperOffset + x1], lower[lowerOffset + x0],
+          lower[lowerOffset + x1]);
+    }
+  }
+
+  private static int average(int p0, int p1, int p2, int p3) {
+    int a0 = p0 >>> 24;
+    int a1 = p1 >>> 24;
+    int a2 = p2 >>> 24;
+    int a3 = p3 >>> 24;
+    int a = a0 + a1 + a2 + a3;
+    if (0 == a) {
+      return 0;
+    }
+    int half = a >> 1;
+    int r = ((p0 >> 16 & 0xff) * a0 + (p1 >> 16 & 0xff) * a1 + (p2 >> 16 & 0xff) * a2 + (p3 >> 16 & 0xff) * a3 + half)
+        / a;
+    int g = ((p0 >> 8 & 0xff) * a0 + (p1 >> 8 & 0xff) * a1 + (p2 >> 8 & 0xff) * a2 + (p3 >> 8 & 0xff) * a3 + half) / a;
+    int b = ((p0 & 0xff) * a0 + (p1 & 0xff) * a1 + (p2 & 0xff) * a2 + (p3 & 0xff) * a3 + half) / a;
+    return (a + 2) >> 2 << 24 | r << 16 | g << 8 | b;
+  }
+
+  private static boolean isCompact(WritableRaster raster) {
+    if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+      return false;
+    }
+    SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+    return 0 == raster.getSampleModelTranslateX() && 0 == raster.getSampleModelTranslateY()
+        && 0 == raster.getDataBuffer().getOffset() && sm.getScanlineStride() == raster.getWidth();
+  }
+}
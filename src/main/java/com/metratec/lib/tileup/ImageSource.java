@@ -0,0 +1,281 @@
+package com.metratec.lib.tileup;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * The input image and what its format allows to read without decoding all of it. Only the header
+ * is read when the source is created, so the size is known at once.
+ * <p>
+ * All formats are read with a source region, but PNG and JPEG decode every row above the region.
+ * TIFF (with the TIFF plugin of Java 9 or later) stores the image in strips or tiles that are
+ * decoded on their own, so only the strips or tiles within the region are decoded. A tiled TIFF is
+ * read in strips of whole rows of its tiles, so no tile is decoded twice. Pyramidal TIFFs store
+ * overviews, i.e. reduced versions of the image, as further images in the same file. An overview
+ * with exactly the size of a zoom level can be read instead of halving the image down to it.
+ * <p>
+ * JPEG images can be decoded at 1/2, 1/4 and 1/8 of their size with subsampling, which only keeps
+ * every 2nd, 4th or 8th pixel of each row and column. The image is still decoded row by row, but
+ * the pixels in between are neither converted nor stored, and the zoom level does not have to be
+ * halved from the full image.
+ */
+final class ImageSource {
+
+  private final File file;
+  private final int width;
+  private final int height;
+  private final boolean regionDecodable;
+  private final int bytesPerPixel;
+  /** the number of zoom levels below the image that can be decoded with subsampling */
+  private final int subsampledLevels;
+  /** the index of the image with the size of each zoom level, or -1, up to the last overview */
+  private final int[] levelImages;
+  /** the tile width of the image of each zoom level, 0 if it is not tiled */
+  private final int[] levelTileWidths;
+  /** the tile height of the image of each zoom level, 0 if it is not tiled */
+  private final int[] levelTileHeights;
+
+  /**
+   * Reads the header of an image.
+   *
+   * @param file the image file
+   * @throws IOException if the file can not be read or its format is not supported
+   */
+  ImageSource(File file) throws IOException {
+    this.file = file;
+    ImageReader reader = openReader(file);
+    try {
+      this.width = reader.getWidth(0);
+      this.height = reader.getHeight(0);
+      List<String> formats = Arrays.asList(reader.getOriginatingProvider().getFormatNames());
+      this.regionDecodable = formats.contains("tiff");
+      this.subsampledLevels = formats.contains("jpeg") ? 3 : 0;
+      this.bytesPerPixel = bytesPerPixel(reader);
+      int[] images = {0};
+      int[] tileWidths = {reader.isImageTiled(0) ? reader.getTileWidth(0) : 0};
+      int[] tileHeights = {reader.isImageTiled(0) ? reader.getTileHeight(0) : 0};
+      // other formats may have to scan the whole file to count their images
+      int count = regionDecodable ? reader.getNumImages(true) : 1;
+      for (int index = 1; index < count; index++) {
+        int z = level(reader.getWidth(index), reader.getHeight(index));
+        if (z > 0) {
+          if (z >= images.length) {
+            int size = images.length;
+            images = Arrays.copyOf(images, z + 1);
+            tileWidths = Arrays.copyOf(tileWidths, z + 1);
+            tileHeights = Arrays.copyOf(tileHeights, z + 1);
+            Arrays.fill(images, size, z + 1, -1);
+          }
+          if (-1 == images[z]) {
+            images[z] = index;
+            tileWidths[z] = reader.isImageTiled(index) ? reader.getTileWidth(index) : 0;
+            tileHeights[z] = reader.isImageTiled(index) ? reader.getTileHeight(index) : 0;
+          }
+        }
+      }
+      this.levelImages = images;
+      this.levelTileWidths = tileWidths;
+      this.levelTileHeights = tileHeights;
+    } finally {
+      closeReader(reader);
+    }
+  }
+
+  /**
+   * @return the image file
+   */
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the width of the image
+   */
+  int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return the height of the image
+   */
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return whether regions are read without decoding the rows above them
+   */
+  boolean isRegionDecodable() {
+    return regionDecodable;
+  }
+
+  /**
+   * Gets the memory of a decoded pixel, e.g. 3 for RGB images with 8 bits per sample and 4 for
+   * images with alpha. Images with less than 8 bits per pixel are counted as 1 byte per pixel.
+   *
+   * @return the number of bytes per pixel of the decoded image
+   */
+  int getBytesPerPixel() {
+    return bytesPerPixel;
+  }
+
+  /**
+   * Gets the highest zoom level at or below a level that is stored in the file, i.e. the image
+   * itself or one of its overviews.
+   *
+   * @param z the zoom level, 0 is the original image size
+   * @return the stored zoom level, 0 if there are no overviews up to <code>z</code>
+   */
+  int getStoredLevel(int z) {
+    for (int k = Math.min(z, levelImages.length - 1); k > 0; k--) {
+      if (-1 != levelImages[k]) {
+        return k;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Gets the highest zoom level at or below a level that can be decoded with subsampling, i.e. at
+   * most 1/8 of the size of a JPEG image.
+   *
+   * @param z the zoom level, 0 is the original image size
+   * @return the subsampled zoom level, 0 if the image can not be decoded with subsampling
+   */
+  int getSubsampledLevel(int z) {
+    return Math.min(z, subsampledLevels);
+  }
+
+  /**
+   * Gets the size of the tiles a stored zoom level is stored in.
+   *
+   * @param z the stored zoom level
+   * @return the tile size, or null if the level is not stored in tiles
+   */
+  Dimension getTileSize(int z) {
+    return z < levelTileWidths.length && levelTileWidths[z] > 0
+        ? new Dimension(levelTileWidths[z], levelTileHeights[z]) : null;
+  }
+
+  /**
+   * Gets the height of the strips a stored zoom level is read in, the tile height rounded up to
+   * whole tile rows of a tiled image.
+   *
+   * @param z the stored zoom level
+   * @param tileHeight the height of the created tiles
+   * @return the strip height
+   */
+  int getStripHeight(int z, int tileHeight) {
+    int sourceHeight = z < levelTileHeights.length ? levelTileHeights[z] : 0;
+    return sourceHeight > 0 ? (tileHeight + sourceHeight - 1) / sourceHeight * sourceHeight : tileHeight;
+  }
+
+  /**
+   * Reads a region of a stored or subsampled zoom level.
+   *
+   * @param reader a reader opened by {@link #openReader() openReader}
+   * @param z the stored zoom level, see {@link #getStoredLevel(int) getStoredLevel}, or the
+   *        subsampled zoom level, see {@link #getSubsampledLevel(int) getSubsampledLevel}
+   * @param region the region in pixels of the zoom level
+   * @return the pixels of the region, in the image type of the file
+   * @throws IOException if the image could not be read
+   */
+  BufferedImage read(ImageReader reader, int z, Rectangle region) throws IOException {
+    ImageReadParam param = reader.getDefaultReadParam();
+    if (z < levelImages.length && -1 != levelImages[z]) {
+      param.setSourceRegion(region);
+      return reader.read(levelImages[z], param);
+    }
+    // the first pixel of each block of 2^z × 2^z pixels of the image, the last blocks may be cut off by the
+    // edges of the image, like the pixels of a halved level
+    int x = region.x << z;
+    int y = region.y << z;
+    param.setSourceRegion(new Rectangle(x, y, Math.min(region.width << z, width - x),
+        Math.min(region.height << z, height - y)));
+    param.setSourceSubsampling(1 << z, 1 << z, 0, 0);
+    return reader.read(0, param);
+  }
+
+  /**
+   * Opens a reader of the image, which has to be closed by {@link #closeReader(ImageReader)
+   * closeReader}. A reader is used by one thread at a time.
+   *
+   * @return the reader
+   * @throws IOException if the file can not be read
+   */
+  ImageReader openReader() throws IOException {
+    return openReader(file);
+  }
+
+  /**
+   * Scales a region of the original image to a zoom level. The edges of the region have to be on
+   * whole pixels of the level, or on the edge of the image.
+   *
+   * @param region the region at the original size
+   * @param z the zoom level
+   * @return the region at the zoom level
+   */
+  static Rectangle scale(Rectangle region, int z) {
+    int x0 = region.x >> z;
+    int y0 = region.y >> z;
+    int x1 = (region.x + region.width - 1 >> z) + 1;
+    int y1 = (region.y + region.height - 1 >> z) + 1;
+    return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+  }
+
+  static void closeReader(ImageReader reader) throws IOException {
+    try {
+      ((ImageInputStream) reader.getInput()).close();
+    } finally {
+      reader.dispose();
+    }
+  }
+
+  private static ImageReader openReader(File file) throws IOException {
+    ImageInputStream in = ImageIO.createImageInputStream(file);
+    if (null == in) {
+      throw new IOException("Can not read " + file);
+    }
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+    if (!readers.hasNext()) {
+      in.close();
+      throw new IOException("Unsupported image format: " + file);
+    }
+    ImageReader reader = readers.next();
+    reader.setInput(in);
+    return reader;
+  }
+
+  private static int bytesPerPixel(ImageReader reader) throws IOException {
+    Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+    if (null == types || !types.hasNext()) {
+      return 4;
+    }
+    SampleModel model = types.next().getSampleModel(1, 1);
+    return Math.max(1, DataBuffer.getDataTypeSize(model.getDataType()) / 8 * model.getNumDataElements());
+  }
+
+  // the zoom level of an overview of a size, or -1 if it is not the size of a zoom level
+  private int level(int levelWidth, int levelHeight) {
+    for (int z = 1; z < 31 && (width - 1 >> z) + 1 >= levelWidth; z++) {
+      if ((width - 1 >> z) + 1 == levelWidth && (height - 1 >> z) + 1 == levelHeight) {
+        return z;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,118 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes tiles as JPEG images. JPEG has no transparency, transparent pixels are written with
+ * their color and without their alpha, so this encoder is meant for opaque images.
+ */
+public class JpegTileEncoder implements TileEncoder {
+
+  private final float quality;
+  private final ThreadStates<State> states = new ThreadStates<State>() {
+    @Override
+    State create() {
+      return new State();
+    }
+
+    @Override
+    void free(State state) {
+      state.writer.dispose();
+    }
+  };
+
+  /**
+   * Constructs a {@link JpegTileEncoder JpegTileEncoder} with a quality of 0.85.
+   */
+  public JpegTileEncoder() {
+    this(0.85f);
+  }
+
+  /**
+   * Constructs a {@link JpegTileEncoder JpegTileEncoder}.
+   *
+   * @param quality the quality from 0 (smallest files) to 1 (best quality)
+   */
+  public JpegTileEncoder(float quality) {
+    if (quality < 0 || quality > 1) {
+      throw new IllegalArgumentException("Invalid JPEG quality: " + quality);
+    }
+    this.quality = quality;
+  }
+
+  /**
+   * Gets the quality.
+   *
+   * @return the quality from 0 (smallest files) to 1 (best quality)
+   */
+  public float getQuality() {
+    return this.quality;
+  }
+
+  @Override
+  public String getFileExtension() {
+    return "jpg";
+  }
+
+  @Override
+  public void encode(BufferedImage tile, OutputStream out) throws IOException {
+    State s = states.acquire();
+    try {
+      encode(tile, out, s);
+    } finally {
+      states.release();
+    }
+  }
+
+  /**
+   * Disposes the JPEG writer of each thread.
+   */
+  @Override
+  public void close() {
+    states.close();
+  }
+
+  private void encode(BufferedImage tile, OutputStream out, State s) throws IOException {
+    int width = tile.getWidth();
+    int height = tile.getHeight();
+    if (null == s.rgb || s.rgb.getWidth() != width || s.rgb.getHeight() != height) {
+      s.rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+    int[] rgb = ((DataBufferInt) s.rgb.getRaster().getDataBuffer()).getData();
+    s.pixels = Pixels.readArgb(tile, s.pixels);
+    // TYPE_INT_RGB ignores the alpha byte
+    System.arraycopy(s.pixels, 0, rgb, 0, width * height);
+
+    ImageWriteParam param = s.writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(quality);
+    ImageOutputStream stream = new MemoryCacheImageOutputStream(out);
+    try {
+      s.writer.setOutput(stream);
+      s.writer.write(null, new IIOImage(s.rgb, null, null), param);
+    } finally {
+      s.writer.setOutput(null);
+      stream.close();
+    }
+  }
+
+  /**
+   * The JPEG writer and buffers of one thread.
+   */
+  private static final class State {
+
+    final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    BufferedImage rgb;
+    int[] pixels;
+  }
+}
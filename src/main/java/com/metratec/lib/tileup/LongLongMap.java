@@ -0,0 +1,120 @@
+package com.metratec.lib.tileup;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from non-negative long keys to long values, stored in two primitive arrays with open
+ * addressing. Unlike a {@link java.util.HashMap HashMap} it needs no object per entry, which
+ * matters for pyramids with millions of tiles.
+ */
+final class LongLongMap {
+
+  /** marks an unused slot, keys are never negative */
+  static final long EMPTY = -1;
+
+  private long[] keys;
+  private long[] values;
+  private int size;
+
+  LongLongMap() {
+    this(1024);
+  }
+
+  /**
+   * @param capacity the initial capacity, a power of two
+   */
+  LongLongMap(int capacity) {
+    keys = new long[capacity];
+    values = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+  }
+
+  /**
+   * Packs the position of a tile into a key.
+   *
+   * @param z the zoom level index
+   * @param i the column of the tile
+   * @param j the row of the tile
+   * @return the key
+   */
+  static long tileKey(int z, int i, int j) {
+    return (long) z << 56 | (long) i << 28 | j;
+  }
+
+  boolean containsKey(long key) {
+    return EMPTY != keys[slot(key)];
+  }
+
+  /**
+   * @param key the key
+   * @param defaultValue the value returned if the key is not present
+   * @return the value of the key or <code>defaultValue</code>
+   */
+  long get(long key, long defaultValue) {
+    int slot = slot(key);
+    return EMPTY == keys[slot] ? defaultValue : values[slot];
+  }
+
+  void put(long key, long value) {
+    int slot = slot(key);
+    if (EMPTY == keys[slot]) {
+      if (2 * (size + 1) > keys.length) {
+        grow();
+        slot = slot(key);
+      }
+      keys[slot] = key;
+      size++;
+    }
+    values[slot] = value;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Gets the number of slots, for iterating with {@link #keyAt(int) keyAt(int)} and
+   * {@link #valueAt(int) valueAt(int)}.
+   *
+   * @return the number of slots
+   */
+  int capacity() {
+    return keys.length;
+  }
+
+  /**
+   * @param slot the slot
+   * @return the key in the slot or {@link #EMPTY EMPTY}
+   */
+  long keyAt(int slot) {
+    return keys[slot];
+  }
+
+  long valueAt(int slot) {
+    return values[slot];
+  }
+
+  private int slot(long key) {
+    int mask = keys.length - 1;
+    long h = key * 0x9E3779B97F4A7C15L;
+    int slot = (int) (h ^ h >>> 32) & mask;
+    while (EMPTY != keys[slot] && key != keys[slot]) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new long[2 * oldKeys.length];
+    values = new long[2 * oldKeys.length];
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+    for (int k = 0; k < oldKeys.length; k++) {
+      if (EMPTY != oldKeys[k]) {
+        put(oldKeys[k], oldValues[k]);
+      }
+    }
+  }
+}
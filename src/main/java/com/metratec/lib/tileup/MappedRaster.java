@@ -0,0 +1,148 @@
+package com.metratec.lib.tileup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An ARGB raster stored in a memory-mapped temporary file instead of on the heap.
+ * <p>
+ * The raster is divided into blocks of whole rows, each mapped separately, so neither the size of
+ * a Java array nor the 2 GB limit of a single mapping limit the image size. The operating system
+ * pages the pixels in and out as needed, the heap only holds the rows being copied. Pixels are
+ * stored in native byte order.
+ * <p>
+ * Rows can be read by several threads at the same time, but not while they are written.
+ */
+final class MappedRaster implements Closeable {
+
+  // the maximum size of a mapped block
+  private static final long BLOCK_BYTES = 256L * 1024 * 1024;
+
+  private final int width;
+  private final int height;
+  private final int rowsPerBlock;
+  private final File file;
+  private IntBuffer[] blocks;
+
+  /**
+   * Creates a raster whose pixels are all 0.
+   *
+   * @param width the width of the raster
+   * @param height the height of the raster
+   * @param dir the directory of the temporary file, or null for the default temporary directory
+   * @throws IOException if the temporary file could not be created or mapped
+   */
+  MappedRaster(int width, int height, File dir) throws IOException {
+    this.width = width;
+    this.height = height;
+    this.rowsPerBlock = (int) Math.max(1, Math.min(height, BLOCK_BYTES / (4L * width)));
+    this.file = File.createTempFile("tileup", ".raster", dir);
+    this.blocks = new IntBuffer[(height + rowsPerBlock - 1) / rowsPerBlock];
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      FileChannel channel = raf.getChannel();
+      for (int b = 0; b < blocks.length; b++) {
+        long rows = Math.min(rowsPerBlock, height - (long) b * rowsPerBlock);
+        blocks[b] = channel.map(FileChannel.MapMode.READ_WRITE, b * rowsPerBlock * 4L * width, rows * 4 * width)
+            .order(ByteOrder.nativeOrder()).asIntBuffer();
+      }
+    } catch (IOException e) {
+      raf.close();
+      close();
+      throw e;
+    }
+    // the mappings stay valid after the file is closed
+    raf.close();
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * Writes whole rows.
+   *
+   * @param y the first row
+   * @param rows the number of rows
+   * @param src the ARGB pixels, row by row without gaps
+   * @param offset the offset of the first pixel in <code>src</code>
+   */
+  void setRows(int y, int rows, int[] src, int offset) {
+    for (int row = 0; row < rows; row++) {
+      IntBuffer block = row(y + row);
+      block.put(src, offset + row * width, width);
+    }
+  }
+
+  /**
+   * Reads an area.
+   *
+   * @param x the left edge of the area
+   * @param y the top edge of the area
+   * @param w the width of the area
+   * @param h the height of the area
+   * @param dst the array receiving the ARGB pixels, row by row
+   * @param dstOffset the offset of the first pixel in <code>dst</code>
+   * @param dstScan the distance between two rows in <code>dst</code>
+   */
+  void read(int x, int y, int w, int h, int[] dst, int dstOffset, int dstScan) {
+    for (int row = 0; row < h; row++) {
+      IntBuffer block = row(y + row);
+      block.position(block.position() + x);
+      block.get(dst, dstOffset + row * dstScan, w);
+    }
+  }
+
+  /**
+   * Halves the raster into a new mapped raster, in the same way as
+   * {@link Downsampler#halve(java.awt.image.BufferedImage, DownsampleFilter) Downsampler.halve}.
+   *
+   * @param dir the directory of the temporary file, or null for the default temporary directory
+   * @param filter the filter
+   * @return the raster with half the width and half the height
+   * @throws IOException if the temporary file could not be created or mapped
+   */
+  MappedRaster halve(File dir, DownsampleFilter filter) throws IOException {
+    MappedRaster dst = new MappedRaster((width + 1) / 2, (height + 1) / 2, dir);
+    RowHalver halver = new RowHalver(filter, width, height);
+    int[] row = new int[width];
+    int[] halved = new int[dst.width];
+    int y = 0;
+    for (int sy = 0; sy < height; sy++) {
+      read(0, sy, width, 1, row, 0, width);
+      halver.push(row, 0);
+      while (halver.poll(halved, 0)) {
+        dst.setRows(y++, 1, halved, 0);
+      }
+    }
+    return dst;
+  }
+
+  /**
+   * Releases the mappings and deletes the temporary file.
+   */
+  @Override
+  public void close() {
+    // Java 8 cannot unmap explicitly, the mappings are released once the buffers are collected
+    blocks = null;
+    if (!file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+
+  // a view of a block positioned at the start of a row, views keep concurrent reads independent
+  private IntBuffer row(int y) {
+    IntBuffer block = blocks[y / rowsPerBlock].duplicate();
+    block.position((y % rowsPerBlock) * width);
+    return block;
+  }
+}
@@ -0,0 +1,237 @@
+package com.metratec.lib.tileup;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+
+/**
+ * Estimates the peak memory of the buffers of a run and chooses how the run creates its tiles, so
+ * it stays within the {@link TileUp#setMaxMemory(long) memory budget} of its settings. The plan is
+ * made before any tile is created, so a run that can not stay within the budget fails at once
+ * instead of running out of memory halfway.
+ * <p>
+ * The configured mode and number of threads are kept if they fit. Otherwise the next mode that
+ * needs less memory is used, from holding the image as a whole over streaming to memory-mapped zoom
+ * levels. The quadtree is never chosen instead of another mode, it is only used if it was requested
+ * and is applicable. Only if no mode fits, fewer tiles are buffered and then fewer threads are
+ * used. The tiles are the same in all modes. In streaming mode, memory left in the budget is
+ * used for higher strips, so images without random access are decoded fewer times.
+ * <p>
+ * The estimate counts the decoded image or strips with the pixel size of the image, the zoom
+ * levels or rows of tiles held in ARGB, and the tile and encoding buffers of the threads. It is
+ * the same as the {@link TileStats#getPeakBufferBytes() peak buffer bytes} measured by the run,
+ * except for the encoding buffers, which are counted with the size of an uncompressed tile.
+ */
+final class MemoryPlan {
+
+  static final int IMAGE = 0;
+  static final int QUADTREE = 1;
+  static final int STREAMING = 2;
+  static final int MEMORY_MAPPED = 3;
+
+  private final int mode;
+  private final int threads;
+  private final int tileSlots;
+  private final int stripHeight;
+  private final long bytes;
+  private final long budget;
+
+  private MemoryPlan(int mode, int threads, int tileSlots, int stripHeight, long bytes, long budget) {
+    this.mode = mode;
+    this.threads = threads;
+    this.tileSlots = tileSlots;
+    this.stripHeight = stripHeight;
+    this.bytes = bytes;
+    this.budget = budget;
+  }
+
+  /**
+   * Plans a run with the settings of a {@link TileUp TileUp}. Without a memory budget, the
+   * configured mode and number of threads are used.
+   *
+   * @param tileUp the image and its settings
+   * @return the plan, check {@link #fits() fits} before creating tiles
+   */
+  static MemoryPlan create(TileUp tileUp) {
+    Estimator estimator = new Estimator(tileUp);
+    int configured = tileUp.isQuadtreeApplicable() ? QUADTREE
+        : tileUp.isMemoryMapped() ? MEMORY_MAPPED
+        : tileUp.isStreaming() || tileUp.isQuadtree() ? STREAMING : IMAGE;
+    TilePools pools = tileUp.getTilePools();
+    int threads = Math.max(1, null != pools ? pools.getThreads() : tileUp.getThreads());
+    long budget = tileUp.getMaxMemory();
+    MemoryPlan plan = estimator.plan(configured, threads, defaultSlots(threads), budget);
+    if (budget <= 0 || plan.fits()) {
+      return plan;
+    }
+    for (int mode = configured + 1; mode <= MEMORY_MAPPED; mode++) {
+      MemoryPlan other = estimator.plan(mode, threads, defaultSlots(threads), budget);
+      if (null != other && other.fits()) {
+        return other;
+      }
+    }
+    // fewer tiles in flight, then fewer threads, the threads of shared pools are given
+    for (int mode = configured; mode <= MEMORY_MAPPED; mode++) {
+      for (int fewer = threads; fewer >= (null == pools ? 1 : threads); fewer--) {
+        MemoryPlan other = estimator.plan(mode, fewer, Math.min(defaultSlots(fewer), fewer + 1), budget);
+        if (null != other && other.fits()) {
+          return other;
+        }
+      }
+    }
+    // the smallest plan, it tells how much memory would be needed
+    MemoryPlan smallest = plan;
+    for (int mode = configured; mode <= MEMORY_MAPPED; mode++) {
+      MemoryPlan other = estimator.plan(mode, null == pools ? 1 : threads, 1, budget);
+      if (null != other && other.bytes < smallest.bytes) {
+        smallest = other;
+      }
+    }
+    return smallest;
+  }
+
+  // the tile buffers of a writer with a number of threads, two per thread so the threads do not
+  // wait for the tiles to be extracted
+  private static int defaultSlots(int threads) {
+    return threads > 1 ? 2 * threads : 1;
+  }
+
+  /**
+   * @return whether the estimated memory is within the budget, always true without a budget
+   */
+  boolean fits() {
+    return budget <= 0 || bytes <= budget;
+  }
+
+  /**
+   * @return the mode creating the tiles, e.g. {@link #STREAMING STREAMING}
+   */
+  int getMode() {
+    return mode;
+  }
+
+  /**
+   * @return the number of threads encoding tiles
+   */
+  int getThreads() {
+    return threads;
+  }
+
+  /**
+   * @return the number of tile buffers that are filled or encoded at the same time
+   */
+  int getTileSlots() {
+    return tileSlots;
+  }
+
+  /**
+   * @return the number of rows of the strips read in streaming mode
+   */
+  int getStripHeight() {
+    return stripHeight;
+  }
+
+  /**
+   * @return the estimated peak memory of the buffers in bytes
+   */
+  long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return the memory budget in bytes, 0 for none
+   */
+  long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Formats a number of bytes for messages, in MB or in bytes if it is less than 1 MB.
+   *
+   * @param bytes the number of bytes
+   * @param roundUp whether MB are rounded up, e.g. for an estimate compared to a budget
+   * @return the formatted size
+   */
+  static String format(long bytes, boolean roundUp) {
+    if (bytes < 1 << 20) {
+      return bytes + " bytes";
+    }
+    return ((roundUp ? bytes + (1 << 20) - 1 : bytes) >> 20) + " MB";
+  }
+
+  // the estimates of the modes for the settings of a run
+  private static final class Estimator {
+
+    private final TileUp tileUp;
+    private final ImageSource source;
+    private final int first;
+    private final int levels;
+    private final int width;
+    private final int height;
+    private final long tile;
+
+    Estimator(TileUp tileUp) {
+      this.tileUp = tileUp;
+      this.source = tileUp.getSource();
+      TileRange range = tileUp.getTileRange();
+      Rectangle region = new Rectangle(tileUp.getImageWidth(), tileUp.getImageHeight());
+      int last = tileUp.getZoomLevels();
+      if (null != range) {
+        Rectangle rangeRegion = tileUp.sourceRegion(range);
+        region = null != rangeRegion ? rangeRegion : new Rectangle();
+        last = Math.min(last, range.getLastLevel() + 1);
+      }
+      // the first part of the pyramid is the largest one
+      this.first = tileUp.sourceLevel(null != range ? range.getFirstLevel() : 0);
+      this.levels = Math.max(first + 1, last);
+      Rectangle scaled = ImageSource.scale(region, first);
+      this.width = scaled.width;
+      this.height = scaled.height;
+      this.tile = 4L * tileUp.getTileWidth() * tileUp.getTileHeight();
+    }
+
+    // the plan of a mode with a number of threads and tile buffers, null if the mode can not be used
+    MemoryPlan plan(int mode, int threads, int tileSlots, long budget) {
+      if (QUADTREE == mode && !tileUp.isQuadtreeApplicable()) {
+        return null;
+      }
+      TilePools pools = tileUp.getTilePools();
+      int ioThreads = null != pools ? pools.getIoThreads() : tileUp.getIoThreads();
+      // the tiles being filled and encoded, and the encoded tiles waiting to be saved
+      long buffers = (tileSlots + threads + 2L * ioThreads) * tile;
+      long pixel = source.getBytesPerPixel();
+      long area = (long) width * height;
+      int tileHeight = tileUp.getTileHeight();
+      if (IMAGE == mode) {
+        // the decoded image and the level halved from it
+        return new MemoryPlan(mode, threads, tileSlots, 0, buffers + pixel * area + area, budget);
+      }
+      if (QUADTREE == mode) {
+        long pyramid = 5L * tile * (levels - first);
+        Dimension sourceTile = source.getTileSize(first);
+        long read = null != sourceTile ? 4L * sourceTile.width * sourceTile.height * pixel : pixel * area;
+        return new MemoryPlan(mode, threads, tileSlots, 0, buffers + pyramid + read, budget);
+      }
+      if (MEMORY_MAPPED == mode) {
+        // the strip, a row and the rows being halved, the zoom levels are in files
+        long strip = pixel * width * Math.min(tileHeight, height);
+        return new MemoryPlan(mode, threads, tileSlots, tileHeight, buffers + strip + 12L * width + tile, budget);
+      }
+      long rows = 0;
+      int levelWidth = width;
+      for (int z = first; z < levels; z++) {
+        rows += 4L * levelWidth * (tileHeight + 1) + (z + 1 < levels ? RowHalver.bufferBytes(
+            tileUp.getDownsampleFilter(), levelWidth) : 0);
+        levelWidth = (levelWidth + 1) / 2;
+      }
+      int base = source.getStripHeight(first, tileHeight);
+      int stripHeight = base;
+      if (budget > 0) {
+        // as many whole strips as the budget allows, up to the whole image
+        long strips = (budget - buffers - rows) / Math.max(1, pixel * width * base);
+        stripHeight = (int) Math.max(base, Math.min(Math.max(height, base), strips * base));
+      }
+      long strip = pixel * width * Math.min(stripHeight, Math.max(1, height));
+      return new MemoryPlan(mode, threads, tileSlots, stripHeight, buffers + rows + strip, budget);
+    }
+  }
+}
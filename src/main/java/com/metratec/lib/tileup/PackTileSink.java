@@ -0,0 +1,160 @@
+package com.metratec.lib.tileup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Saves all tiles into a single pack file, which avoids the overhead of creating millions of small
+ * files. Tiles are appended sequentially through a large buffer, the index is written when the
+ * sink is closed. The pack of a run that failed or was cancelled is {@link #abort() aborted} and stays
+ * incomplete. Use {@link TilePackReader TilePackReader} to read the tiles.
+ * <p>
+ * The pack file starts with a header:
+ * <ul>
+ * <li>the magic number <code>0x5455504b</code> (<code>TUPK</code>)</li>
+ * <li>the format version, currently 1</li>
+ * <li>the offset of the index as long, 0 if the pack is incomplete</li>
+ * <li>the file extension of the tiles, as written by {@link java.io.DataOutput#writeUTF(String)
+ * DataOutput.writeUTF(String)}</li>
+ * </ul>
+ * followed by the encoded tiles without any separators and the index: the number of tiles as int,
+ * then 20 bytes per tile, sorted by zoom level, column and row: the tile position packed into a long
+ * as <code>zoom &lt;&lt; 56 | x &lt;&lt; 28 | y</code>, the offset of the tile as long and its length
+ * as int. All numbers are big endian. Shared tiles are stored once, their index entries point to
+ * the same data.
+ */
+public class PackTileSink implements TileSink {
+
+  static final int MAGIC = 0x5455504b;
+  static final int VERSION = 1;
+  // the offset of the index offset in the header
+  static final int INDEX_OFFSET_POSITION = 8;
+  static final int INDEX_ENTRY_SIZE = 20;
+
+  private final File file;
+  private final FileOutputStream fileOut;
+  private final DataOutputStream out;
+  private final LongLongMap entries = new LongLongMap();
+  private final Map<String, Integer> sharedEntries = new HashMap<String, Integer>();
+  private long[] offsets = new long[1024];
+  private int[] lengths = new int[1024];
+  private int count;
+  private long position;
+
+  /**
+   * Constructs a {@link PackTileSink PackTileSink}, an existing file is replaced.
+   *
+   * @param file the pack file
+   * @param extension the file extension of the tiles, without the leading dot
+   * @throws IOException if the file could not be created
+   */
+  public PackTileSink(File file, String extension) throws IOException {
+    this.file = file;
+    this.fileOut = new FileOutputStream(file);
+    this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 1024 * 1024));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(0);
+    out.writeUTF(extension);
+    position = out.size();
+  }
+
+  @Override
+  public synchronized void put(int zoom, int x, int y, byte[] data, int length) throws IOException {
+    out.write(data, 0, length);
+    add(LongLongMap.tileKey(zoom, x, y), position, length);
+    position += length;
+  }
+
+  @Override
+  public synchronized void putShared(int zoom, int x, int y, String id, byte[] data, int length)
+      throws IOException {
+    Integer shared = sharedEntries.get(id);
+    if (null == shared) {
+      put(zoom, x, y, data, length);
+      sharedEntries.put(id, (int) entries.get(LongLongMap.tileKey(zoom, x, y), -1));
+    } else {
+      add(LongLongMap.tileKey(zoom, x, y), offsets[shared], lengths[shared]);
+    }
+  }
+
+  @Override
+  public boolean contains(int zoom, int x, int y) {
+    return false;
+  }
+
+  @Override
+  public void remove(int zoom, int x, int y) {
+  }
+
+  @Override
+  public String getName(int zoom, int x, int y) {
+    return String.format("%s:%d/%d/%d", file.getPath(), zoom, x, y);
+  }
+
+  /**
+   * Writes the index and closes the pack file.
+   *
+   * @throws IOException if the index could not be written
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      long indexOffset = position;
+      long[] sorted = new long[entries.size()];
+      int k = 0;
+      for (int slot = 0; slot < entries.capacity(); slot++) {
+        if (LongLongMap.EMPTY != entries.keyAt(slot)) {
+          sorted[k++] = entries.keyAt(slot);
+        }
+      }
+      Arrays.sort(sorted);
+      out.writeInt(sorted.length);
+      for (long key : sorted) {
+        int entry = (int) entries.get(key, -1);
+        out.writeLong(key);
+        out.writeLong(offsets[entry]);
+        out.writeInt(lengths[entry]);
+      }
+      out.flush();
+      // marks the pack as complete
+      ByteBuffer header = ByteBuffer.allocate(8);
+      header.putLong(0, indexOffset);
+      fileOut.getChannel().write(header, INDEX_OFFSET_POSITION);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Closes the pack file without writing the index, so the pack stays marked as incomplete.
+   *
+   * @throws IOException if the file could not be closed
+   */
+  @Override
+  public synchronized void abort() throws IOException {
+    out.close();
+  }
+
+  // a tile saved twice keeps its last entry
+  private void add(long key, long offset, int length) {
+    int entry = (int) entries.get(key, -1);
+    if (-1 == entry) {
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, 2 * count);
+        lengths = Arrays.copyOf(lengths, 2 * count);
+      }
+      entry = count++;
+      entries.put(key, entry);
+    }
+    offsets[entry] = offset;
+    lengths[entry] = length;
+  }
+}
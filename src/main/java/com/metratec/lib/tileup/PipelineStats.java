@@ -0,0 +1,137 @@
+package com.metratec.lib.tileup;
+
+/**
+ * A snapshot of the tile pipeline of a run of {@link TileUp#createTiles() createTiles}.
+ * <p>
+ * Tiles pass three stages: they are extracted from the image, encoded by the encoding threads and
+ * saved by the I/O threads (see {@link TileUp#setIoThreads(int) TileUp.setIoThreads(int)}).
+ * Extracted tiles that are skipped are neither encoded nor saved. The busy times are summed over
+ * all threads of a stage, so comparing them with the elapsed time shows which stage limits the
+ * throughput.
+ * <p>
+ * See also {@link TileUp#getPipelineStats() TileUp.getPipelineStats()}.
+ */
+public final class PipelineStats {
+
+  private final long elapsedNanos;
+  private final long extractedTiles;
+  private final long encodedTiles;
+  private final long savedTiles;
+  private final int encodeQueueDepth;
+  private final int writeQueueDepth;
+  private final long encodeNanos;
+  private final long writeNanos;
+
+  PipelineStats(long elapsedNanos, long extractedTiles, long encodedTiles, long savedTiles, int encodeQueueDepth,
+      int writeQueueDepth, long encodeNanos, long writeNanos) {
+    this.elapsedNanos = elapsedNanos;
+    this.extractedTiles = extractedTiles;
+    this.encodedTiles = encodedTiles;
+    this.savedTiles = savedTiles;
+    this.encodeQueueDepth = encodeQueueDepth;
+    this.writeQueueDepth = writeQueueDepth;
+    this.encodeNanos = encodeNanos;
+    this.writeNanos = writeNanos;
+  }
+
+  /**
+   * Gets the time since the run started, or the duration of a finished run.
+   *
+   * @return the elapsed time in nanoseconds
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * Gets the number of tiles extracted from the image.
+   *
+   * @return the number of extracted tiles
+   */
+  public long getExtractedTiles() {
+    return extractedTiles;
+  }
+
+  /**
+   * Gets the number of encoded tiles.
+   *
+   * @return the number of encoded tiles
+   */
+  public long getEncodedTiles() {
+    return encodedTiles;
+  }
+
+  /**
+   * Gets the number of saved tiles.
+   *
+   * @return the number of saved tiles
+   */
+  public long getSavedTiles() {
+    return savedTiles;
+  }
+
+  /**
+   * Gets the number of extracted tiles waiting for or being encoded.
+   *
+   * @return the depth of the encoding queue
+   */
+  public int getEncodeQueueDepth() {
+    return encodeQueueDepth;
+  }
+
+  /**
+   * Gets the number of encoded tiles waiting for or being saved.
+   *
+   * @return the depth of the I/O queue
+   */
+  public int getWriteQueueDepth() {
+    return writeQueueDepth;
+  }
+
+  /**
+   * Gets the time spent encoding tiles, summed over all encoding threads.
+   *
+   * @return the busy time of the encoding stage in nanoseconds
+   */
+  public long getEncodeNanos() {
+    return encodeNanos;
+  }
+
+  /**
+   * Gets the time spent saving tiles, summed over all threads saving tiles.
+   *
+   * @return the busy time of the I/O stage in nanoseconds
+   */
+  public long getWriteNanos() {
+    return writeNanos;
+  }
+
+  /**
+   * Gets the number of tiles encoded per second.
+   *
+   * @return the throughput of the encoding stage
+   */
+  public double getEncodeThroughput() {
+    return perSecond(encodedTiles);
+  }
+
+  /**
+   * Gets the number of tiles saved per second.
+   *
+   * @return the throughput of the I/O stage
+   */
+  public double getWriteThroughput() {
+    return perSecond(savedTiles);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("extracted %d, encoded %d (%.1f tiles/s, queue %d), saved %d (%.1f tiles/s, queue %d)",
+        extractedTiles, encodedTiles, getEncodeThroughput(), encodeQueueDepth, savedTiles, getWriteThroughput(),
+        writeQueueDepth);
+  }
+
+  private double perSecond(long tiles) {
+    return 0 == elapsedNanos ? 0 : tiles * 1e9 / elapsedNanos;
+  }
+}
@@ -0,0 +1,232 @@
+package com.metratec.lib.tileup;
+
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Reads the pixels of images and tiles as packed ARGB values.
+ */
+final class Pixels {
+
+  private static final int[] ARGB_MASKS = {0xff0000, 0xff00, 0xff, 0xff000000};
+
+  private Pixels() {
+  }
+
+  /**
+   * Copies an area of an image into an array of packed ARGB values, without converting the rest of
+   * the image.
+   * <p>
+   * The pixels of 8 bit RGB, RGBA, gray and indexed images as well as of packed int RGB and ARGB
+   * images are read directly from their data buffer. Color and alpha values are copied unchanged,
+   * gray values are converted to sRGB by the color model of the image, e.g. 50 to 122 for the linear
+   * gray of decoded gray PNGs. All other images, e.g. 16 bit or premultiplied ones, are converted by
+   * an {@link AffineTransformOp AffineTransformOp}. Both give the same colors as TileUp 1.0.3.
+   *
+   * @param image the image
+   * @param x the left edge of the area
+   * @param y the top edge of the area
+   * @param width the width of the area
+   * @param height the height of the area
+   * @param dst the array receiving the ARGB pixels, row by row
+   * @param dstOffset the offset of the first pixel in <code>dst</code>
+   * @param dstScan the distance between two rows in <code>dst</code>
+   */
+  static void copyArgb(BufferedImage image, int x, int y, int width, int height, int[] dst, int dstOffset,
+      int dstScan) {
+    WritableRaster raster = image.getRaster();
+    SampleModel sm = raster.getSampleModel();
+    ColorModel cm = image.getColorModel();
+    DataBuffer db = raster.getDataBuffer();
+    // the position of the area in the data buffer, the raster may be a part of a larger one
+    int sx = x - raster.getSampleModelTranslateX();
+    int sy = y - raster.getSampleModelTranslateY();
+    if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel && cm instanceof DirectColorModel
+        && !cm.isAlphaPremultiplied() && isArgbMasks(((SinglePixelPackedSampleModel) sm).getBitMasks())) {
+      int[] data = ((DataBufferInt) db).getData();
+      int scan = ((SinglePixelPackedSampleModel) sm).getScanlineStride();
+      int alpha = cm.hasAlpha() ? 0 : 0xff000000;
+      for (int row = 0; row < height; row++) {
+        int s = db.getOffset() + (sy + row) * scan + sx;
+        int d = dstOffset + row * dstScan;
+        if (0 == alpha) {
+          System.arraycopy(data, s, dst, d, width);
+        } else {
+          for (int end = d + width; d < end; d++, s++) {
+            dst[d] = alpha | data[s];
+          }
+        }
+      }
+    } else if (!(db instanceof DataBufferByte && sm instanceof PixelInterleavedSampleModel && is8Bit(sm)
+        && !cm.isAlphaPremultiplied() && copyBytes(cm, (PixelInterleavedSampleModel) sm,
+            ((DataBufferByte) db).getData(), db.getOffset(), sx, sy, width, height, dst, dstOffset, dstScan))) {
+      draw(image, x, y, width, height, dst, dstOffset, dstScan);
+    }
+  }
+
+  /**
+   * Reads all pixels of an image as packed ARGB values, row by row.
+   *
+   * @param image the image
+   * @param argb an array to reuse, may be null or too small
+   * @return <code>argb</code> or a new array if <code>argb</code> was too small
+   */
+  static int[] readArgb(BufferedImage image, int[] argb) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (null == argb || argb.length < width * height) {
+      argb = new int[width * height];
+    }
+    if (BufferedImage.TYPE_INT_ARGB == image.getType()) {
+      // copies the rows directly, without a color conversion per pixel
+      image.getRaster().getDataElements(0, 0, width, height, argb);
+    } else {
+      image.getRGB(0, 0, width, height, argb, 0, width);
+    }
+    return argb;
+  }
+
+  /**
+   * Checks whether all pixels of an area have the same color. Fully transparent pixels count as
+   * the same color, whatever their color components are.
+   *
+   * @param argb the ARGB pixels, row by row
+   * @param scan the distance between two rows in <code>argb</code>
+   * @param width the width of the area, starting at index 0
+   * @param height the height of the area
+   * @return the color of all pixels, 0 if they are all transparent, or -1 if the colors differ
+   */
+  static long uniformColor(int[] argb, int scan, int width, int height) {
+    int first = argb[0];
+    if (0 == first >>> 24) {
+      for (int y = 0; y < height; y++) {
+        for (int k = y * scan, end = k + width; k < end; k++) {
+          if (0 != argb[k] >>> 24) {
+            return -1;
+          }
+        }
+      }
+      return 0;
+    }
+    for (int y = 0; y < height; y++) {
+      for (int k = y * scan, end = k + width; k < end; k++) {
+        if (first != argb[k]) {
+          return -1;
+        }
+      }
+    }
+    return first & 0xffffffffL;
+  }
+
+  // returns false if the color model is not supported
+  private static boolean copyBytes(ColorModel cm, PixelInterleavedSampleModel sm, byte[] data, int offset, int sx,
+      int sy, int width, int height, int[] dst, int dstOffset, int dstScan) {
+    int bands = sm.getNumBands();
+    int[] bandOffsets = sm.getBandOffsets();
+    int stride = sm.getPixelStride();
+    int scan = sm.getScanlineStride();
+    int colorSpace = cm.getColorSpace().getType();
+    boolean rgb = cm instanceof ComponentColorModel && cm.getColorSpace().isCS_sRGB();
+    if (cm instanceof IndexColorModel && 1 == bands) {
+      int[] lut = new int[256];
+      ((IndexColorModel) cm).getRGBs(lut);
+      for (int row = 0; row < height; row++) {
+        int s = offset + (sy + row) * scan + sx * stride + bandOffsets[0];
+        for (int d = dstOffset + row * dstScan, end = d + width; d < end; d++, s += stride) {
+          dst[d] = lut[data[s] & 0xff];
+        }
+      }
+    } else if (cm instanceof ComponentColorModel && ColorSpace.TYPE_GRAY == colorSpace && 1 == bands) {
+      // the gray color space is linear, the color model converts it like getRGB
+      int[] lut = new int[256];
+      byte[] gray = new byte[1];
+      for (int v = 0; v < 256; v++) {
+        gray[0] = (byte) v;
+        lut[v] = cm.getRGB(gray);
+      }
+      for (int row = 0; row < height; row++) {
+        int s = offset + (sy + row) * scan + sx * stride + bandOffsets[0];
+        for (int d = dstOffset + row * dstScan, end = d + width; d < end; d++, s += stride) {
+          dst[d] = lut[data[s] & 0xff];
+        }
+      }
+    } else if (rgb && 3 == bands && 3 == stride && 2 == bandOffsets[0] && 1 == bandOffsets[1]
+        && 0 == bandOffsets[2]) {
+      // TYPE_3BYTE_BGR, as decoded from JPEG
+      for (int row = 0; row < height; row++) {
+        int s = offset + (sy + row) * scan + sx * 3;
+        for (int d = dstOffset + row * dstScan, end = d + width; d < end; d++, s += 3) {
+          dst[d] = 0xff000000 | (data[s + 2] & 0xff) << 16 | (data[s + 1] & 0xff) << 8 | data[s] & 0xff;
+        }
+      }
+    } else if (rgb && 4 == bands && 4 == stride && 3 == bandOffsets[0] && 2 == bandOffsets[1]
+        && 1 == bandOffsets[2] && 0 == bandOffsets[3]) {
+      // TYPE_4BYTE_ABGR, as decoded from PNG with alpha
+      for (int row = 0; row < height; row++) {
+        int s = offset + (sy + row) * scan + sx * 4;
+        for (int d = dstOffset + row * dstScan, end = d + width; d < end; d++, s += 4) {
+          dst[d] = data[s] << 24 | (data[s + 3] & 0xff) << 16 | (data[s + 2] & 0xff) << 8 | data[s + 1] & 0xff;
+        }
+      }
+    } else if (rgb && (3 == bands || 4 == bands)) {
+      int r = bandOffsets[0];
+      int g = bandOffsets[1];
+      int b = bandOffsets[2];
+      int a = 4 == bands ? bandOffsets[3] : -1;
+      for (int row = 0; row < height; row++) {
+        int s = offset + (sy + row) * scan + sx * stride;
+        for (int d = dstOffset + row * dstScan, end = d + width; d < end; d++, s += stride) {
+          int alpha = -1 == a ? 0xff000000 : (data[s + a] & 0xff) << 24;
+          dst[d] = alpha | (data[s + r] & 0xff) << 16 | (data[s + g] & 0xff) << 8 | data[s + b] & 0xff;
+        }
+      }
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  // converts the area into an ARGB image backed by dst with the identity transform TileUp 1.0.3 scaled
+  // zoom level 0 with, drawing it would copy gray values without converting their color space
+  private static void draw(BufferedImage image, int x, int y, int width, int height, int[] dst, int dstOffset,
+      int dstScan) {
+    for (int row = 0; row < height; row++) {
+      int d = dstOffset + row * dstScan;
+      Arrays.fill(dst, d, d + width, 0);
+    }
+    DataBufferInt buffer = new DataBufferInt(dst, dst.length - dstOffset, dstOffset);
+    WritableRaster view = Raster.createPackedRaster(buffer, width, height, dstScan, ARGB_MASKS, null);
+    BufferedImage argb = new BufferedImage(ColorModel.getRGBdefault(), view, false, null);
+    new AffineTransformOp(new AffineTransform(), AffineTransformOp.TYPE_BILINEAR)
+        .filter(image.getSubimage(x, y, width, height), argb);
+  }
+
+  private static boolean isArgbMasks(int[] masks) {
+    return masks.length >= 3 && ARGB_MASKS[0] == masks[0] && ARGB_MASKS[1] == masks[1] && ARGB_MASKS[2] == masks[2]
+        && (3 == masks.length || ARGB_MASKS[3] == masks[3]);
+  }
+
+  private static boolean is8Bit(SampleModel sm) {
+    for (int size : sm.getSampleSize()) {
+      if (8 != size) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
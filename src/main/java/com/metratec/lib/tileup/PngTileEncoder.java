@@ -0,0 +1,331 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes tiles as 8 bit PNG images, RGB if the tile is opaque and RGBA otherwise.
+ * <p>
+ * Unlike {@link javax.imageio.ImageIO ImageIO}, the deflate level and the PNG filter can be chosen.
+ * Low deflate levels encode several times faster at the cost of larger files. Each thread reuses
+ * its {@link Deflater Deflater} and row buffers, so encoding a tile allocates almost nothing, until
+ * {@link #close() close} ends them.
+ */
+public class PngTileEncoder implements TileEncoder {
+
+  /**
+   * The PNG filter applied to each row before compressing it.
+   */
+  public enum Filter {
+    /** no filter, fastest */
+    NONE,
+    /** difference to the left pixel */
+    SUB,
+    /** difference to the pixel above */
+    UP,
+    /** difference to the average of the left pixel and the pixel above */
+    AVERAGE,
+    /** Paeth predictor */
+    PAETH,
+    /** the filter with the smallest sum of absolute differences, chosen for each row */
+    ADAPTIVE
+  }
+
+  private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+  private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+  private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+  private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+  private static final Filter[] ROW_FILTERS = {Filter.NONE, Filter.SUB, Filter.UP, Filter.AVERAGE, Filter.PAETH};
+
+  private final int level;
+  private final Filter filter;
+  private final ThreadStates<State> states = new ThreadStates<State>() {
+    @Override
+    State create() {
+      return new State(level, filter);
+    }
+
+    @Override
+    void free(State state) {
+      state.deflater.end();
+    }
+  };
+
+  /**
+   * Constructs a {@link PngTileEncoder PngTileEncoder} with the default deflate level and the
+   * {@link Filter#ADAPTIVE ADAPTIVE} filter.
+   */
+  public PngTileEncoder() {
+    this(Deflater.DEFAULT_COMPRESSION, Filter.ADAPTIVE);
+  }
+
+  /**
+   * Constructs a {@link PngTileEncoder PngTileEncoder}.
+   *
+   * @param level the deflate level from 0 (no compression) to 9 (best compression), or
+   *        {@link Deflater#DEFAULT_COMPRESSION Deflater.DEFAULT_COMPRESSION}
+   * @param filter the PNG filter
+   */
+  public PngTileEncoder(int level, Filter filter) {
+    if ((level < 0 || level > 9) && Deflater.DEFAULT_COMPRESSION != level) {
+      throw new IllegalArgumentException("Invalid deflate level: " + level);
+    }
+    this.level = level;
+    this.filter = filter;
+  }
+
+  /**
+   * Gets the deflate level.
+   *
+   * @return the deflate level
+   */
+  public int getLevel() {
+    return this.level;
+  }
+
+  /**
+   * Gets the PNG filter.
+   *
+   * @return the PNG filter
+   */
+  public Filter getFilter() {
+    return this.filter;
+  }
+
+  @Override
+  public String getFileExtension() {
+    return "png";
+  }
+
+  @Override
+  public void encode(BufferedImage tile, OutputStream out) throws IOException {
+    State s = states.acquire();
+    try {
+      encode(tile, out, s);
+    } finally {
+      states.release();
+    }
+  }
+
+  /**
+   * Ends the {@link Deflater Deflater} of each thread.
+   */
+  @Override
+  public void close() {
+    states.close();
+  }
+
+  private void encode(BufferedImage tile, OutputStream out, State s) throws IOException {
+    int width = tile.getWidth();
+    int height = tile.getHeight();
+    s.pixels = Pixels.readArgb(tile, s.pixels);
+    int[] pixels = s.pixels;
+    boolean opaque = true;
+    for (int k = 0; k < width * height && opaque; k++) {
+      opaque = pixels[k] >>> 24 == 0xff;
+    }
+    int bpp = opaque ? 3 : 4;
+    int rowBytes = width * bpp;
+    s.ensureCapacity(rowBytes);
+
+    out.write(SIGNATURE);
+    byte[] header = s.header;
+    writeInt(header, 0, width);
+    writeInt(header, 4, height);
+    header[8] = 8;
+    header[9] = (byte) (opaque ? 2 : 6);
+    header[10] = 0;
+    header[11] = 0;
+    header[12] = 0;
+    writeChunk(out, s, IHDR, header, 13);
+
+    Deflater deflater = s.deflater;
+    deflater.reset();
+    Arrays.fill(s.previous, 0, rowBytes, (byte) 0);
+    for (int y = 0; y < height; y++) {
+      byte[] row = s.current;
+      int o = y * width;
+      if (opaque) {
+        for (int x = 0, b = 0; x < width; x++, b += 3) {
+          int p = pixels[o + x];
+          row[b] = (byte) (p >> 16);
+          row[b + 1] = (byte) (p >> 8);
+          row[b + 2] = (byte) p;
+        }
+      } else {
+        for (int x = 0, b = 0; x < width; x++, b += 4) {
+          int p = pixels[o + x];
+          row[b] = (byte) (p >> 16);
+          row[b + 1] = (byte) (p >> 8);
+          row[b + 2] = (byte) p;
+          row[b + 3] = (byte) (p >>> 24);
+        }
+      }
+      byte[] filtered = filterRow(s, rowBytes, bpp);
+      deflater.setInput(filtered, 0, rowBytes + 1);
+      while (!deflater.needsInput()) {
+        flush(out, s, deflater.deflate(s.compressed));
+      }
+      s.current = s.previous;
+      s.previous = row;
+    }
+    deflater.finish();
+    while (!deflater.finished()) {
+      flush(out, s, deflater.deflate(s.compressed));
+    }
+    writeChunk(out, s, IEND, s.header, 0);
+  }
+
+  private byte[] filterRow(State s, int rowBytes, int bpp) {
+    if (Filter.ADAPTIVE != filter) {
+      byte[] dst = s.filtered[filter.ordinal()];
+      applyFilter(filter, s.current, s.previous, rowBytes, bpp, dst);
+      return dst;
+    }
+    byte[] best = null;
+    long bestSum = Long.MAX_VALUE;
+    for (Filter f : ROW_FILTERS) {
+      byte[] candidate = s.filtered[f.ordinal()];
+      long sum = applyFilter(f, s.current, s.previous, rowBytes, bpp, candidate);
+      if (sum < bestSum) {
+        bestSum = sum;
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Filters a row and returns the sum of the absolute values of the filtered bytes, taken as
+   * signed bytes.
+   */
+  private static long applyFilter(Filter f, byte[] cur, byte[] prev, int rowBytes, int bpp, byte[] dst) {
+    dst[0] = (byte) f.ordinal();
+    long sum = 0;
+    switch (f) {
+      case SUB:
+        for (int k = 0; k < bpp; k++) {
+          dst[k + 1] = cur[k];
+          sum += Math.abs(cur[k]);
+        }
+        for (int k = bpp; k < rowBytes; k++) {
+          byte d = (byte) (cur[k] - cur[k - bpp]);
+          dst[k + 1] = d;
+          sum += Math.abs(d);
+        }
+        break;
+      case UP:
+        for (int k = 0; k < rowBytes; k++) {
+          byte d = (byte) (cur[k] - prev[k]);
+          dst[k + 1] = d;
+          sum += Math.abs(d);
+        }
+        break;
+      case AVERAGE:
+        for (int k = 0; k < bpp; k++) {
+          byte d = (byte) (cur[k] - ((prev[k] & 0xff) >> 1));
+          dst[k + 1] = d;
+          sum += Math.abs(d);
+        }
+        for (int k = bpp; k < rowBytes; k++) {
+          byte d = (byte) (cur[k] - (((cur[k - bpp] & 0xff) + (prev[k] & 0xff)) >> 1));
+          dst[k + 1] = d;
+          sum += Math.abs(d);
+        }
+        break;
+      case PAETH:
+        // without a left neighbor the Paeth predictor is the pixel above
+        for (int k = 0; k < bpp; k++) {
+          byte d = (byte) (cur[k] - prev[k]);
+          dst[k + 1] = d;
+          sum += Math.abs(d);
+        }
+        for (int k = bpp; k < rowBytes; k++) {
+          int a = cur[k - bpp] & 0xff;
+          int b = prev[k] & 0xff;
+          int c = prev[k - bpp] & 0xff;
+          int pa = Math.abs(b - c);
+          int pb = Math.abs(a - c);
+          int pc = Math.abs(a + b - c - c);
+          int predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+          byte d = (byte) (cur[k] - predictor);
+          dst[k + 1] = d;
+          sum += Math.abs(d);
+        }
+        break;
+      default:
+        for (int k = 0; k < rowBytes; k++) {
+          dst[k + 1] = cur[k];
+          sum += Math.abs(cur[k]);
+        }
+        break;
+    }
+    return sum;
+  }
+
+  private static void flush(OutputStream out, State s, int length) throws IOException {
+    if (length > 0) {
+      writeChunk(out, s, IDAT, s.compressed, length);
+    }
+  }
+
+  private static void writeChunk(OutputStream out, State s, byte[] type, byte[] data, int length)
+      throws IOException {
+    byte[] buf = s.chunkHeader;
+    writeInt(buf, 0, length);
+    System.arraycopy(type, 0, buf, 4, 4);
+    out.write(buf, 0, 8);
+    out.write(data, 0, length);
+    CRC32 crc = s.crc;
+    crc.reset();
+    crc.update(type, 0, 4);
+    crc.update(data, 0, length);
+    writeInt(buf, 0, (int) crc.getValue());
+    out.write(buf, 0, 4);
+  }
+
+  private static void writeInt(byte[] buf, int offset, int value) {
+    buf[offset] = (byte) (value >>> 24);
+    buf[offset + 1] = (byte) (value >>> 16);
+    buf[offset + 2] = (byte) (value >>> 8);
+    buf[offset + 3] = (byte) value;
+  }
+
+  /**
+   * The buffers of one thread.
+   */
+  private static final class State {
+
+    final Deflater deflater;
+    final CRC32 crc = new CRC32();
+    final byte[] header = new byte[13];
+    final byte[] chunkHeader = new byte[8];
+    final byte[] compressed = new byte[64 * 1024];
+    int[] pixels;
+    byte[] current = new byte[0];
+    byte[] previous = new byte[0];
+    final byte[][] filtered = new byte[Filter.values().length][];
+
+    State(int level, Filter filter) {
+      deflater = new Deflater(level);
+      if (Filter.NONE != filter) {
+        // filtered rows are mostly small values, which deflate compresses better with this strategy
+        deflater.setStrategy(Deflater.FILTERED);
+      }
+    }
+
+    void ensureCapacity(int rowBytes) {
+      if (current.length < rowBytes) {
+        current = new byte[rowBytes];
+        previous = new byte[rowBytes];
+        for (int f = 0; f < filtered.length; f++) {
+          filtered[f] = new byte[rowBytes + 1];
+        }
+      }
+    }
+  }
+}
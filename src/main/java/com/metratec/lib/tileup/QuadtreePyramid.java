@@ -0,0 +1,168 @@
+package com.metratec.lib.tileup;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import javax.imageio.ImageReader;
+
+/**
+ * Creates the tiles of all zoom levels in a single depth-first walk over the tile quadtree: a tile
+ * of a lower zoom level is halved from its four tiles of the next higher level as soon as they are
+ * created, and their pixels are no longer needed after that. The tiles of the first level are
+ * therefore visited in Z-order, see {@link TilePlan TilePlan}.
+ * <p>
+ * Every zoom level keeps one tile and one block of 2 × 2 tiles, so the memory of the pyramid is
+ * about 5 × 4 bytes × tile size × zoom levels. Halving each block on its own gives the same pixels
+ * as halving the whole level only with the {@link DownsampleFilter#BOX BOX} filter and even tile
+ * sizes, the other filters read pixels of the neighboring blocks.
+ * <p>
+ * The first level is read from an image stored in tiles, like a tiled TIFF, one area of about the
+ * size of its tiles at a time, or taken from the decoded image for all other images.
+ */
+final class QuadtreePyramid {
+
+  private final ImageSource source;
+  private final ImageReader reader;
+  private final int first;
+  private final int tileWidth;
+  private final int tileHeight;
+  private final int[] levelWidths;
+  private final int[] levelHeights;
+  private final TileWriter writer;
+  private final TileMetrics metrics;
+  /** the tile being created at each level */
+  private final int[][] tiles;
+  /** the four tiles of the next higher level each tile is halved from, null for the first level */
+  private final int[][] blocks;
+  /** the level whose tiles are read from the source as a whole, beyond the last level if it is decoded */
+  private final int readLevel;
+  private BufferedImage area;
+  private int areaX;
+  private int areaY;
+
+  /**
+   * @param plan the plan of the tiles, giving the size of each level
+   * @param first the first zoom level, it is read from the source
+   * @param levels the number of zoom levels, the levels <code>first</code> to <code>levels</code> -
+   *        1 are created
+   * @param source the source of the first level
+   * @param reader the reader of the source, used while the tiles are created
+   * @param decoded the decoded first level, or null to read it from the source in areas
+   * @param decodedBounds the bounds of the decoded image in the first level
+   * @param tileWidth the tile width, even if there are several levels
+   * @param tileHeight the tile height, even if there are several levels
+   * @param writer the writer the created tiles are handed to
+   */
+  QuadtreePyramid(TilePlan plan, int first, int levels, ImageSource source, ImageReader reader,
+      BufferedImage decoded, Rectangle decodedBounds, int tileWidth, int tileHeight, TileWriter writer) {
+    this.source = source;
+    this.reader = reader;
+    this.first = first;
+    this.tileWidth = tileWidth;
+    this.tileHeight = tileHeight;
+    this.writer = writer;
+    this.metrics = writer.getMetrics();
+    int depth = levels - first;
+    this.levelWidths = new int[depth];
+    this.levelHeights = new int[depth];
+    this.tiles = new int[depth][];
+    this.blocks = new int[depth][];
+    long bytes = 0;
+    for (int k = 0; k < depth; k++) {
+      levelWidths[k] = plan.getLevelWidth(first + k);
+      levelHeights[k] = plan.getLevelHeight(first + k);
+      tiles[k] = new int[tileWidth * tileHeight];
+      blocks[k] = k > 0 ? new int[4 * tileWidth * tileHeight] : null;
+      bytes += 4L * (tiles[k].length + (k > 0 ? blocks[k].length : 0));
+    }
+    metrics.allocated(bytes);
+    if (null != decoded) {
+      this.area = decoded;
+      this.areaX = decodedBounds.x;
+      this.areaY = decodedBounds.y;
+      this.readLevel = depth;
+    } else {
+      // the lowest level whose tiles cover at least one tile of the source, so no source tile is
+      // decoded more than a few times
+      Dimension sourceTile = source.getTileSize(first);
+      int k = 0;
+      while (k + 1 < depth
+          && ((long) tileWidth << k < sourceTile.width || (long) tileHeight << k < sourceTile.height)) {
+        k++;
+      }
+      this.readLevel = k;
+    }
+  }
+
+  /**
+   * Creates a tile of the last level and all tiles of the higher levels within it.
+   *
+   * @param i the column of the tile
+   * @param j the row of the tile
+   * @throws Exception if the source could not be read or a tile could not be saved
+   */
+  void create(int i, int j) throws Exception {
+    create(tiles.length - 1, i, j);
+  }
+
+  // creates the tile (k, i, j) in tiles[k], after the tiles of the higher levels within it
+  private void create(int k, int i, int j) throws Exception {
+    int z = first + k;
+    int x = i * tileWidth;
+    int y = j * tileHeight;
+    int width = Math.min(tileWidth, levelWidths[k] - x);
+    int height = Math.min(tileHeight, levelHeights[k] - y);
+    int[] tile = tiles[k];
+    if (k == readLevel) {
+      readArea(k, x, y);
+    }
+    if (0 == k) {
+      long copyStart = System.nanoTime();
+      Pixels.copyArgb(area, x - areaX, y - areaY, width, height, tile, 0, tileWidth);
+      metrics.copied(System.nanoTime() - copyStart);
+    } else {
+      int[] block = blocks[k];
+      int scan = 2 * tileWidth;
+      int blockWidth = Math.min(scan, levelWidths[k - 1] - 2 * x);
+      int blockHeight = Math.min(2 * tileHeight, levelHeights[k - 1] - 2 * y);
+      // the children in Z-order, each is copied into the block before the next one is created
+      for (int child = 0; child < 4; child++) {
+        int left = (child & 1) * tileWidth;
+        int top = (child >> 1) * tileHeight;
+        if (left < blockWidth && top < blockHeight) {
+          create(k - 1, 2 * i + (child & 1), 2 * j + (child >> 1));
+          long copyStart = System.nanoTime();
+          int childWidth = Math.min(tileWidth, blockWidth - left);
+          for (int row = 0; row < Math.min(tileHeight, blockHeight - top); row++) {
+            System.arraycopy(tiles[k - 1], row * tileWidth, block, (top + row) * scan + left, childWidth);
+          }
+          metrics.copied(System.nanoTime() - copyStart);
+        }
+      }
+      long rescaleStart = System.nanoTime();
+      for (int row = 0; row < height; row++) {
+        Downsampler.halveRow(block, 2 * row * scan, block, Math.min(2 * row + 1, blockHeight - 1) * scan, blockWidth,
+            tile, row * tileWidth);
+      }
+      metrics.rescaled(z, System.nanoTime() - rescaleStart);
+    }
+    writer.write(tile, tileWidth, 0, 0, width, height, z, i, j);
+    if (k == readLevel) {
+      metrics.released(TileMetrics.bytes(area));
+      area = null;
+    }
+  }
+
+  // reads the pixels of the first level a tile of level k at (x, y) covers
+  private void readArea(int k, int x, int y) throws Exception {
+    Rectangle bounds = new Rectangle(x << k, y << k, Math.min(tileWidth << k, levelWidths[0] - (x << k)),
+        Math.min(tileHeight << k, levelHeights[0] - (y << k)));
+    long decodeStart = System.nanoTime();
+    area = source.read(reader, first, bounds);
+    metrics.decoded(System.nanoTime() - decodeStart);
+    metrics.allocated(TileMetrics.bytes(area));
+    areaX = bounds.x;
+    areaY = bounds.y;
+  }
+}
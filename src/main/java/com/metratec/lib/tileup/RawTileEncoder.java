@@ -0,0 +1,57 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes tiles uncompressed as 8 bit RGBA values, row by row, without any header. This is the
+ * fastest encoder and meant for pipelines that process the tiles further.
+ * <p>
+ * The tile size is not stored. Unless edge tiles are not extended (see
+ * {@link TileUp#setExtended(boolean) TileUp.setExtended(boolean)}), every tile has the tile width
+ * and height.
+ */
+public class RawTileEncoder implements TileEncoder {
+
+  private final ThreadLocal<State> state = new ThreadLocal<State>() {
+    @Override
+    protected State initialValue() {
+      return new State();
+    }
+  };
+
+  @Override
+  public String getFileExtension() {
+    return "rgba";
+  }
+
+  @Override
+  public void encode(BufferedImage tile, OutputStream out) throws IOException {
+    State s = state.get();
+    int n = tile.getWidth() * tile.getHeight();
+    s.pixels = Pixels.readArgb(tile, s.pixels);
+    if (null == s.bytes || s.bytes.length < 4 * n) {
+      s.bytes = new byte[4 * n];
+    }
+    int[] pixels = s.pixels;
+    byte[] bytes = s.bytes;
+    for (int k = 0, b = 0; k < n; k++, b += 4) {
+      int p = pixels[k];
+      bytes[b] = (byte) (p >> 16);
+      bytes[b + 1] = (byte) (p >> 8);
+      bytes[b + 2] = (byte) p;
+      bytes[b + 3] = (byte) (p >>> 24);
+    }
+    out.write(bytes, 0, 4 * n);
+  }
+
+  /**
+   * The buffers of one thread.
+   */
+  private static final class State {
+
+    int[] pixels;
+    byte[] bytes;
+  }
+}
@@ -0,0 +1,285 @@
+package com.metratec.lib.tileup;
+
+import java.util.Arrays;
+
+/**
+ * Halves an ARGB image that is handed over row by row, from top to bottom, with a
+ * {@link DownsampleFilter DownsampleFilter}. Only as many rows as the filter needs are held, so
+ * the whole image never has to be in memory.
+ * <p>
+ * {@link DownsampleFilter#BOX BOX} uses {@link Downsampler#halveRow(int[], int, int[], int, int,
+ * int[], int) Downsampler.halveRow}. The other filters are applied separably on premultiplied
+ * values: each source row is filtered horizontally into one row of the target width per channel,
+ * and the last rows are then combined vertically. Both passes run over plain
+ * <code>float</code> arrays, one per channel, which the JIT compiler can vectorize. Pixels outside
+ * of the image repeat the edge pixels.
+ * <p>
+ * After each {@link #push(int[], int) push}, {@link #poll(int[], int) poll} has to be called until
+ * it returns false. A pushed row must not be changed until then.
+ */
+final class RowHalver {
+
+  private final DownsampleFilter filter;
+  private final int width;
+  private final int height;
+  private final int targetWidth;
+  private final int targetHeight;
+  private final float[] weights;
+  private final int taps;
+  /** the horizontally filtered rows of the last taps source rows, per channel */
+  private final float[][] ringA;
+  private final float[][] ringR;
+  private final float[][] ringG;
+  private final float[][] ringB;
+  /** the premultiplied channels of the even and odd columns of the source row being filtered */
+  private final float[] evenA;
+  private final float[] evenR;
+  private final float[] evenG;
+  private final float[] evenB;
+  private final float[] oddA;
+  private final float[] oddR;
+  private final float[] oddG;
+  private final float[] oddB;
+  /** the vertically filtered row */
+  private final float[] sumA;
+  private final float[] sumR;
+  private final float[] sumG;
+  private final float[] sumB;
+  /** the upper row of a pair for the box filter */
+  private final int[] pendingRow;
+  private boolean pending;
+  private int[] lastRow;
+  private int lastOffset;
+  private int received;
+  private int emitted;
+
+  /**
+   * @param filter the filter
+   * @param width the width of the source image
+   * @param height the height of the source image
+   */
+  RowHalver(DownsampleFilter filter, int width, int height) {
+    this.filter = filter;
+    this.width = width;
+    this.height = height;
+    this.targetWidth = (width + 1) / 2;
+    this.targetHeight = (height + 1) / 2;
+    this.weights = filter.weights();
+    this.taps = weights.length;
+    if (DownsampleFilter.BOX == filter) {
+      this.pendingRow = new int[width];
+      this.ringA = this.ringR = this.ringG = this.ringB = null;
+      this.evenA = this.evenR = this.evenG = this.evenB = null;
+      this.oddA = this.oddR = this.oddG = this.oddB = null;
+      this.sumA = this.sumR = this.sumG = this.sumB = null;
+    } else {
+      this.pendingRow = null;
+      this.ringA = new float[taps][targetWidth];
+      this.ringR = new float[taps][targetWidth];
+      this.ringG = new float[taps][targetWidth];
+      this.ringB = new float[taps][targetWidth];
+      this.evenA = new float[targetWidth];
+      this.evenR = new float[targetWidth];
+      this.evenG = new float[targetWidth];
+      this.evenB = new float[targetWidth];
+      this.oddA = new float[width / 2];
+      this.oddR = new float[width / 2];
+      this.oddG = new float[width / 2];
+      this.oddB = new float[width / 2];
+      this.sumA = new float[targetWidth];
+      this.sumR = new float[targetWidth];
+      this.sumG = new float[targetWidth];
+      this.sumB = new float[targetWidth];
+    }
+  }
+
+  /**
+   * Gets the size of the rows the halver holds.
+   *
+   * @return the number of bytes of its buffers
+   */
+  long getBufferBytes() {
+    return bufferBytes(filter, width);
+  }
+
+  /**
+   * Gets the size of the rows a halver of a width holds, without creating it.
+   *
+   * @param filter the filter
+   * @param width the width of the source rows
+   * @return the number of bytes of its buffers
+   */
+  static long bufferBytes(DownsampleFilter filter, int width) {
+    if (DownsampleFilter.BOX == filter) {
+      return 4L * width;
+    }
+    // the ring, the even and odd columns and the vertical sum, four channels each
+    long targetWidth = (width + 1) / 2;
+    return 16L * (filter.weights().length * targetWidth + targetWidth + width / 2 + targetWidth);
+  }
+
+  /**
+   * Hands over the next row of the source image.
+   *
+   * @param row the ARGB pixels
+   * @param offset the offset of the row in <code>row</code>
+   */
+  void push(int[] row, int offset) {
+    if (DownsampleFilter.BOX == filter) {
+      lastRow = row;
+      lastOffset = offset;
+    } else {
+      filterRow(row, offset, received % taps);
+    }
+    received++;
+  }
+
+  /**
+   * Writes the next row of the halved image, if the rows it needs were handed over.
+   *
+   * @param dst the array receiving the (width + 1) / 2 ARGB pixels
+   * @param dstOffset the offset of the row in <code>dst</code>
+   * @return true if a row was written, false if more source rows are needed
+   */
+  boolean poll(int[] dst, int dstOffset) {
+    if (DownsampleFilter.BOX == filter) {
+      return pollBox(dst, dstOffset);
+    }
+    int y = emitted;
+    if (y == targetHeight || received - 1 < Math.min(height - 1, 2 * y + taps / 2)) {
+      return false;
+    }
+    Arrays.fill(sumA, 0);
+    Arrays.fill(sumR, 0);
+    Arrays.fill(sumG, 0);
+    Arrays.fill(sumB, 0);
+    for (int t = 0; t < taps; t++) {
+      int slot = clamp(2 * y - (taps / 2 - 1) + t, height - 1) % taps;
+      float w = weights[t];
+      float[] a = ringA[slot];
+      float[] r = ringR[slot];
+      float[] g = ringG[slot];
+      float[] b = ringB[slot];
+      for (int x = 0; x < targetWidth; x++) {
+        sumA[x] += w * a[x];
+        sumR[x] += w * r[x];
+        sumG[x] += w * g[x];
+        sumB[x] += w * b[x];
+      }
+    }
+    for (int x = 0; x < targetWidth; x++) {
+      float a = sumA[x];
+      if (a < 0.5f) {
+        dst[dstOffset + x] = 0;
+      } else {
+        float scale = 1 / a;
+        dst[dstOffset + x] = toByte(a) << 24 | toByte(sumR[x] * scale) << 16 | toByte(sumG[x] * scale) << 8
+            | toByte(sumB[x] * scale);
+      }
+    }
+    emitted++;
+    return true;
+  }
+
+  private boolean pollBox(int[] dst, int dstOffset) {
+    if (emitted == received / 2 + (received == height ? received % 2 : 0)) {
+      if (received % 2 == 1 && received < height) {
+        System.arraycopy(lastRow, lastOffset, pendingRow, 0, width);
+        pending = true;
+      }
+      return false;
+    }
+    if (pending) {
+      Downsampler.halveRow(pendingRow, 0, lastRow, lastOffset, width, dst, dstOffset);
+      pending = false;
+    } else {
+      // the last row of an odd height
+      Downsampler.halveRow(lastRow, lastOffset, lastRow, lastOffset, width, dst, dstOffset);
+    }
+    emitted++;
+    return true;
+  }
+
+  // filters a source row horizontally into the ring, premultiplying the colors with alpha
+  private void filterRow(int[] row, int offset, int slot) {
+    // even and odd columns are stored apart, so every tap below reads consecutive elements
+    for (int x = 0; x < width; x++) {
+      int p = row[offset + x];
+      int half = x >> 1;
+      float pa = p >>> 24;
+      if (0 == (x & 1)) {
+        evenA[half] = pa;
+        evenR[half] = (p >> 16 & 0xff) * pa;
+        evenG[half] = (p >> 8 & 0xff) * pa;
+        evenB[half] = (p & 0xff) * pa;
+      } else {
+        oddA[half] = pa;
+        oddR[half] = (p >> 16 & 0xff) * pa;
+        oddG[half] = (p >> 8 & 0xff) * pa;
+        oddB[half] = (p & 0xff) * pa;
+      }
+    }
+    float[] a = ringA[slot];
+    float[] r = ringR[slot];
+    float[] g = ringG[slot];
+    float[] b = ringB[slot];
+    int first = taps / 2 - 1;
+    for (int x = 0; x < targetWidth; x++) {
+      int start = 2 * x - first;
+      if (start < 0 || start + taps > width) {
+        // the taps of the edge columns are clamped to the image
+        float sa = 0;
+        float sr = 0;
+        float sg = 0;
+        float sb = 0;
+        for (int t = 0; t < taps; t++) {
+          int c = clamp(start + t, width - 1);
+          int half = c >> 1;
+          float w = weights[t];
+          boolean even = 0 == (c & 1);
+          sa += w * (even ? evenA[half] : oddA[half]);
+          sr += w * (even ? evenR[half] : oddR[half]);
+          sg += w * (even ? evenG[half] : oddG[half]);
+          sb += w * (even ? evenB[half] : oddB[half]);
+        }
+        a[x] = sa;
+        r[x] = sr;
+        g[x] = sg;
+        b[x] = sb;
+      }
+    }
+    // the inner columns, tap by tap over the whole row
+    int from = (first + 1) / 2;
+    int to = Math.min(targetWidth, (width - taps + first) / 2 + 1);
+    if (from < to) {
+      Arrays.fill(a, from, to, 0);
+      Arrays.fill(r, from, to, 0);
+      Arrays.fill(g, from, to, 0);
+      Arrays.fill(b, from, to, 0);
+      for (int t = 0; t < taps; t++) {
+        int c = 2 * from - first + t;
+        boolean even = 0 == (c & 1);
+        float[] ca = even ? evenA : oddA;
+        float[] cr = even ? evenR : oddR;
+        float[] cg = even ? evenG : oddG;
+        float[] cb = even ? evenB : oddB;
+        float w = weights[t];
+        for (int x = from, k = c >> 1; x < to; x++, k++) {
+          a[x] += w * ca[k];
+          r[x] += w * cr[k];
+          g[x] += w * cg[k];
+          b[x] += w * cb[k];
+        }
+      }
+    }
+  }
+
+  private static int clamp(int index, int max) {
+    return index < 0 ? 0 : index > max ? max : index;
+  }
+
+  private static int toByte(float value) {
+    int v = (int) (value + 0.5f);
+    return v < 0 ? 0 : v > 255 ? 255 : v;
+  }
+}
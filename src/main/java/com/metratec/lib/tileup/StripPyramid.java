@@ -0,0 +1,146 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Creates the tiles of all zoom levels from horizontal strips of the original image, or of a zoom
+ * level stored in it, in a single pass.
+ * <p>
+ * Every zoom level buffers one row of tiles. As soon as a row of tiles is complete, its tiles are
+ * copied by the {@link TileWriter TileWriter} and the buffer is reused. The rows of each level are
+ * halved into the next lower zoom level by a {@link RowHalver RowHalver}, in the same way as
+ * {@link Downsampler#halve(BufferedImage, DownsampleFilter) Downsampler.halve} does for whole
+ * images. The memory needed is therefore about twice the image width × tile height, independent of
+ * the image height.
+ */
+final class StripPyramid {
+
+  private final int tileWidth;
+  private final int tileHeight;
+  private final int column;
+  private final int row;
+  private final int firstLevel;
+  private final TileWriter writer;
+  private final TileMetrics metrics;
+  private final Level[] levels;
+
+  /**
+   * @param width the width of the first zoom level
+   * @param height the height of the first zoom level
+   * @param firstLevel the first zoom level to create, 0 is the original image size
+   * @param zoomLevels the number of zoom levels, the levels <code>firstLevel</code> to
+   *        <code>zoomLevels</code> - 1 are created
+   * @param tileWidth the tile width
+   * @param tileHeight the tile height
+   * @param column the tile column of the left edge of the image at the original size, the columns
+   *        of the tiles are offset by it
+   * @param row the tile row of the top edge of the image at the original size
+   * @param filter the filter halving the zoom levels
+   * @param writer the writer the created tiles are handed to
+   */
+  StripPyramid(int width, int height, int firstLevel, int zoomLevels, int tileWidth, int tileHeight, int column,
+      int row, DownsampleFilter filter, TileWriter writer) {
+    this.tileWidth = tileWidth;
+    this.tileHeight = tileHeight;
+    this.column = column;
+    this.row = row;
+    this.firstLevel = firstLevel;
+    this.writer = writer;
+    this.metrics = writer.getMetrics();
+    this.levels = new Level[zoomLevels - firstLevel];
+    long bytes = 0;
+    for (int z = 0; z < levels.length; z++) {
+      levels[z] = new Level(width, height, z + 1 < levels.length ? new RowHalver(filter, width, height) : null);
+      bytes += 4L * (levels[z].rows.length + levels[z].scratch.length)
+          + (null != levels[z].halver ? levels[z].halver.getBufferBytes() : 0);
+      width = (width + 1) / 2;
+      height = (height + 1) / 2;
+    }
+    metrics.allocated(bytes);
+  }
+
+  /**
+   * Adds the next strip of the first zoom level. The strips have to be added from top to bottom and
+   * can have any height. Each row is converted to ARGB when it is added, so the strip can have any
+   * image type.
+   *
+   * @param strip an image with the width of the first zoom level
+   * @throws Exception if a tile could not be saved
+   */
+  void push(BufferedImage strip) throws Exception {
+    int width = strip.getWidth();
+    // the scratch row of the first level is not used otherwise
+    int[] row = levels[0].scratch;
+    for (int y = 0; y < strip.getHeight(); y++) {
+      long copyStart = System.nanoTime();
+      Pixels.copyArgb(strip, 0, y, width, 1, row, 0, width);
+      metrics.copied(System.nanoTime() - copyStart);
+      pushRow(0, row, 0);
+    }
+  }
+
+  private void pushRow(int z, int[] row, int offset) throws Exception {
+    Level level = levels[z];
+    int width = level.width;
+    int rowOffset = level.filled * width;
+    long copyStart = System.nanoTime();
+    System.arraycopy(row, offset, level.rows, rowOffset, width);
+    metrics.copied(System.nanoTime() - copyStart);
+    level.filled++;
+    level.received++;
+    boolean last = level.received == level.height;
+
+    if (z + 1 < levels.length) {
+      Level next = levels[z + 1];
+      // the rows of the next level are timed without the work they cause there
+      long rescaleStart = System.nanoTime();
+      level.halver.push(level.rows, rowOffset);
+      boolean halved = level.halver.poll(next.scratch, 0);
+      metrics.rescaled(firstLevel + z + 1, System.nanoTime() - rescaleStart);
+      while (halved) {
+        pushRow(z + 1, next.scratch, 0);
+        rescaleStart = System.nanoTime();
+        halved = level.halver.poll(next.scratch, 0);
+        metrics.rescaled(firstLevel + z + 1, System.nanoTime() - rescaleStart);
+      }
+    }
+
+    if (level.filled == tileHeight || last) {
+      emitTileRow(z, level);
+      level.filled = 0;
+      level.tileRow++;
+    }
+  }
+
+  private void emitTileRow(int index, Level level) throws Exception {
+    int z = firstLevel + index;
+    for (int i = 0; i * tileWidth < level.width; i++) {
+      int x = i * tileWidth;
+      writer.write(level.rows, level.width, x, 0, Math.min(tileWidth, level.width - x), level.filled, z,
+          (column >> z) + i, (row >> z) + level.tileRow);
+    }
+  }
+
+  private final class Level {
+
+    final int width;
+    final int height;
+    /** the row of tiles being filled */
+    final int[] rows;
+    /** halves the rows into the next level, null for the last level */
+    final RowHalver halver;
+    /** a row of this level averaged from the previous level */
+    final int[] scratch;
+    int filled;
+    int received;
+    int tileRow;
+
+    Level(int width, int height, RowHalver halver) {
+      this.width = width;
+      this.height = height;
+      this.rows = new int[width * tileHeight];
+      this.halver = halver;
+      this.scratch = new int[width];
+    }
+  }
+}
@@ -6,32 +6,33 @@ package com.metratec.lib.tileup;
  */
 class SynCreateTilesCallback implements CreateTilesCallback {
 
-  private Integer status;
-  private Exception exception;
+  private final TileUp tileUp;
 
-  @Override
-  public void createTilesProgress(String createdTile, int count, int total) {
-    System.out.println(new StringBuilder().append("Created tile: ").append(createdTile).append(" (").append(count)
-        .append('/').append(total).append(')').toString());
+  SynCreateTilesCallback(TileUp tileUp) {
+    this.tileUp = tileUp;
   }
 
   @Override
-  public void createTilesResult(int retval, Exception e) {
-    status = retval;
-    exception = e;
+  public void createTilesProgress(String createdTile, int count, int total) {
+    StringBuilder line = new StringBuilder().append("Created tile: ").append(createdTile).append(" (").append(count)
+        .append('/').append(total);
+    TileProgress progress = tileUp.getProgress();
+    if (tileUp.getProgressInterval() > 0 && null != progress) {
+      // only some tiles are printed, so the rate tells how the run is going
+      line.append(String.format(", %.1f tiles/s, ETA %.1f s", progress.getTilesPerSecond(),
+          Math.max(0, progress.getRemainingNanos()) / 1e9));
+    }
+    System.out.println(line.append(')').toString());
   }
 
-  /**
-   * @return true if finish
-   */
-  protected boolean isFinish() {
-    return null != status;
+  @Override
+  public void createTilesSkipped(String skippedTile, int skipped) {
+    System.out.println(new StringBuilder().append("Skipped tile: ").append(skippedTile).append(" (").append(skipped)
+        .append(" skipped)").toString());
   }
 
-  /**
-   * @return the {@link Exception}, if an error occurs
-   */
-  protected Exception getException() {
-    return exception;
+  @Override
+  public void createTilesResult(int retval, Exception e) {
+    // the result is returned or thrown by TileUp.createTiles()
   }
 }
@@ -0,0 +1,100 @@
+package com.metratec.lib.tileup;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The buffers of each thread using an encoder, which hold native memory, e.g. a
+ * {@link java.util.zip.Deflater Deflater}. A thread acquires its state for one tile at a time.
+ * <p>
+ * The states of threads that ended, e.g. the workers of a finished run, are only freed by
+ * {@link #close() close}. It frees idle states at once and states in use when their tile is done.
+ * Threads then create new states, so the encoder can still be used, also by runs that are running
+ * while another one closes it.
+ *
+ * @param <S> the type of the state
+ */
+abstract class ThreadStates<S> {
+
+  private final Set<Entry<S>> entries = ConcurrentHashMap.newKeySet();
+  private final ThreadLocal<Entry<S>> local = new ThreadLocal<Entry<S>>();
+
+  /**
+   * @return a new state
+   */
+  abstract S create();
+
+  /**
+   * Frees the native memory of a state, it is not used anymore.
+   *
+   * @param state the state
+   */
+  abstract void free(S state);
+
+  /**
+   * Gets the state of the calling thread, which has to be released by {@link #release() release}.
+   *
+   * @return the state
+   */
+  S acquire() {
+    Entry<S> entry = local.get();
+    if (null == entry || !entry.acquire()) {
+      entry = new Entry<S>(create());
+      entry.acquire();
+      entries.add(entry);
+      local.set(entry);
+    }
+    return entry.state;
+  }
+
+  /**
+   * Releases the state of the calling thread after a tile.
+   */
+  void release() {
+    Entry<S> entry = local.get();
+    if (entry.release()) {
+      free(entry.state);
+    }
+  }
+
+  /**
+   * Frees the states of all threads.
+   */
+  void close() {
+    for (Entry<S> entry : entries) {
+      entries.remove(entry);
+      if (entry.close()) {
+        free(entry.state);
+      }
+    }
+  }
+
+  // a state and whether it is in use or closed, so it is freed exactly once
+  private static final class Entry<S> {
+
+    final S state;
+    private boolean busy;
+    private boolean closed;
+
+    Entry(S state) {
+      this.state = state;
+    }
+
+    synchronized boolean acquire() {
+      busy = !closed;
+      return busy;
+    }
+
+    // whether the state has to be freed
+    synchronized boolean release() {
+      busy = false;
+      return closed;
+    }
+
+    // whether the state has to be freed
+    synchronized boolean close() {
+      closed = true;
+      return !busy;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.metratec.lib.tileup;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tiles many images in one process. A fixed number of images is tiled at the same time, as long
+ * as the estimated memory of these runs stays within a budget. All runs share one set of
+ * {@link TilePools TilePools}, so threads and tile buffers are created once for the whole batch,
+ * and the JIT compiled code stays warm from one image to the next.
+ * <p>
+ * Each image is set up as a {@link TileUp TileUp} of its own, so every image can have its own
+ * output directory and settings.
+ */
+public final class TileBatch implements Closeable {
+
+  private final TilePools pools;
+  private final ExecutorService workers;
+  private final Semaphore budget;
+  private final int budgetKilobytes;
+
+  /**
+   * Creates a batch.
+   *
+   * @param images the number of images tiled at the same time
+   * @param memoryBudget the memory in bytes all images tiled at the same time may use. An image
+   *        that needs more than the budget is tiled alone.
+   * @param threads the number of threads encoding tiles, shared by all images
+   * @param ioThreads the number of threads saving tiles, shared by all images
+   */
+  public TileBatch(int images, long memoryBudget, int threads, int ioThreads) {
+    this.pools = new TilePools(threads, ioThreads);
+    this.workers = Executors.newFixedThreadPool(Math.max(1, images));
+    this.budgetKilobytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / 1024));
+    this.budget = new Semaphore(budgetKilobytes, true);
+  }
+
+  /**
+   * Queues an image. The run starts as soon as a worker is free and its estimated memory fits into
+   * the budget, see {@link TileUp#createTilesAsync(Executor, CreateTilesCallback)
+   * TileUp.createTilesAsync(Executor, CreateTilesCallback)} for the returned future.
+   *
+   * @param tileUp the image and its settings, its {@link TileUp#setTilePools(TilePools) pools} are
+   *        replaced by the shared pools of the batch
+   * @param callback the callback for the progress information and result, or null
+   * @return the future of the result
+   */
+  public CompletableFuture<TileResult> submit(TileUp tileUp, CreateTilesCallback callback) {
+    tileUp.setTilePools(pools);
+    final int kilobytes = (int) Math.min(budgetKilobytes, MemoryPlan.create(tileUp).getBytes() / 1024 + 1);
+    return tileUp.createTilesAsync(new Executor() {
+      @Override
+      public void execute(final Runnable job) {
+        workers.execute(new Runnable() {
+          @Override
+          public void run() {
+            budget.acquireUninterruptibly(kilobytes);
+            try {
+              job.run();
+            } finally {
+              budget.release(kilobytes);
+            }
+          }
+        });
+      }
+    }, callback);
+  }
+
+  /**
+   * Waits until all queued images are tiled, then stops the threads.
+   *
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  public void awaitAndClose() throws InterruptedException {
+    workers.shutdown();
+    while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+      // images of a batch may take hours
+    }
+    pools.close();
+  }
+
+  /**
+   * Stops the threads. Images not yet tiled fail or are not tiled anymore.
+   */
+  @Override
+  public void close() {
+    workers.shutdownNow();
+    pools.close();
+  }
+}
@@ -0,0 +1,39 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes tiles into a file format.
+ * <p>
+ * {@link TileUp TileUp} uses one encoder for all tiles, from several threads at the same time if
+ * more than one thread is used. Implementations therefore have to be thread-safe.
+ * <p>
+ * See also {@link TileUp#setEncoder(TileEncoder) TileUp.setEncoder(TileEncoder)}.
+ */
+public interface TileEncoder {
+
+  /**
+   * Gets the file extension of the encoded tiles, without the leading dot.
+   *
+   * @return the file extension, e.g. <code>png</code>
+   */
+  String getFileExtension();
+
+  /**
+   * Encodes a tile.
+   *
+   * @param tile the tile
+   * @param out the stream to write the encoded tile to, it is not closed
+   * @throws IOException if the tile could not be written
+   */
+  void encode(BufferedImage tile, OutputStream out) throws IOException;
+
+  /**
+   * Releases the native memory the threads that encoded tiles hold, e.g. when the threads of a run
+   * shut down. The encoder can still be used afterwards. The default implementation does nothing.
+   */
+  default void close() {
+  }
+}
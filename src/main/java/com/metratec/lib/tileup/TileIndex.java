@@ -0,0 +1,170 @@
+package com.metratec.lib.tileup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Records which tiles of a run were saved and their sizes, and writes them to the file
+ * {@value #FILE_NAME} of the output directory when the run is complete, so consumers can look up
+ * tiles without listing the zoom directories, see {@link TileIndexReader TileIndexReader}.
+ * <p>
+ * The file starts with a header of {@value #HEADER_SIZE} bytes: the magic number, the version,
+ * the tile width and height and the number of zoom levels. It is followed by one entry of
+ * {@value #LEVEL_ENTRY_SIZE} bytes per zoom level: the zoom, the number of tile columns and rows,
+ * the number of saved tiles and the offset of the data of the level. The data of a level is a
+ * bitset of its tiles, row by row, in longs, then the number of saved tiles before each long of the
+ * bitset and the size of each saved tile in the order of the bitset, both in ints. All values are
+ * big-endian.
+ */
+final class TileIndex {
+
+  /**
+   * The name of the index file in the output directory.
+   */
+  static final String FILE_NAME = "tileup.index";
+
+  static final int MAGIC = 0x54554958;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 20;
+  static final int LEVEL_ENTRY_SIZE = 24;
+
+  private final File file;
+  private final int tileWidth;
+  private final int tileHeight;
+  private final int[] columns;
+  private final int[] rows;
+  /** the saved tiles of each level */
+  private final long[][] bits;
+  /** the size of each tile of each level while the tiles are saved */
+  private final int[][] sizes;
+  private TileIndexReader previous;
+
+  /**
+   * Creates an empty index of the tiles of a plan. The index of the previous run is read, if there
+   * is one, for the sizes of tiles that are unchanged in an incremental run.
+   *
+   * @param dir the output directory
+   * @param plan the plan of the tiles
+   * @param tileWidth the tile width
+   * @param tileHeight the tile height
+   */
+  TileIndex(File dir, TilePlan plan, int tileWidth, int tileHeight) {
+    this.file = new File(dir, FILE_NAME);
+    this.tileWidth = tileWidth;
+    this.tileHeight = tileHeight;
+    int zoomLevels = plan.getZoomLevels();
+    this.columns = new int[zoomLevels];
+    this.rows = new int[zoomLevels];
+    this.bits = new long[zoomLevels][];
+    this.sizes = new int[zoomLevels][];
+    for (int z = 0; z < zoomLevels; z++) {
+      columns[z] = plan.getColumns(z);
+      rows[z] = plan.getRows(z);
+      long cells = (long) columns[z] * rows[z];
+      bits[z] = new long[(int) ((cells + 63) / 64)];
+      sizes[z] = new int[(int) cells];
+    }
+    if (file.isFile()) {
+      try {
+        previous = new TileIndexReader(file);
+      } catch (IOException e) {
+        // the sizes of unchanged tiles are then unknown
+      }
+    }
+  }
+
+  /**
+   * Records a saved tile.
+   *
+   * @param z the zoom level index
+   * @param i the column of the tile
+   * @param j the row of the tile
+   * @param size the size of the tile file in bytes
+   */
+  synchronized void saved(int z, int i, int j, int size) {
+    long cell = (long) j * columns[z] + i;
+    bits[z][(int) (cell >>> 6)] |= 1L << cell;
+    sizes[z][(int) cell] = size;
+  }
+
+  /**
+   * Records a tile that was saved by a previous run and is unchanged. Its size is taken from the
+   * index of the previous run, or is 0 if it is not known.
+   *
+   * @param z the zoom level index
+   * @param i the column of the tile
+   * @param j the row of the tile
+   */
+  synchronized void unchanged(int z, int i, int j) {
+    // the manifest of an incremental run ensures the previous run had the same settings
+    saved(z, i, j, null != previous ? Math.max(0, previous.size(20 - z, i, j)) : 0);
+  }
+
+  /**
+   * Writes the index file, replacing the index of a previous run.
+   *
+   * @throws IOException if the index could not be written
+   */
+  synchronized void commit() throws IOException {
+    close();
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(tileWidth);
+      out.writeInt(tileHeight);
+      out.writeInt(bits.length);
+      long offset = HEADER_SIZE + (long) LEVEL_ENTRY_SIZE * bits.length;
+      int[] counts = new int[bits.length];
+      for (int z = 0; z < bits.length; z++) {
+        for (long word : bits[z]) {
+          counts[z] += Long.bitCount(word);
+        }
+        out.writeInt(20 - z);
+        out.writeInt(columns[z]);
+        out.writeInt(rows[z]);
+        out.writeInt(counts[z]);
+        out.writeLong(offset);
+        offset += 12L * bits[z].length + 4L * counts[z];
+      }
+      for (int z = 0; z < bits.length; z++) {
+        for (long word : bits[z]) {
+          out.writeLong(word);
+        }
+        int rank = 0;
+        for (long word : bits[z]) {
+          out.writeInt(rank);
+          rank += Long.bitCount(word);
+        }
+        for (int w = 0; w < bits[z].length; w++) {
+          for (long word = bits[z][w]; 0 != word; word &= word - 1) {
+            out.writeInt(sizes[z][64 * w + Long.numberOfTrailingZeros(word)]);
+          }
+        }
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Closes the index of the previous run. The index file is not written.
+   */
+  synchronized void close() {
+    if (null != previous) {
+      try {
+        previous.close();
+      } catch (IOException e) {
+        // only read
+      }
+      previous = null;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.metratec.lib.tileup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the index of the tiles of an output directory, written by {@link TileUp#createTiles()
+ * createTiles} if {@link TileUp#setIndexEnabled(boolean) enabled}. The index tells which tiles
+ * exist and their sizes, without listing the zoom directories or checking the tile files.
+ * <p>
+ * The index is memory mapped. Each zoom level has a bitset of its tiles and the number of tiles
+ * before each long of the bitset, so a lookup reads two longs and an int. A reader can be used from
+ * several threads at the same time.
+ */
+public class TileIndexReader implements Closeable {
+
+  /**
+   * The name of the index file in the output directory.
+   */
+  public static final String FILE_NAME = TileIndex.FILE_NAME;
+
+  private final RandomAccessFile file;
+  private final ByteBuffer index;
+  private final int tileWidth;
+  private final int tileHeight;
+  // the entries of the zoom levels by zoom, offset 0 for zooms without entry
+  private final int[] columns = new int[32];
+  private final int[] rows = new int[32];
+  private final int[] counts = new int[32];
+  private final int[] offsets = new int[32];
+
+  /**
+   * Opens an index file, see {@link #FILE_NAME FILE_NAME}.
+   *
+   * @param file the index file
+   * @throws IOException if the file could not be read or is no index file
+   */
+  public TileIndexReader(File file) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    try {
+      this.index = this.file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.file.length());
+      if (index.limit() < TileIndex.HEADER_SIZE || TileIndex.MAGIC != index.getInt(0)) {
+        throw new IOException("Not a tile index: " + file);
+      }
+      int version = index.getInt(4);
+      if (TileIndex.VERSION != version) {
+        throw new IOException("Unsupported tile index version " + version + ": " + file);
+      }
+      this.tileWidth = index.getInt(8);
+      this.tileHeight = index.getInt(12);
+      int levels = index.getInt(16);
+      for (int level = 0; level < levels; level++) {
+        int entry = TileIndex.HEADER_SIZE + level * TileIndex.LEVEL_ENTRY_SIZE;
+        int zoom = index.getInt(entry);
+        if (zoom < 0 || zoom >= offsets.length) {
+          throw new IOException("Invalid zoom " + zoom + " in tile index: " + file);
+        }
+        columns[zoom] = index.getInt(entry + 4);
+        rows[zoom] = index.getInt(entry + 8);
+        counts[zoom] = index.getInt(entry + 12);
+        offsets[zoom] = (int) index.getLong(entry + 16);
+      }
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    } catch (RuntimeException e) {
+      // a truncated file
+      this.file.close();
+      throw new IOException("Invalid tile index: " + file, e);
+    }
+  }
+
+  /**
+   * Gets the width of the tiles.
+   *
+   * @return the tile width
+   */
+  public int getTileWidth() {
+    return tileWidth;
+  }
+
+  /**
+   * Gets the height of the tiles.
+   *
+   * @return the tile height
+   */
+  public int getTileHeight() {
+    return tileHeight;
+  }
+
+  /**
+   * Gets the number of tile columns of a zoom level.
+   *
+   * @param zoom the zoom level, 20 for the original image size
+   * @return the number of columns, 0 if the zoom level is not in the index
+   */
+  public int getColumns(int zoom) {
+    return isIndexed(zoom) ? columns[zoom] : 0;
+  }
+
+  /**
+   * Gets the number of tile rows of a zoom level.
+   *
+   * @param zoom the zoom level, 20 for the original image size
+   * @return the number of rows, 0 if the zoom level is not in the index
+   */
+  public int getRows(int zoom) {
+    return isIndexed(zoom) ? rows[zoom] : 0;
+  }
+
+  /**
+   * Gets the number of existing tiles of a zoom level.
+   *
+   * @param zoom the zoom level, 20 for the original image size
+   * @return the number of tiles
+   */
+  public int getTileCount(int zoom) {
+    return isIndexed(zoom) ? counts[zoom] : 0;
+  }
+
+  /**
+   * Checks whether a tile exists. Tiles skipped as empty or outside the tile range of the run do
+   * not exist.
+   *
+   * @param zoom the zoom level, 20 for the original image size
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @return whether the tile exists
+   */
+  public boolean exists(int zoom, int x, int y) {
+    long cell = cell(zoom, x, y);
+    return cell >= 0 && 0 != (word(zoom, cell) & 1L << cell);
+  }
+
+  /**
+   * Gets the size of a tile file.
+   *
+   * @param zoom the zoom level, 20 for the original image size
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @return the size in bytes, 0 if it is not known, or -1 if the tile does not exist
+   */
+  public int size(int zoom, int x, int y) {
+    long cell = cell(zoom, x, y);
+    if (cell < 0) {
+      return -1;
+    }
+    long word = word(zoom, cell);
+    if (0 == (word & 1L << cell)) {
+      return -1;
+    }
+    int words = (int) (((long) columns[zoom] * rows[zoom] + 63) / 64);
+    int w = (int) (cell >>> 6);
+    int rank = index.getInt(offsets[zoom] + 8 * words + 4 * w) + Long.bitCount(word & (1L << cell) - 1);
+    return index.getInt(offsets[zoom] + 12 * words + 4 * rank);
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  private boolean isIndexed(int zoom) {
+    return zoom >= 0 && zoom < offsets.length && 0 != offsets[zoom];
+  }
+
+  // the index of a tile in the bitset of its zoom level, or -1 if it is not within the level
+  private long cell(int zoom, int x, int y) {
+    if (!isIndexed(zoom) || x < 0 || y < 0 || x >= columns[zoom] || y >= rows[zoom]) {
+      return -1;
+    }
+    return (long) y * columns[zoom] + x;
+  }
+
+  private long word(int zoom, long cell) {
+    return index.getLong(offsets[zoom] + 8 * (int) (cell >>> 6));
+  }
+}
@@ -0,0 +1,196 @@
+package com.metratec.lib.tileup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Records a content hash of every saved tile in the file {@value #FILE_NAME} of the output
+ * directory, so a later run only has to save the tiles whose content changed.
+ * <p>
+ * The file starts with a header containing the tile settings, followed by one record of 16 bytes
+ * per tile: the tile position packed by {@link LongLongMap#tileKey(int, int, int) tileKey} and the
+ * {@link XXHash64 xxHash64} of the tile pixels. Records are appended as soon as their tile file is
+ * saved, so after a crash the next run skips all tiles that were already completed. If a tile was
+ * recorded more than once, the last record wins. {@link #commit(TileRange) commit} rewrites the file
+ * with one record per tile of the current run, and keeps the records of tiles outside the tile range
+ * of the run, e.g. of the other shards saved into the same directory.
+ */
+final class TileManifest implements Closeable {
+
+  /**
+   * The name of the manifest file in the output directory.
+   */
+  static final String FILE_NAME = "tileup.manifest";
+
+  private static final int MAGIC = 0x54554d31;
+  // the number of records after which the appended records are flushed to the file
+  private static final int FLUSH_INTERVAL = 256;
+
+  private final File file;
+  private final String settings;
+  private final LongLongMap previous;
+  private final LongLongMap current = new LongLongMap();
+  private DataOutputStream out;
+  private int unflushed;
+
+  /**
+   * Loads the manifest of an output directory and opens it for appending records. Records of a
+   * manifest written with other settings are ignored.
+   *
+   * @param dir the output directory
+   * @param settings the settings that influence the tile files, e.g. the tile size and format
+   * @throws IOException if the manifest could not be read or written
+   */
+  TileManifest(File dir, String settings) throws IOException {
+    this.file = new File(dir, FILE_NAME);
+    this.settings = settings;
+    this.previous = load(file, settings);
+    if (null == previous) {
+      out = create(file, settings);
+    } else {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+  }
+
+  /**
+   * Checks whether a tile was saved with the same content before.
+   *
+   * @param z the zoom level index
+   * @param i the column of the tile
+   * @param j the row of the tile
+   * @param hash the hash of the tile pixels
+   * @return true if the manifest contains the tile with the same hash
+   */
+  boolean isUnchanged(int z, int i, int j, long hash) {
+    long key = LongLongMap.tileKey(z, i, j);
+    return null != previous && previous.containsKey(key) && hash == previous.get(key, 0);
+  }
+
+  /**
+   * Records a saved tile.
+   *
+   * @param z the zoom level index
+   * @param i the column of the tile
+   * @param j the row of the tile
+   * @param hash the hash of the tile pixels
+   * @throws IOException if the record could not be written
+   */
+  synchronized void put(int z, int i, int j, long hash) throws IOException {
+    long key = LongLongMap.tileKey(z, i, j);
+    current.put(key, hash);
+    out.writeLong(key);
+    out.writeLong(hash);
+    if (++unflushed >= FLUSH_INTERVAL) {
+      out.flush();
+      unflushed = 0;
+    }
+  }
+
+  /**
+   * Rewrites the manifest with the tiles recorded by this run and the previous records outside the
+   * tile range of the run, dropping tiles in the range that no longer exist and duplicate records.
+   * No records can be added afterwards.
+   *
+   * @param range the tiles of this run, or null if the run covered all tiles
+   * @throws IOException if the manifest could not be written
+   */
+  synchronized void commit(TileRange range) throws IOException {
+    out.close();
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream compact = create(tmp, settings);
+    try {
+      for (int slot = 0; slot < current.capacity(); slot++) {
+        long key = current.keyAt(slot);
+        if (LongLongMap.EMPTY != key) {
+          compact.writeLong(key);
+          compact.writeLong(current.valueAt(slot));
+        }
+      }
+      for (int slot = 0; null != range && null != previous && slot < previous.capacity(); slot++) {
+        long key = previous.keyAt(slot);
+        if (LongLongMap.EMPTY != key && !current.containsKey(key) && !contains(range, key)) {
+          compact.writeLong(key);
+          compact.writeLong(previous.valueAt(slot));
+        }
+      }
+    } finally {
+      compact.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    // keeps the records appended so far, a later run resumes from them
+    out.close();
+  }
+
+  // unpacks a key of LongLongMap.tileKey
+  private static boolean contains(TileRange range, long key) {
+    return range.contains((int) (key >>> 56), (int) (key >>> 28 & 0xfffffff), (int) (key & 0xfffffff));
+  }
+
+  // returns null if there is no manifest or it was written with other settings
+  private static LongLongMap load(File file, String settings) throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    byte[] expected = header(settings);
+    byte[] header = new byte[expected.length];
+    LongLongMap records = new LongLongMap();
+    long valid = expected.length;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      in.readFully(header);
+      if (!Arrays.equals(expected, header)) {
+        return null;
+      }
+      while (true) {
+        long key = in.readLong();
+        records.put(key, in.readLong());
+        valid += 16;
+      }
+    } catch (EOFException e) {
+      if (!Arrays.equals(expected, header)) {
+        return null;
+      }
+    } finally {
+      in.close();
+    }
+    // drops a record cut off by a crash, so appended records stay aligned
+    FileOutputStream truncate = new FileOutputStream(file, true);
+    try {
+      truncate.getChannel().truncate(valid);
+    } finally {
+      truncate.close();
+    }
+    return records;
+  }
+
+  private static DataOutputStream create(File file, String settings) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    out.write(header(settings));
+    return out;
+  }
+
+  private static byte[] header(String settings) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeUTF(settings);
+    out.close();
+    return bytes.toByteArray();
+  }
+}
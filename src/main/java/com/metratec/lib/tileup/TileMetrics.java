@@ -0,0 +1,223 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the timers and counters of one run, see {@link TileStats TileStats}. All methods are
+ * thread safe. The phases on the thread of the run are timed by their callers with
+ * {@link System#nanoTime() System.nanoTime()}, which costs a few nanoseconds per call and is
+ * therefore only done per row or tile.
+ * <p>
+ * Registered as {@link TileStatsMXBean TileStatsMXBean}, the attributes show the live values.
+ */
+final class TileMetrics implements TileStatsMXBean {
+
+  private final long start = System.nanoTime();
+  private volatile long end;
+  private final AtomicLong decodeNanos = new AtomicLong();
+  private final AtomicLong rescaleNanos = new AtomicLong();
+  private final AtomicLong rasterCopyNanos = new AtomicLong();
+  private final AtomicLong extractNanos = new AtomicLong();
+  private final AtomicLong extractWaitNanos = new AtomicLong();
+  private final AtomicLong encodeNanos = new AtomicLong();
+  private final AtomicLong writeNanos = new AtomicLong();
+  private final AtomicLong extracted = new AtomicLong();
+  private final AtomicLong encoded = new AtomicLong();
+  private final AtomicLong saved = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final AtomicLong bufferBytes = new AtomicLong();
+  private final AtomicLong peakBufferBytes = new AtomicLong();
+  private final AtomicLongArray levelTiles;
+  private final AtomicLongArray levelBytes;
+  private final AtomicLongArray levelRescaleNanos;
+  private final AtomicLongArray levelEncodeNanos;
+  private final AtomicLongArray levelWriteNanos;
+
+  /**
+   * @param zoomLevels the number of zoom levels of the breakdown
+   */
+  TileMetrics(int zoomLevels) {
+    int levels = Math.max(1, zoomLevels);
+    this.levelTiles = new AtomicLongArray(levels);
+    this.levelBytes = new AtomicLongArray(levels);
+    this.levelRescaleNanos = new AtomicLongArray(levels);
+    this.levelEncodeNanos = new AtomicLongArray(levels);
+    this.levelWriteNanos = new AtomicLongArray(levels);
+  }
+
+  /**
+   * Ends the elapsed time, the first call counts.
+   */
+  void finish() {
+    if (0 == end) {
+      end = System.nanoTime();
+    }
+  }
+
+  void decoded(long nanos) {
+    decodeNanos.addAndGet(nanos);
+  }
+
+  /**
+   * @param z the zoom level the time was spent on creating
+   * @param nanos the time
+   */
+  void rescaled(int z, long nanos) {
+    rescaleNanos.addAndGet(nanos);
+    levelRescaleNanos.addAndGet(z, nanos);
+  }
+
+  void copied(long nanos) {
+    rasterCopyNanos.addAndGet(nanos);
+  }
+
+  /**
+   * @param waitNanos the time waiting for the tile buffer
+   * @param copyNanos the time copying the tile into it
+   */
+  void extracted(long waitNanos, long copyNanos) {
+    extracted.incrementAndGet();
+    extractWaitNanos.addAndGet(waitNanos);
+    extractNanos.addAndGet(copyNanos);
+  }
+
+  void encoded(int z, long nanos) {
+    encoded.incrementAndGet();
+    encodeNanos.addAndGet(nanos);
+    levelEncodeNanos.addAndGet(z, nanos);
+  }
+
+  void saved(int z, long bytes, long nanos) {
+    saved.incrementAndGet();
+    bytesWritten.addAndGet(bytes);
+    writeNanos.addAndGet(nanos);
+    levelTiles.incrementAndGet(z);
+    levelBytes.addAndGet(z, bytes);
+    levelWriteNanos.addAndGet(z, nanos);
+  }
+
+  /**
+   * Counts buffers that were allocated or taken into use.
+   *
+   * @param bytes the size of the buffers
+   */
+  void allocated(long bytes) {
+    long current = bufferBytes.addAndGet(bytes);
+    long peak = peakBufferBytes.get();
+    while (current > peak && !peakBufferBytes.compareAndSet(peak, current)) {
+      peak = peakBufferBytes.get();
+    }
+  }
+
+  /**
+   * Counts buffers that are no longer used.
+   *
+   * @param bytes the size of the buffers
+   */
+  void released(long bytes) {
+    bufferBytes.addAndGet(-bytes);
+  }
+
+  /**
+   * Gets the size of the pixel data of an image.
+   *
+   * @param image the image
+   * @return the number of bytes
+   */
+  static long bytes(BufferedImage image) {
+    DataBuffer data = image.getRaster().getDataBuffer();
+    return (long) data.getSize() * data.getNumBanks() * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+  }
+
+  long getExtractedTiles() {
+    return extracted.get();
+  }
+
+  long getEncodedTiles() {
+    return encoded.get();
+  }
+
+  @Override
+  public long getElapsedNanos() {
+    return (0 == end ? System.nanoTime() : end) - start;
+  }
+
+  @Override
+  public long getDecodeNanos() {
+    return decodeNanos.get();
+  }
+
+  @Override
+  public long getRescaleNanos() {
+    return rescaleNanos.get();
+  }
+
+  @Override
+  public long getRasterCopyNanos() {
+    return rasterCopyNanos.get();
+  }
+
+  @Override
+  public long getExtractNanos() {
+    return extractNanos.get();
+  }
+
+  @Override
+  public long getExtractWaitNanos() {
+    return extractWaitNanos.get();
+  }
+
+  @Override
+  public long getEncodeNanos() {
+    return encodeNanos.get();
+  }
+
+  @Override
+  public long getWriteNanos() {
+    return writeNanos.get();
+  }
+
+  @Override
+  public long getSavedTiles() {
+    return saved.get();
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  @Override
+  public double getTilesPerSecond() {
+    long elapsed = getElapsedNanos();
+    return 0 == elapsed ? 0 : saved.get() * 1e9 / elapsed;
+  }
+
+  @Override
+  public long getPeakBufferBytes() {
+    return peakBufferBytes.get();
+  }
+
+  /**
+   * Takes a snapshot of the current values.
+   *
+   * @return the statistics
+   */
+  TileStats snapshot() {
+    return new TileStats(getElapsedNanos(), decodeNanos.get(), rescaleNanos.get(), rasterCopyNanos.get(),
+        extractNanos.get(), extractWaitNanos.get(), encodeNanos.get(), writeNanos.get(), extracted.get(),
+        encoded.get(), saved.get(), bytesWritten.get(), peakBufferBytes.get(), toArray(levelTiles),
+        toArray(levelBytes), toArray(levelRescaleNanos), toArray(levelEncodeNanos), toArray(levelWriteNanos));
+  }
+
+  private static long[] toArray(AtomicLongArray values) {
+    long[] array = new long[values.length()];
+    for (int k = 0; k < array.length; k++) {
+      array[k] = values.get(k);
+    }
+    return array;
+  }
+}
@@ -0,0 +1,118 @@
+package com.metratec.lib.tileup;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the tiles of a pack file written by {@link PackTileSink PackTileSink}.
+ * <p>
+ * The index is memory mapped and searched binary, tiles are read with positional reads. A reader
+ * can therefore be used from several threads at the same time.
+ */
+public class TilePackReader implements Closeable {
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final String extension;
+  private final ByteBuffer index;
+  private final int count;
+
+  /**
+   * Opens a pack file.
+   *
+   * @param file the pack file
+   * @throws IOException if the file could not be read, is no pack file or is incomplete
+   */
+  public TilePackReader(File file) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    try {
+      if (PackTileSink.MAGIC != this.file.readInt()) {
+        throw new IOException("Not a tile pack: " + file);
+      }
+      int version = this.file.readInt();
+      if (PackTileSink.VERSION != version) {
+        throw new IOException("Unsupported tile pack version " + version + ": " + file);
+      }
+      long indexOffset = this.file.readLong();
+      if (0 == indexOffset) {
+        throw new IOException("Incomplete tile pack: " + file);
+      }
+      this.extension = this.file.readUTF();
+      this.file.seek(indexOffset);
+      this.count = this.file.readInt();
+      this.channel = this.file.getChannel();
+      this.index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset + 4,
+          (long) count * PackTileSink.INDEX_ENTRY_SIZE);
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Gets the file extension of the tiles, without the leading dot.
+   *
+   * @return the file extension, e.g. <code>png</code>
+   */
+  public String getFileExtension() {
+    return extension;
+  }
+
+  /**
+   * Gets the number of tiles in the pack.
+   *
+   * @return the number of tiles
+   */
+  public int getTileCount() {
+    return count;
+  }
+
+  /**
+   * Reads an encoded tile.
+   *
+   * @param zoom the zoom level, 20 for the original image size
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @return the encoded tile, or null if the pack does not contain the tile
+   * @throws IOException if the tile could not be read
+   */
+  public byte[] getTile(int zoom, int x, int y) throws IOException {
+    long key = LongLongMap.tileKey(zoom, x, y);
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int entry = mid * PackTileSink.INDEX_ENTRY_SIZE;
+      long midKey = index.getLong(entry);
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return read(index.getLong(entry + 8), index.getInt(entry + 16));
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  private byte[] read(long offset, int length) throws IOException {
+    byte[] data = new byte[length];
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+    return data;
+  }
+}
@@ -0,0 +1,200 @@
+package com.metratec.lib.tileup;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The grid of tiles of a run: the size of each zoom level, its tile columns and rows and the tiles
+ * to create, computed with integers only. The counts are exact, so the progress reaches the total
+ * when the last tile is saved.
+ * <p>
+ * The tiles of a level are listed in Z-order: the four tiles of each block of 2 × 2 tiles follow
+ * each other, and so do the four blocks of each block of 4 × 4 tiles, and so on. Tiles that are
+ * close in the list are close in the image, so consecutive tiles read nearby pixels of the level
+ * and each block of 2 × 2 tiles covers one tile of the next lower level.
+ */
+final class TilePlan {
+
+  private final int tileWidth;
+  private final int tileHeight;
+  private final int[] levelWidths;
+  private final int[] levelHeights;
+  private final int[] columns;
+  private final int[] rows;
+  private final TileRange range;
+  private final long[] levelTiles;
+  private final long total;
+
+  /**
+   * @param imageWidth the width of the image
+   * @param imageHeight the height of the image
+   * @param tileWidth the tile width
+   * @param tileHeight the tile height
+   * @param zoomLevels the number of zoom levels
+   * @param range the tiles to create, or null for all tiles
+   */
+  TilePlan(int imageWidth, int imageHeight, int tileWidth, int tileHeight, int zoomLevels, TileRange range) {
+    this.tileWidth = tileWidth;
+    this.tileHeight = tileHeight;
+    this.range = range;
+    int levels = Math.max(0, zoomLevels);
+    this.levelWidths = new int[levels];
+    this.levelHeights = new int[levels];
+    this.columns = new int[levels];
+    this.rows = new int[levels];
+    this.levelTiles = new long[levels];
+    long sum = 0;
+    for (int z = 0; z < levels; z++) {
+      levelWidths[z] = levelSize(imageWidth, z);
+      levelHeights[z] = levelSize(imageHeight, z);
+      columns[z] = (int) ((levelWidths[z] + (long) tileWidth - 1) / tileWidth);
+      rows[z] = (int) ((levelHeights[z] + (long) tileHeight - 1) / tileHeight);
+      levelTiles[z] = null == range ? (long) columns[z] * rows[z] : range.countTiles(z, columns[z], rows[z]);
+      sum += levelTiles[z];
+    }
+    this.total = sum;
+  }
+
+  /**
+   * Gets the size of an image side at a zoom level, each level halves the previous one and rounds
+   * up.
+   *
+   * @param size the size at the original image size
+   * @param z the zoom level, 0 is the original image size
+   * @return the size at the zoom level
+   */
+  static int levelSize(int size, int z) {
+    return 0 == size ? 0 : (int) ((size - 1L >> z) + 1);
+  }
+
+  int getZoomLevels() {
+    return levelWidths.length;
+  }
+
+  int getLevelWidth(int z) {
+    return levelWidths[z];
+  }
+
+  int getLevelHeight(int z) {
+    return levelHeights[z];
+  }
+
+  int getColumns(int z) {
+    return columns[z];
+  }
+
+  int getRows(int z) {
+    return rows[z];
+  }
+
+  /**
+   * @return the number of tiles to create at all levels
+   */
+  long getTotal() {
+    return total;
+  }
+
+  /**
+   * Lists the tiles to create at a zoom level in Z-order. The list is computed on each call and
+   * keeps 8 bytes per tile, the entries are created when they are read.
+   *
+   * @param z the zoom level
+   * @return the immutable list of tiles
+   */
+  List<Tile> getTiles(int z) {
+    int firstColumn = 0;
+    int firstRow = 0;
+    int lastColumn = columns[z] - 1;
+    int lastRow = rows[z] - 1;
+    if (null != range) {
+      if (0 == levelTiles[z]) {
+        return new TileList(z, new long[0]);
+      }
+      int shift = range.getLastLevel() - z;
+      firstColumn = range.getFirstColumn() << shift;
+      firstRow = range.getFirstRow() << shift;
+      lastColumn = (int) Math.min(lastColumn, ((range.getLastColumn() + 1L) << shift) - 1);
+      lastRow = (int) Math.min(lastRow, ((range.getLastRow() + 1L) << shift) - 1);
+    }
+    long size = 1;
+    while (size <= Math.max(lastColumn, lastRow)) {
+      size *= 2;
+    }
+    long[] tiles = new long[(int) levelTiles[z]];
+    int count = addZOrder(tiles, 0, 0, 0, size, firstColumn, firstRow, lastColumn, lastRow);
+    return new TileList(z, count == tiles.length ? tiles : Arrays.copyOf(tiles, count));
+  }
+
+  // adds the tiles of a square block of size × size tiles that are within the bounds, in Z-order
+  private static int addZOrder(long[] tiles, int count, long i, long j, long size, int firstColumn, int firstRow,
+      int lastColumn, int lastRow) {
+    if (i > lastColumn || j > lastRow || i + size <= firstColumn || j + size <= firstRow) {
+      return count;
+    }
+    if (1 == size) {
+      tiles[count] = i << 32 | j;
+      return count + 1;
+    }
+    long half = size / 2;
+    count = addZOrder(tiles, count, i, j, half, firstColumn, firstRow, lastColumn, lastRow);
+    count = addZOrder(tiles, count, i + half, j, half, firstColumn, firstRow, lastColumn, lastRow);
+    count = addZOrder(tiles, count, i, j + half, half, firstColumn, firstRow, lastColumn, lastRow);
+    return addZOrder(tiles, count, i + half, j + half, half, firstColumn, firstRow, lastColumn, lastRow);
+  }
+
+  /**
+   * A tile of the plan and its pixels in its zoom level.
+   */
+  static final class Tile {
+
+    /** the zoom level index, 0 is the original image size */
+    final int z;
+    final int column;
+    final int row;
+    /** the left edge in the zoom level */
+    final int x;
+    /** the top edge in the zoom level */
+    final int y;
+    /** the width of the tile content, at most the tile width */
+    final int width;
+    /** the height of the tile content, at most the tile height */
+    final int height;
+
+    Tile(int z, int column, int row, int x, int y, int width, int height) {
+      this.z = z;
+      this.column = column;
+      this.row = row;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  private final class TileList extends AbstractList<Tile> {
+
+    private final int z;
+    private final long[] tiles;
+
+    TileList(int z, long[] tiles) {
+      this.z = z;
+      this.tiles = tiles;
+    }
+
+    @Override
+    public Tile get(int index) {
+      int i = (int) (tiles[index] >>> 32);
+      int j = (int) tiles[index];
+      int x = i * tileWidth;
+      int y = j * tileHeight;
+      return new Tile(z, i, j, x, y, Math.min(tileWidth, levelWidths[z] - x),
+          Math.min(tileHeight, levelHeights[z] - y));
+    }
+
+    @Override
+    public int size() {
+      return tiles.length;
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread pools and tile buffers shared by several runs of {@link TileUp TileUp}, e.g. the images
+ * of a {@link TileBatch TileBatch}. Runs using the same pools, also at the same time, do not start
+ * threads or allocate tile buffers of their own, see
+ * {@link TileUp#setTilePools(TilePools) TileUp.setTilePools(TilePools)}.
+ */
+public final class TilePools implements Closeable {
+
+  private final int threads;
+  private final int ioThreads;
+  private final ExecutorService encodePool;
+  private final ExecutorService ioPool;
+  private final Queue<BufferedImage> tileBuffers = new ConcurrentLinkedQueue<BufferedImage>();
+  private final Queue<TileWriter.EncodedTile> encodedBuffers = new ConcurrentLinkedQueue<TileWriter.EncodedTile>();
+  /** the encoders of the running runs and the number of runs using each */
+  private final Map<TileEncoder, Integer> encoders = new HashMap<TileEncoder, Integer>();
+
+  /**
+   * Creates the pools.
+   *
+   * @param threads the number of threads encoding tiles, see {@link TileUp#setThreads(int)
+   *        TileUp.setThreads(int)}
+   * @param ioThreads the number of threads saving tiles, see {@link TileUp#setIoThreads(int)
+   *        TileUp.setIoThreads(int)}
+   */
+  public TilePools(int threads, int ioThreads) {
+    this.threads = Math.max(1, threads);
+    this.ioThreads = Math.max(0, ioThreads);
+    this.encodePool = this.threads > 1 ? Executors.newFixedThreadPool(this.threads) : null;
+    this.ioPool = this.ioThreads > 0 ? Executors.newFixedThreadPool(this.ioThreads) : null;
+  }
+
+  /**
+   * Gets the number of threads encoding tiles.
+   *
+   * @return the number of encoding threads
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Gets the number of threads saving tiles.
+   *
+   * @return the number of I/O threads
+   */
+  public int getIoThreads() {
+    return ioThreads;
+  }
+
+  /**
+   * Stops the threads and releases the native memory of the encoders of the runs still using the
+   * pools. These runs fail.
+   */
+  @Override
+  public void close() {
+    if (null != encodePool) {
+      encodePool.shutdownNow();
+    }
+    if (null != ioPool) {
+      ioPool.shutdownNow();
+    }
+    tileBuffers.clear();
+    encodedBuffers.clear();
+    List<TileEncoder> running;
+    synchronized (encoders) {
+      running = new ArrayList<TileEncoder>(encoders.keySet());
+      encoders.clear();
+    }
+    for (TileEncoder encoder : running) {
+      encoder.close();
+    }
+  }
+
+  /**
+   * Registers the encoder of a run that starts using the pools.
+   *
+   * @param encoder the encoder
+   */
+  void register(TileEncoder encoder) {
+    synchronized (encoders) {
+      Integer runs = encoders.get(encoder);
+      encoders.put(encoder, null == runs ? 1 : runs + 1);
+    }
+  }
+
+  /**
+   * Unregisters the encoder of a run whose tasks on the pools are done. The encoder is closed
+   * unless another running run uses it, so the threads of the pools do not keep its native memory
+   * for the rest of a batch.
+   *
+   * @param encoder the encoder
+   */
+  void unregister(TileEncoder encoder) {
+    synchronized (encoders) {
+      Integer runs = encoders.get(encoder);
+      if (null == runs) {
+        // the pools were closed
+        return;
+      }
+      if (runs > 1) {
+        encoders.put(encoder, runs - 1);
+        return;
+      }
+      encoders.remove(encoder);
+    }
+    encoder.close();
+  }
+
+  /**
+   * @return the number of registered encoders
+   */
+  int getEncoderCount() {
+    synchronized (encoders) {
+      return encoders.size();
+    }
+  }
+
+  /**
+   * @return the pool encoding tiles, or null if they are encoded by the calling thread
+   */
+  ExecutorService getEncodePool() {
+    return encodePool;
+  }
+
+  /**
+   * @return the pool saving tiles, or null if they are saved by the encoding threads
+   */
+  ExecutorService getIoPool() {
+    return ioPool;
+  }
+
+  /**
+   * Takes an idle tile buffer of a size, or creates one.
+   *
+   * @param width the tile width
+   * @param height the tile height
+   * @return a {@link BufferedImage#TYPE_INT_ARGB TYPE_INT_ARGB} tile buffer
+   */
+  BufferedImage takeTileBuffer(int width, int height) {
+    Iterator<BufferedImage> idle = tileBuffers.iterator();
+    while (idle.hasNext()) {
+      BufferedImage buffer = idle.next();
+      if (buffer.getWidth() == width && buffer.getHeight() == height && tileBuffers.remove(buffer)) {
+        return buffer;
+      }
+    }
+    return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+  }
+
+  /**
+   * Returns a tile buffer that is no longer used.
+   *
+   * @param buffer the buffer
+   */
+  void releaseTileBuffer(BufferedImage buffer) {
+    tileBuffers.add(buffer);
+  }
+
+  /**
+   * Takes an idle buffer for encoded tiles, or creates one.
+   *
+   * @return the buffer
+   */
+  TileWriter.EncodedTile takeEncodedBuffer() {
+    TileWriter.EncodedTile buffer = encodedBuffers.poll();
+    return null != buffer ? buffer : new TileWriter.EncodedTile();
+  }
+
+  /**
+   * Returns a buffer for encoded tiles that is no longer used.
+   *
+   * @param buffer the buffer
+   */
+  void releaseEncodedBuffer(TileWriter.EncodedTile buffer) {
+    encodedBuffers.add(buffer);
+  }
+}
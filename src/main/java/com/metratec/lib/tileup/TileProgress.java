@@ -0,0 +1,99 @@
+package com.metratec.lib.tileup;
+
+/**
+ * A snapshot of the progress of a run of {@link TileUp#createTiles() createTiles}: the tiles done
+ * so far, i.e. saved or skipped, their rate and the estimated time until all tiles are done.
+ * <p>
+ * The counts are kept in counters the threads creating the tiles update without locking, so taking
+ * a snapshot does not slow down the run. See also {@link TileUp#getProgress() TileUp.getProgress()}
+ * and {@link TileUp#setProgressInterval(long) TileUp.setProgressInterval(long)}.
+ */
+public final class TileProgress {
+
+  private final long createdTiles;
+  private final long skippedTiles;
+  private final long totalTiles;
+  private final long elapsedNanos;
+
+  TileProgress(long createdTiles, long skippedTiles, long totalTiles, long elapsedNanos) {
+    this.createdTiles = createdTiles;
+    this.skippedTiles = skippedTiles;
+    this.totalTiles = totalTiles;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * Gets the number of saved tiles.
+   *
+   * @return the number of saved tiles
+   */
+  public long getCreatedTiles() {
+    return createdTiles;
+  }
+
+  /**
+   * Gets the number of skipped tiles, see {@link TileResult#getSkippedTiles()
+   * TileResult.getSkippedTiles()}.
+   *
+   * @return the number of skipped tiles
+   */
+  public long getSkippedTiles() {
+    return skippedTiles;
+  }
+
+  /**
+   * Gets the number of saved and skipped tiles.
+   *
+   * @return the number of tiles done
+   */
+  public long getDoneTiles() {
+    return createdTiles + skippedTiles;
+  }
+
+  /**
+   * Gets the number of tiles of the run.
+   *
+   * @return the total number of tiles
+   */
+  public long getTotalTiles() {
+    return totalTiles;
+  }
+
+  /**
+   * Gets the time since the run started, or the duration of a finished run.
+   *
+   * @return the elapsed time in nanoseconds
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * Gets the number of tiles done per second since the run started.
+   *
+   * @return the tile rate
+   */
+  public double getTilesPerSecond() {
+    return 0 == elapsedNanos ? 0 : getDoneTiles() * 1e9 / elapsedNanos;
+  }
+
+  /**
+   * Estimates the time until all tiles are done from the tile rate so far.
+   *
+   * @return the remaining time in nanoseconds, or -1 if no tile is done yet
+   */
+  public long getRemainingNanos() {
+    long done = getDoneTiles();
+    if (0 == done) {
+      return -1;
+    }
+    return (long) ((double) Math.max(0, totalTiles - done) * elapsedNanos / done);
+  }
+
+  @Override
+  public String toString() {
+    long remaining = getRemainingNanos();
+    return String.format("%d/%d tiles (%.1f tiles/s, ETA %s)", getDoneTiles(), totalTiles, getTilesPerSecond(),
+        remaining < 0 ? "unknown" : String.format("%.1f s", remaining / 1e9));
+  }
+}
@@ -0,0 +1,206 @@
+package com.metratec.lib.tileup;
+
+/**
+ * A part of the tiles of an image, used to split one job into shards that run independently, e.g.
+ * in several processes or on several machines, and write into separate output directories.
+ * Combining the output directories of shards that do not overlap gives the same tiles as a single
+ * run.
+ * <p>
+ * A range covers the zoom levels <code>firstLevel</code> to <code>lastLevel</code>, where level 0 is
+ * the original image size (saved as zoom 20) and each further level halves it. At the last level it
+ * covers the tiles from column <code>firstColumn</code> to <code>lastColumn</code> and from row
+ * <code>firstRow</code> to <code>lastRow</code>, at each lower level all tiles within the same area
+ * of the image. Only the part of the image these tiles need is read, see
+ * {@link TileUp#setTileRange(TileRange) TileUp.setTileRange(TileRange)}.
+ */
+public final class TileRange {
+
+  private final int firstLevel;
+  private final int lastLevel;
+  private final int firstColumn;
+  private final int firstRow;
+  private final int lastColumn;
+  private final int lastRow;
+
+  /**
+   * Creates a tile range. If the last column or row is lower than the first one, the range is
+   * empty.
+   *
+   * @param firstLevel the first zoom level, 0 is the original image size
+   * @param lastLevel the last zoom level
+   * @param firstColumn the first tile column at the last zoom level
+   * @param firstRow the first tile row at the last zoom level
+   * @param lastColumn the last tile column at the last zoom level
+   * @param lastRow the last tile row at the last zoom level
+   * @throws IllegalArgumentException if a value is negative or the last level is lower than the
+   *         first one
+   */
+  public TileRange(int firstLevel, int lastLevel, int firstColumn, int firstRow, int lastColumn, int lastRow) {
+    if (firstLevel < 0 || lastLevel < firstLevel || firstColumn < 0 || firstRow < 0 || lastColumn < -1
+        || lastRow < -1) {
+      throw new IllegalArgumentException("Invalid tile range: levels " + firstLevel + "-" + lastLevel + ", tiles "
+          + firstColumn + "," + firstRow + "-" + lastColumn + "," + lastRow);
+    }
+    this.firstLevel = firstLevel;
+    this.lastLevel = lastLevel;
+    this.firstColumn = firstColumn;
+    this.firstRow = firstRow;
+    this.lastColumn = lastColumn;
+    this.lastRow = lastRow;
+  }
+
+  /**
+   * Splits all tiles of an image into shards and returns one of them. The split only depends on
+   * the arguments, so all shards of a job can be computed independently.
+   * <p>
+   * The image is cut into horizontal bands of whole tile rows of the lowest zoom level that still
+   * has at least <code>count</code> rows, and each shard creates the tiles of one band at this and
+   * all higher levels. If the lower levels have fewer rows, the image is cut into
+   * <code>count</code> - 1 bands and the last shard creates all tiles of the lower levels instead.
+   * This shard reads the whole image, but creates few tiles.
+   *
+   * @param index the index of the shard, from 0 to <code>count</code> - 1
+   * @param count the number of shards
+   * @param imageWidth the width of the image
+   * @param imageHeight the height of the image
+   * @param tileWidth the tile width
+   * @param tileHeight the tile height
+   * @param zoomLevels the number of zoom levels
+   * @return the tile range of the shard, which may be empty
+   * @throws IllegalArgumentException if the index is not within 0 and <code>count</code> - 1
+   */
+  public static TileRange shard(int index, int count, int imageWidth, int imageHeight, int tileWidth, int tileHeight,
+      int zoomLevels) {
+    if (count < 1 || index < 0 || index >= count) {
+      throw new IllegalArgumentException("Invalid shard " + index + " of " + count);
+    }
+    int last = Math.max(0, zoomLevels - 1);
+    int split = 0;
+    for (int z = last; z > 0; z--) {
+      if (tiles(imageHeight, tileHeight, z) >= count) {
+        split = z;
+        break;
+      }
+    }
+    int bands = count;
+    if (split < last) {
+      if (index == count - 1) {
+        return new TileRange(split + 1, last, 0, 0, tiles(imageWidth, tileWidth, last) - 1,
+            tiles(imageHeight, tileHeight, last) - 1);
+      }
+      bands--;
+    }
+    long rows = tiles(imageHeight, tileHeight, split);
+    return new TileRange(0, split, 0, (int) (index * rows / bands), tiles(imageWidth, tileWidth, split) - 1,
+        (int) ((index + 1) * rows / bands) - 1);
+  }
+
+  /**
+   * Gets the first zoom level.
+   *
+   * @return the first zoom level, 0 is the original image size
+   */
+  public int getFirstLevel() {
+    return firstLevel;
+  }
+
+  /**
+   * Gets the last zoom level.
+   *
+   * @return the last zoom level
+   */
+  public int getLastLevel() {
+    return lastLevel;
+  }
+
+  /**
+   * Gets the first tile column at the last zoom level.
+   *
+   * @return the first column
+   */
+  public int getFirstColumn() {
+    return firstColumn;
+  }
+
+  /**
+   * Gets the first tile row at the last zoom level.
+   *
+   * @return the first row
+   */
+  public int getFirstRow() {
+    return firstRow;
+  }
+
+  /**
+   * Gets the last tile column at the last zoom level.
+   *
+   * @return the last column
+   */
+  public int getLastColumn() {
+    return lastColumn;
+  }
+
+  /**
+   * Gets the last tile row at the last zoom level.
+   *
+   * @return the last row
+   */
+  public int getLastRow() {
+    return lastRow;
+  }
+
+  /**
+   * Returns whether the range contains no tiles.
+   *
+   * @return whether the range is empty
+   */
+  public boolean isEmpty() {
+    return lastColumn < firstColumn || lastRow < firstRow;
+  }
+
+  /**
+   * Returns whether the range contains a tile.
+   *
+   * @param z the zoom level, 0 is the original image size
+   * @param i the column of the tile
+   * @param j the row of the tile
+   * @return whether the tile is in the range
+   */
+  public boolean contains(int z, int i, int j) {
+    if (z < firstLevel || z > lastLevel) {
+      return false;
+    }
+    int shift = lastLevel - z;
+    return i >> shift >= firstColumn && i >> shift <= lastColumn && j >> shift >= firstRow && j >> shift <= lastRow;
+  }
+
+  /**
+   * Counts the tiles of a zoom level in the range.
+   *
+   * @param z the zoom level
+   * @param columns the number of tile columns of the level
+   * @param rows the number of tile rows of the level
+   * @return the number of tiles of the level in the range
+   */
+  int countTiles(int z, int columns, int rows) {
+    if (z < firstLevel || z > lastLevel || isEmpty()) {
+      return 0;
+    }
+    int shift = lastLevel - z;
+    long width = Math.min(columns, (long) (lastColumn + 1) << shift) - ((long) firstColumn << shift);
+    long height = Math.min(rows, (long) (lastRow + 1) << shift) - ((long) firstRow << shift);
+    return width > 0 && height > 0 ? (int) (width * height) : 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("levels %d-%d, tiles %d,%d-%d,%d", firstLevel, lastLevel, firstColumn, firstRow,
+        lastColumn, lastRow);
+  }
+
+  // the number of tiles of a zoom level along one axis
+  private static int tiles(int imageSize, int tileSize, int z) {
+    long size = (long) tileSize << z;
+    return (int) ((imageSize + size - 1) / size);
+  }
+}
@@ -0,0 +1,311 @@
+package com.metratec.lib.tileup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageReader;
+
+/**
+ * Creates single tiles when they are requested instead of all tiles up front, e.g. for images that
+ * are rarely viewed, and keeps the recently used encoded tiles in a cache of a fixed size in bytes.
+ * The tiles are the same as those {@link TileUp#createTiles() createTiles} saves with the same
+ * settings.
+ * <p>
+ * A tile of a high zoom level is rendered from the part of the original image it covers, read with
+ * a source region, and halved down to its zoom level. Low zoom levels would need large parts of the
+ * original image, so they are rendered from an overview instead: the highest zoom level with at
+ * most {@link #OVERVIEW_PIXELS OVERVIEW_PIXELS} pixels, computed once in a single pass over the
+ * original image when a tile of it or a lower level is first requested. Reading a region is fast
+ * for formats with random access like tiled TIFF, PNG and JPEG readers decode all rows above it.
+ * With {@link TileUp#setEmbeddedOverviews(boolean) embedded overviews}, both start from the highest
+ * overview stored in the file instead of the original image. With
+ * {@link TileUp#setSubsampledDecoding(boolean) subsampled decoding}, they start from a JPEG image
+ * decoded at up to 1/8 of its size.
+ * <p>
+ * The renderer reads the settings of the {@link TileUp TileUp} when a tile is rendered, they must
+ * not be changed while the renderer is used. All methods are thread-safe, tiles are rendered by
+ * several threads at the same time. See also {@link TileServer TileServer}.
+ */
+public final class TileRenderer {
+
+  /** The maximum number of pixels of the overview the low zoom levels are rendered from. */
+  public static final long OVERVIEW_PIXELS = 4096L * 4096L;
+
+  // marks a tile that does not exist or is skipped in the cache
+  private static final byte[] NO_TILE = new byte[0];
+
+  private final TileUp tileUp;
+  private final long cacheBytes;
+  private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+  private final int overviewLevel;
+  private long cachedBytes;
+  private long hits;
+  private long misses;
+  private BufferedImage overview;
+
+  /**
+   * Creates a renderer.
+   *
+   * @param tileUp the image and the settings of the tiles
+   * @param cacheBytes the size of the cache of encoded tiles in bytes, 0 to not cache tiles
+   */
+  public TileRenderer(TileUp tileUp, long cacheBytes) {
+    this(tileUp, cacheBytes, OVERVIEW_PIXELS);
+  }
+
+  /**
+   * Creates a renderer with another maximum size of the overview, e.g. to render a small image
+   * from an overview.
+   *
+   * @param tileUp the image and the settings of the tiles
+   * @param cacheBytes the size of the cache of encoded tiles in bytes, 0 to not cache tiles
+   * @param overviewPixels the maximum number of pixels of the overview
+   */
+  TileRenderer(TileUp tileUp, long cacheBytes, long overviewPixels) {
+    this.tileUp = tileUp;
+    this.cacheBytes = Math.max(0, cacheBytes);
+    int level = 0;
+    long width = tileUp.getImageWidth();
+    long height = tileUp.getImageHeight();
+    while (width * height > overviewPixels && level + 1 < tileUp.getZoomLevels()) {
+      width = (width + 1) / 2;
+      height = (height + 1) / 2;
+      level++;
+    }
+    this.overviewLevel = level;
+  }
+
+  /**
+   * Gets a tile, from the cache or by rendering and encoding it.
+   *
+   * @param zoom the zoom of the tile, 20 is the original image size
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @return the encoded tile, which must not be changed, or null if the tile is not within the image
+   *         and its zoom levels or is an empty tile skipped by
+   *         {@link UniformTiles#SKIP_EMPTY UniformTiles.SKIP_EMPTY}
+   * @throws IOException if the image could not be read or the tile could not be encoded
+   */
+  public byte[] getTile(int zoom, int x, int y) throws IOException {
+    int z = 20 - zoom;
+    if (z < 0 || z >= tileUp.getZoomLevels() || !isWithin(x, tileUp.getTileWidth(), z, tileUp.getImageWidth())
+        || !isWithin(y, tileUp.getTileHeight(), z, tileUp.getImageHeight())) {
+      return null;
+    }
+    Long key = (long) z << 56 | (long) x << 28 | y;
+    synchronized (cache) {
+      byte[] tile = cache.get(key);
+      if (null != tile) {
+        hits++;
+        return NO_TILE == tile ? null : tile;
+      }
+      misses++;
+    }
+    byte[] tile = render(z, x, y);
+    put(key, null != tile ? tile : NO_TILE);
+    return tile;
+  }
+
+  /**
+   * Gets the file extension of the encoded tiles.
+   *
+   * @return the file extension of the encoder, e.g. <code>png</code>
+   */
+  public String getFileExtension() {
+    return tileUp.getEncoder().getFileExtension();
+  }
+
+  /**
+   * Releases the native memory of the encoder, see {@link TileEncoder#close() TileEncoder.close()}.
+   */
+  void closeEncoder() {
+    tileUp.getEncoder().close();
+  }
+
+  /**
+   * Gets the number of requested tiles that were in the cache.
+   *
+   * @return the number of cache hits
+   */
+  public long getCacheHits() {
+    synchronized (cache) {
+      return hits;
+    }
+  }
+
+  /**
+   * Gets the number of requested tiles that had to be rendered.
+   *
+   * @return the number of cache misses
+   */
+  public long getCacheMisses() {
+    synchronized (cache) {
+      return misses;
+    }
+  }
+
+  /**
+   * Gets the size of the cached tiles.
+   *
+   * @return the number of bytes in the cache
+   */
+  public long getCachedBytes() {
+    synchronized (cache) {
+      return cachedBytes;
+    }
+  }
+
+  /**
+   * Removes all tiles from the cache. The overview is kept.
+   */
+  public void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+      cachedBytes = 0;
+    }
+  }
+
+  // whether a tile column or row of a zoom level starts within the image
+  private static boolean isWithin(int index, int tileSize, int z, int imageSize) {
+    return index >= 0 && (long) index * tileSize << z < imageSize;
+  }
+
+  // adds a tile to the cache and evicts the least recently used tiles beyond the size of the cache
+  private void put(Long key, byte[] tile) {
+    synchronized (cache) {
+      byte[] previous = cache.put(key, tile);
+      cachedBytes += tile.length - (null != previous ? previous.length : 0);
+      Iterator<Map.Entry<Long, byte[]>> eldest = cache.entrySet().iterator();
+      while (cachedBytes > cacheBytes && eldest.hasNext()) {
+        cachedBytes -= eldest.next().getValue().length;
+        eldest.remove();
+      }
+    }
+  }
+
+  private byte[] render(int z, int x, int y) throws IOException {
+    int tileWidth = tileUp.getTileWidth();
+    int tileHeight = tileUp.getTileHeight();
+    Rectangle region = tileUp.sourceRegion(new TileRange(z, z, x, y, x, y));
+    if (null == region) {
+      return null;
+    }
+    BufferedImage level;
+    int from = storedLevel(z);
+    if (z >= overviewLevel && from <= overviewLevel) {
+      // the region is aligned to whole tiles of level z, so its edges are on whole pixels of the overview
+      Rectangle scaled = ImageSource.scale(region, overviewLevel);
+      level = getOverview().getSubimage(scaled.x, scaled.y, scaled.width, scaled.height);
+      from = overviewLevel;
+    } else {
+      ImageSource source = tileUp.getSource();
+      ImageReader reader = source.openReader();
+      try {
+        level = source.read(reader, from, ImageSource.scale(region, from));
+      } finally {
+        ImageSource.closeReader(reader);
+      }
+    }
+    for (int k = from; k < z; k++) {
+      level = Downsampler.halve(level, tileUp.getDownsampleFilter());
+    }
+    int left = x * tileWidth - (region.x >> z);
+    int top = y * tileHeight - (region.y >> z);
+    int width = Math.min(tileWidth, level.getWidth() - left);
+    int height = Math.min(tileHeight, level.getHeight() - top);
+    BufferedImage buffer = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB);
+    int[] pixels = ((DataBufferInt) buffer.getRaster().getDataBuffer()).getData();
+    Pixels.copyArgb(level, left, top, width, height, pixels, 0, tileWidth);
+    if (UniformTiles.SKIP_EMPTY == tileUp.getUniformTiles()
+        && 0 == Pixels.uniformColor(pixels, tileWidth, width, height)) {
+      return null;
+    }
+    BufferedImage tile = tileUp.isExtended() || (width == tileWidth && height == tileHeight) ? buffer
+        : buffer.getSubimage(0, 0, width, height);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tileUp.getEncoder().encode(tile, out);
+    return out.toByteArray();
+  }
+
+  // the highest zoom level up to z that can be read from the file
+  private int storedLevel(int z) {
+    return tileUp.sourceLevel(z);
+  }
+
+  // the zoom level tiles of low zoom levels are rendered from, computed on first use
+  private synchronized BufferedImage getOverview() throws IOException {
+    if (null == overview) {
+      overview = new OverviewBuilder().build();
+    }
+    return overview;
+  }
+
+  // halves the original image, or the highest stored level above the overview, strip by strip through a
+  // chain of row halvers down to the overview
+  private final class OverviewBuilder {
+
+    private final int first = storedLevel(overviewLevel);
+    private final Rectangle bounds =
+        ImageSource.scale(new Rectangle(tileUp.getImageWidth(), tileUp.getImageHeight()), first);
+    private final RowHalver[] halvers = new RowHalver[overviewLevel - first];
+    private final int[][] rows = new int[halvers.length + 1][];
+    private final int[] pixels;
+    private final int overviewWidth;
+    private int overviewRows;
+
+    OverviewBuilder() {
+      int width = bounds.width;
+      int height = bounds.height;
+      for (int k = 0; k < halvers.length; k++) {
+        halvers[k] = new RowHalver(tileUp.getDownsampleFilter(), width, height);
+        rows[k] = new int[width];
+        width = (width + 1) / 2;
+        height = (height + 1) / 2;
+      }
+      rows[halvers.length] = new int[width];
+      this.overviewWidth = width;
+      this.pixels = new int[width * height];
+    }
+
+    BufferedImage build() throws IOException {
+      int width = bounds.width;
+      int height = bounds.height;
+      ImageSource source = tileUp.getSource();
+      int stripHeight = source.getStripHeight(first, tileUp.getTileHeight());
+      ImageReader reader = source.openReader();
+      try {
+        for (int y = 0; y < height; y += stripHeight) {
+          BufferedImage strip =
+              source.read(reader, first, new Rectangle(0, y, width, Math.min(stripHeight, height - y)));
+          for (int row = 0; row < strip.getHeight(); row++) {
+            Pixels.copyArgb(strip, 0, row, width, 1, rows[0], 0, width);
+            pushRow(0, rows[0]);
+          }
+        }
+      } finally {
+        ImageSource.closeReader(reader);
+      }
+      BufferedImage image = new BufferedImage(overviewWidth, pixels.length / overviewWidth,
+          BufferedImage.TYPE_INT_ARGB);
+      image.getRaster().setDataElements(0, 0, image.getWidth(), image.getHeight(), pixels);
+      return image;
+    }
+
+    private void pushRow(int k, int[] row) {
+      if (k == halvers.length) {
+        System.arraycopy(row, 0, pixels, overviewRows++ * overviewWidth, overviewWidth);
+        return;
+      }
+      halvers[k].push(row, 0);
+      while (halvers[k].poll(rows[k + 1], 0)) {
+        pushRow(k + 1, rows[k + 1]);
+      }
+    }
+  }
+}
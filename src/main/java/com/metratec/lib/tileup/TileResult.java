@@ -0,0 +1,74 @@
+package com.metratec.lib.tileup;
+
+/**
+ * The result of a successful run of {@link TileUp#createTilesAsync(java.util.concurrent.Executor,
+ * CreateTilesCallback) TileUp.createTilesAsync(Executor, CreateTilesCallback)}.
+ */
+public final class TileResult {
+
+  private final int createdTiles;
+  private final int skippedTiles;
+  private final int totalTiles;
+  private final PipelineStats pipelineStats;
+  private final TileStats tileStats;
+
+  TileResult(int createdTiles, int skippedTiles, int totalTiles, PipelineStats pipelineStats, TileStats tileStats) {
+    this.createdTiles = createdTiles;
+    this.skippedTiles = skippedTiles;
+    this.totalTiles = totalTiles;
+    this.pipelineStats = pipelineStats;
+    this.tileStats = tileStats;
+  }
+
+  /**
+   * Gets the number of saved tiles.
+   *
+   * @return the number of saved tiles
+   */
+  public int getCreatedTiles() {
+    return createdTiles;
+  }
+
+  /**
+   * Gets the number of tiles that were not saved, see
+   * {@link CreateTilesCallback#createTilesSkipped(String, int)
+   * CreateTilesCallback.createTilesSkipped(String, int)}.
+   *
+   * @return the number of skipped tiles
+   */
+  public int getSkippedTiles() {
+    return skippedTiles;
+  }
+
+  /**
+   * Gets the number of tiles of all zoom levels.
+   *
+   * @return the total number of tiles
+   */
+  public int getTotalTiles() {
+    return totalTiles;
+  }
+
+  /**
+   * Gets the statistics of the tile pipeline at the end of the run.
+   *
+   * @return the pipeline statistics
+   */
+  public PipelineStats getPipelineStats() {
+    return pipelineStats;
+  }
+
+  /**
+   * Gets the time spent in each phase of the run, with a breakdown per zoom level.
+   *
+   * @return the phase statistics
+   */
+  public TileStats getTileStats() {
+    return tileStats;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("created %d, skipped %d of %d tiles", createdTiles, skippedTiles, totalTiles);
+  }
+}
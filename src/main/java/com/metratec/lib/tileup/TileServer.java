@@ -0,0 +1,119 @@
+package com.metratec.lib.tileup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server answering <code>GET /{zoom}/{x}/{y}.{extension}</code> with the tiles of a
+ * {@link TileRenderer TileRenderer}, using the HTTP server of the JDK. Tiles that do not exist are
+ * answered with 404. The server is meant for viewers on the local network, it has no access control.
+ */
+public final class TileServer implements Closeable {
+
+  private static final Pattern TILE_PATH = Pattern.compile("/(\\d{1,2})/(\\d{1,9})/(\\d{1,9})\\.(\\w+)");
+
+  private final TileRenderer renderer;
+  private final String extension;
+  private final String contentType;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * Creates and starts a server.
+   *
+   * @param renderer the renderer of the tiles
+   * @param address the address to listen on, e.g. <code>new InetSocketAddress(8080)</code>
+   * @param threads the number of threads answering requests and rendering tiles
+   * @throws IOException if the server could not be bound to the address
+   */
+  public TileServer(TileRenderer renderer, InetSocketAddress address, int threads) throws IOException {
+    this.renderer = renderer;
+    this.extension = renderer.getFileExtension();
+    this.contentType = contentType(extension);
+    this.server = HttpServer.create(address, 0);
+    this.executor = Executors.newFixedThreadPool(Math.max(1, threads));
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          answer(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+  }
+
+  /**
+   * Gets the address the server listens on, e.g. to get the port chosen for port 0.
+   *
+   * @return the address
+   */
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  /**
+   * Stops the server and releases the native memory of the encoder. Requests being answered are
+   * aborted.
+   */
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+    renderer.closeEncoder();
+  }
+
+  private void answer(HttpExchange exchange) throws IOException {
+    String method = exchange.getRequestMethod();
+    boolean head = "HEAD".equals(method);
+    if (!head && !"GET".equals(method)) {
+      exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+      exchange.sendResponseHeaders(405, -1);
+      return;
+    }
+    Matcher path = TILE_PATH.matcher(exchange.getRequestURI().getPath());
+    byte[] tile = null;
+    if (path.matches() && extension.equals(path.group(4))) {
+      try {
+        tile = renderer.getTile(Integer.parseInt(path.group(1)), Integer.parseInt(path.group(2)),
+            Integer.parseInt(path.group(3)));
+      } catch (IOException e) {
+        exchange.sendResponseHeaders(500, -1);
+        return;
+      }
+    }
+    if (null == tile) {
+      exchange.sendResponseHeaders(404, -1);
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(200, head ? -1 : tile.length);
+    if (!head) {
+      OutputStream out = exchange.getResponseBody();
+      out.write(tile);
+      out.close();
+    }
+  }
+
+  private static String contentType(String extension) {
+    if ("png".equals(extension)) {
+      return "image/png";
+    } else if ("jpg".equals(extension)) {
+      return "image/jpeg";
+    }
+    return "application/octet-stream";
+  }
+}
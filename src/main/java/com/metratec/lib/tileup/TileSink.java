@@ -0,0 +1,87 @@
+package com.metratec.lib.tileup;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Stores the encoded tiles created by {@link TileUp TileUp}.
+ * <p>
+ * Tiles are addressed by the zoom level, as used for the zoom level directories (20 for the
+ * original image size, 19 for half the size, ...), and their column and row. {@link TileUp TileUp}
+ * saves tiles from several threads at the same time if more than one thread is used.
+ * Implementations therefore have to be thread-safe. A sink receives the tiles of a single run of
+ * {@link TileUp#createTiles() createTiles}, it is closed at the end of a successful run and
+ * {@link #abort() aborted} at the end of a run that failed or was cancelled.
+ * <p>
+ * See also {@link TileUp#setTileSink(TileSink) TileUp.setTileSink(TileSink)}.
+ */
+public interface TileSink extends Closeable {
+
+  /**
+   * Saves a tile.
+   *
+   * @param zoom the zoom level
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @param data the encoded tile, it can be changed as soon as this method returns
+   * @param length the number of bytes in <code>data</code>
+   * @throws IOException if the tile could not be saved
+   */
+  void put(int zoom, int x, int y, byte[] data, int length) throws IOException;
+
+  /**
+   * Saves a tile whose content is shared by other tiles, e.g. a tile with a single color. All
+   * calls with the same <code>id</code> pass the same content, so a sink can store it only once
+   * and refer to it from each tile.
+   *
+   * @param zoom the zoom level
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @param id an identifier of the content, usable as file name
+   * @param data the encoded tile, it must not be changed
+   * @param length the number of bytes in <code>data</code>
+   * @throws IOException if the tile could not be saved
+   */
+  void putShared(int zoom, int x, int y, String id, byte[] data, int length) throws IOException;
+
+  /**
+   * Checks whether a tile was saved by a previous run. Sinks that always start empty return false.
+   *
+   * @param zoom the zoom level
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @return true if the tile exists
+   */
+  boolean contains(int zoom, int x, int y);
+
+  /**
+   * Removes a tile saved by a previous run, if it exists.
+   *
+   * @param zoom the zoom level
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @throws IOException if the tile could not be removed
+   */
+  void remove(int zoom, int x, int y) throws IOException;
+
+  /**
+   * Gets the name of a tile, as reported to the {@link CreateTilesCallback CreateTilesCallback}.
+   *
+   * @param zoom the zoom level
+   * @param x the column of the tile
+   * @param y the row of the tile
+   * @return the name of the tile, e.g. its file name
+   */
+  String getName(int zoom, int x, int y);
+
+  /**
+   * Closes the sink after a run that failed or was cancelled, instead of {@link #close() close}.
+   * No tile is saved anymore when it is called. The tiles saved so far may be kept, but must not
+   * be marked as complete. The default implementation calls {@link #close() close}.
+   *
+   * @throws IOException if the sink could not be closed
+   */
+  default void abort() throws IOException {
+    close();
+  }
+}
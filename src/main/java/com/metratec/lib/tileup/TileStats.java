@@ -0,0 +1,285 @@
+package com.metratec.lib.tileup;
+
+import java.util.Locale;
+
+/**
+ * A snapshot of the time spent in each phase of a run of {@link TileUp#createTiles() createTiles},
+ * with a breakdown per zoom level.
+ * <p>
+ * The phases are: decoding the input image, halving it into the zoom levels (rescale), converting
+ * and copying rows of the image into the buffers of the zoom levels (raster copy), copying tiles
+ * into tile buffers (extract), encoding the tiles and saving them. Decoding, rescaling, copying and
+ * extracting run on the thread of the run, so their sum is at most the elapsed time. Encoding and
+ * saving are summed over all threads of their stage, see {@link PipelineStats PipelineStats}.
+ * <p>
+ * The peak buffer memory counts the pixel buffers of the image, its zoom levels and the tiles on
+ * the heap, but not the files of {@link TileUp#setMemoryMapped(boolean) memory-mapped} levels.
+ * <p>
+ * See also {@link TileUp#getTileStats() TileUp.getTileStats()} and
+ * {@link TileResult#getTileStats() TileResult.getTileStats()}.
+ */
+public final class TileStats {
+
+  private final long elapsedNanos;
+  private final long decodeNanos;
+  private final long rescaleNanos;
+  private final long rasterCopyNanos;
+  private final long extractNanos;
+  private final long extractWaitNanos;
+  private final long encodeNanos;
+  private final long writeNanos;
+  private final long extractedTiles;
+  private final long encodedTiles;
+  private final long savedTiles;
+  private final long bytesWritten;
+  private final long peakBufferBytes;
+  private final long[] levelTiles;
+  private final long[] levelBytes;
+  private final long[] levelRescaleNanos;
+  private final long[] levelEncodeNanos;
+  private final long[] levelWriteNanos;
+
+  TileStats(long elapsedNanos, long decodeNanos, long rescaleNanos, long rasterCopyNanos, long extractNanos,
+      long extractWaitNanos, long encodeNanos, long writeNanos, long extractedTiles, long encodedTiles,
+      long savedTiles, long bytesWritten, long peakBufferBytes, long[] levelTiles, long[] levelBytes,
+      long[] levelRescaleNanos, long[] levelEncodeNanos, long[] levelWriteNanos) {
+    this.elapsedNanos = elapsedNanos;
+    this.decodeNanos = decodeNanos;
+    this.rescaleNanos = rescaleNanos;
+    this.rasterCopyNanos = rasterCopyNanos;
+    this.extractNanos = extractNanos;
+    this.extractWaitNanos = extractWaitNanos;
+    this.encodeNanos = encodeNanos;
+    this.writeNanos = writeNanos;
+    this.extractedTiles = extractedTiles;
+    this.encodedTiles = encodedTiles;
+    this.savedTiles = savedTiles;
+    this.bytesWritten = bytesWritten;
+    this.peakBufferBytes = peakBufferBytes;
+    this.levelTiles = levelTiles;
+    this.levelBytes = levelBytes;
+    this.levelRescaleNanos = levelRescaleNanos;
+    this.levelEncodeNanos = levelEncodeNanos;
+    this.levelWriteNanos = levelWriteNanos;
+  }
+
+  /**
+   * Gets the time since the run started, or the duration of a finished run.
+   *
+   * @return the elapsed time in nanoseconds
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * Gets the time spent decoding the input image.
+   *
+   * @return the decoding time in nanoseconds
+   */
+  public long getDecodeNanos() {
+    return decodeNanos;
+  }
+
+  /**
+   * Gets the time spent halving the zoom levels.
+   *
+   * @return the rescaling time in nanoseconds
+   */
+  public long getRescaleNanos() {
+    return rescaleNanos;
+  }
+
+  /**
+   * Gets the time spent converting rows of the image to ARGB and copying them into the buffers of
+   * the zoom levels. Only streaming and memory-mapped runs copy rows.
+   *
+   * @return the copying time in nanoseconds
+   */
+  public long getRasterCopyNanos() {
+    return rasterCopyNanos;
+  }
+
+  /**
+   * Gets the time spent copying tiles into tile buffers, converting them to ARGB if needed.
+   *
+   * @return the extraction time in nanoseconds
+   */
+  public long getExtractNanos() {
+    return extractNanos;
+  }
+
+  /**
+   * Gets the time spent waiting for a free tile buffer, i.e. for the encoding threads.
+   *
+   * @return the waiting time in nanoseconds
+   */
+  public long getExtractWaitNanos() {
+    return extractWaitNanos;
+  }
+
+  /**
+   * Gets the time spent encoding tiles, summed over all encoding threads.
+   *
+   * @return the encoding time in nanoseconds
+   */
+  public long getEncodeNanos() {
+    return encodeNanos;
+  }
+
+  /**
+   * Gets the time spent saving tiles, summed over all threads saving tiles.
+   *
+   * @return the saving time in nanoseconds
+   */
+  public long getWriteNanos() {
+    return writeNanos;
+  }
+
+  /**
+   * Gets the number of tiles extracted from the image.
+   *
+   * @return the number of extracted tiles
+   */
+  public long getExtractedTiles() {
+    return extractedTiles;
+  }
+
+  /**
+   * Gets the number of encoded tiles.
+   *
+   * @return the number of encoded tiles
+   */
+  public long getEncodedTiles() {
+    return encodedTiles;
+  }
+
+  /**
+   * Gets the number of saved tiles.
+   *
+   * @return the number of saved tiles
+   */
+  public long getSavedTiles() {
+    return savedTiles;
+  }
+
+  /**
+   * Gets the size of the saved tiles. Shared uniform tiles count once per tile.
+   *
+   * @return the number of bytes written
+   */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * Gets the number of tiles saved per second.
+   *
+   * @return the throughput of the run
+   */
+  public double getTilesPerSecond() {
+    return 0 == elapsedNanos ? 0 : savedTiles * 1e9 / elapsedNanos;
+  }
+
+  /**
+   * Gets the highest number of bytes held by pixel and tile buffers at the same time.
+   *
+   * @return the peak buffer memory in bytes
+   */
+  public long getPeakBufferBytes() {
+    return peakBufferBytes;
+  }
+
+  /**
+   * Gets the number of zoom levels of the breakdown.
+   *
+   * @return the number of zoom levels
+   */
+  public int getLevelCount() {
+    return levelTiles.length;
+  }
+
+  /**
+   * Gets the number of saved tiles of a zoom level.
+   *
+   * @param z the zoom level index, 0 is the original image size
+   * @return the number of saved tiles
+   */
+  public long getLevelTiles(int z) {
+    return levelTiles[z];
+  }
+
+  /**
+   * Gets the size of the saved tiles of a zoom level.
+   *
+   * @param z the zoom level index, 0 is the original image size
+   * @return the number of bytes written
+   */
+  public long getLevelBytes(int z) {
+    return levelBytes[z];
+  }
+
+  /**
+   * Gets the time spent halving the previous zoom level into a zoom level.
+   *
+   * @param z the zoom level index, 0 is the original image size
+   * @return the rescaling time in nanoseconds, 0 for level 0
+   */
+  public long getLevelRescaleNanos(int z) {
+    return levelRescaleNanos[z];
+  }
+
+  /**
+   * Gets the time spent encoding the tiles of a zoom level.
+   *
+   * @param z the zoom level index, 0 is the original image size
+   * @return the encoding time in nanoseconds
+   */
+  public long getLevelEncodeNanos(int z) {
+    return levelEncodeNanos[z];
+  }
+
+  /**
+   * Gets the time spent saving the tiles of a zoom level.
+   *
+   * @param z the zoom level index, 0 is the original image size
+   * @return the saving time in nanoseconds
+   */
+  public long getLevelWriteNanos(int z) {
+    return levelWriteNanos[z];
+  }
+
+  /**
+   * Formats the statistics as a JSON object. Times are in nanoseconds, the zoom levels are listed
+   * with their zoom, 20 for the original image size.
+   *
+   * @return the JSON text
+   */
+  public String toJson() {
+    StringBuilder json = new StringBuilder();
+    json.append(String.format(Locale.ROOT,
+        "{\"elapsedNanos\":%d,\"decodeNanos\":%d,\"rescaleNanos\":%d,\"rasterCopyNanos\":%d,\"extractNanos\":%d,"
+            + "\"extractWaitNanos\":%d,\"encodeNanos\":%d,\"writeNanos\":%d,\"extractedTiles\":%d,"
+            + "\"encodedTiles\":%d,\"savedTiles\":%d,\"bytesWritten\":%d,\"tilesPerSecond\":%.3f,"
+            + "\"peakBufferBytes\":%d,\"levels\":[",
+        elapsedNanos, decodeNanos, rescaleNanos, rasterCopyNanos, extractNanos, extractWaitNanos, encodeNanos,
+        writeNanos, extractedTiles, encodedTiles, savedTiles, bytesWritten, getTilesPerSecond(), peakBufferBytes));
+    for (int z = 0; z < levelTiles.length; z++) {
+      json.append(String.format(Locale.ROOT,
+          "%s{\"zoom\":%d,\"tiles\":%d,\"bytes\":%d,\"rescaleNanos\":%d,\"encodeNanos\":%d,\"writeNanos\":%d}",
+          z > 0 ? "," : "", 20 - z, levelTiles[z], levelBytes[z], levelRescaleNanos[z], levelEncodeNanos[z],
+          levelWriteNanos[z]));
+    }
+    return json.append("]}").toString();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT,
+        "%.1f s: decode %.1f s, rescale %.1f s, copy %.1f s, extract %.1f s (wait %.1f s), encode %.1f s, "
+            + "write %.1f s, %d tiles, %d bytes, %.1f tiles/s, peak buffers %d KB",
+        elapsedNanos / 1e9, decodeNanos / 1e9, rescaleNanos / 1e9, rasterCopyNanos / 1e9, extractNanos / 1e9,
+        extractWaitNanos / 1e9, encodeNanos / 1e9, writeNanos / 1e9, savedTiles, bytesWritten, getTilesPerSecond(),
+        peakBufferBytes / 1024);
+  }
+}
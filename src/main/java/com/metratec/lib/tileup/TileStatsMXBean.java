@@ -0,0 +1,69 @@
+package com.metratec.lib.tileup;
+
+/**
+ * The statistics of a running {@link TileUp TileUp} as JMX MBean, registered while the run lasts if
+ * {@link TileUp#setJmxEnabled(boolean) TileUp.setJmxEnabled(boolean)} is set. The attributes are
+ * those of {@link TileStats TileStats}, without the breakdown per zoom level.
+ */
+public interface TileStatsMXBean {
+
+  /**
+   * @return the time since the run started, or the duration of a finished run, in nanoseconds
+   */
+  long getElapsedNanos();
+
+  /**
+   * @return the time spent decoding the input image in nanoseconds
+   */
+  long getDecodeNanos();
+
+  /**
+   * @return the time spent halving zoom levels in nanoseconds
+   */
+  long getRescaleNanos();
+
+  /**
+   * @return the time spent converting and copying rows of the image in nanoseconds
+   */
+  long getRasterCopyNanos();
+
+  /**
+   * @return the time spent copying tiles into tile buffers in nanoseconds
+   */
+  long getExtractNanos();
+
+  /**
+   * @return the time spent waiting for a free tile buffer in nanoseconds
+   */
+  long getExtractWaitNanos();
+
+  /**
+   * @return the time spent encoding tiles, summed over all encoding threads, in nanoseconds
+   */
+  long getEncodeNanos();
+
+  /**
+   * @return the time spent saving tiles, summed over all threads saving tiles, in nanoseconds
+   */
+  long getWriteNanos();
+
+  /**
+   * @return the number of saved tiles
+   */
+  long getSavedTiles();
+
+  /**
+   * @return the number of bytes of the saved tiles
+   */
+  long getBytesWritten();
+
+  /**
+   * @return the number of tiles saved per second
+   */
+  double getTilesPerSecond();
+
+  /**
+   * @return the highest number of bytes held by pixel and tile buffers at the same time
+   */
+  long getPeakBufferBytes();
+}
@@ -1,21 +1,50 @@
 package com.metratec.lib.tileup;
 
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * This class provides methods to split a large image into a grid of tiles.
  * <p>
- * Check {@link #createTiles() createTiles()} for details.
+ * Check {@link #createTiles() createTiles()} for details. To create single tiles only when they are
+ * requested, see {@link TileRenderer TileRenderer}.
  */
 public class TileUp {
 
-  private BufferedImage image;
+  // runs each legacy asynchronous run on its own thread
+  private static final Executor THREAD_PER_RUN = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      new Thread(command).start();
+    }
+  };
+
+  // numbers the MBeans, so runs of images with the same name do not collide
+  private static final AtomicInteger RUNS = new AtomicInteger();
+
+  private static final CreateTilesCallback NO_CALLBACK = new CreateTilesCallback() {
+    @Override
+    public void createTilesProgress(String createdTile, int count, int total) {
+    }
+
+    @Override
+    public void createTilesResult(int retval, Exception e) {
+    }
+  };
+
+  private ImageSource source;
   private int tileWidth;
   private int tileHeight;
   private int imageWidth;
@@ -24,6 +53,27 @@ public class TileUp {
   private String prefix;
   private String outDir;
   private boolean extended;
+  private int threads = 1;
+  private int ioThreads;
+  private boolean streaming;
+  private boolean memoryMapped;
+  private boolean quadtree;
+  private long maxMemory;
+  private long progressInterval;
+  private boolean quiet;
+  private File tempDir;
+  private DownsampleFilter downsampleFilter = DownsampleFilter.BOX;
+  private TileEncoder encoder = new PngTileEncoder();
+  private UniformTiles uniformTiles = UniformTiles.WRITE;
+  private boolean incremental;
+  private boolean indexEnabled;
+  private TileSink tileSink;
+  private TileRange tileRange;
+  private TilePools tilePools;
+  private boolean jmxEnabled;
+  private boolean embeddedOverviews;
+  private boolean subsampledDecoding;
+  private volatile TileWriter currentWriter;
 
   /**
    * Constructs a {@link TileUp TileUp} from specified image file path.
@@ -133,9 +183,10 @@ public class TileUp {
    */
   public TileUp(String imagePath, String outDir, String prefix, int tileWidth, int tileHeight, int zoomLevels,
       boolean extended) throws IOException {
-    this.image = ImageIO.read(new File(imagePath));
-    this.imageWidth = this.image.getWidth();
-    this.imageHeight = this.image.getHeight();
+    // only the header is read, the pixels are read when the tiles are created
+    this.source = new ImageSource(new File(imagePath));
+    this.imageWidth = source.getWidth();
+    this.imageHeight = source.getHeight();
 
     this.outDir = outDir;
     this.prefix = prefix;
@@ -218,6 +269,15 @@ public class TileUp {
     return this.tileHeight;
   }
 
+  /**
+   * Gets the input image.
+   *
+   * @return the input image
+   */
+  ImageSource getSource() {
+    return this.source;
+  }
+
   /**
    * Gets the image width.
    *
@@ -279,6 +339,508 @@ public class TileUp {
     return this.extended;
   }
 
+  /**
+   * Sets the number of worker threads used to encode and save tiles. With a value of 1 (default)
+   * all tiles are created on the calling thread.
+   * <p>
+   * See also {@link #createTiles() createTiles()}.
+   *
+   * @param threads the number of worker threads
+   */
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * Gets the number of worker threads used to encode and save tiles.
+   *
+   * @return the number of worker threads
+   */
+  public int getThreads() {
+    return this.threads;
+  }
+
+  /**
+   * Sets the number of threads used only to save the encoded tiles. With a value of 0 (default)
+   * the threads encoding the tiles save them as well.
+   * <p>
+   * Dedicated I/O threads keep the encoding threads busy while tiles are saved to storage with a
+   * high latency, e.g. a network file system. Up to two encoded tiles per I/O thread wait to be
+   * saved, if the I/O threads fall further behind the encoding threads block.
+   *
+   * @param ioThreads the number of I/O threads
+   */
+  public void setIoThreads(int ioThreads) {
+    this.ioThreads = Math.max(0, ioThreads);
+  }
+
+  /**
+   * Gets the number of threads used only to save the encoded tiles.
+   *
+   * @return the number of I/O threads
+   */
+  public int getIoThreads() {
+    return this.ioThreads;
+  }
+
+  /**
+   * Sets thread pools and tile buffers shared with other runs, e.g. of a {@link TileBatch
+   * TileBatch}. The numbers of threads of the pools are used instead of
+   * {@link #setThreads(int) setThreads(int)} and {@link #setIoThreads(int) setIoThreads(int)}.
+   *
+   * @param tilePools the shared pools, or null (default) to start threads for each run
+   */
+  public void setTilePools(TilePools tilePools) {
+    this.tilePools = tilePools;
+  }
+
+  /**
+   * Gets the thread pools and tile buffers shared with other runs.
+   *
+   * @return the shared pools, or null if each run starts its own threads
+   */
+  public TilePools getTilePools() {
+    return this.tilePools;
+  }
+
+  /**
+   * Gets a snapshot of the tile pipeline of the running or the last run of
+   * {@link #createTiles() createTiles}, e.g. to monitor the throughput of the stages.
+   *
+   * @return the pipeline statistics, or null if no tiles have been created yet
+   */
+  public PipelineStats getPipelineStats() {
+    TileWriter current = this.currentWriter;
+    return null == current ? null : current.getStats();
+  }
+
+  /**
+   * Gets a snapshot of the tiles done by the running or the last run of {@link #createTiles()
+   * createTiles}, with the tile rate and the estimated remaining time. It can be polled at any rate
+   * from another thread, independently of the progress callback.
+   *
+   * @return the progress, or null if no tiles have been created yet
+   */
+  public TileProgress getProgress() {
+    TileWriter current = this.currentWriter;
+    return null == current ? null : current.getProgress();
+  }
+
+  /**
+   * Gets a snapshot of the time spent in each phase of the running or the last run of
+   * {@link #createTiles() createTiles}, with a breakdown per zoom level.
+   *
+   * @return the statistics, or null if no tiles have been created yet
+   */
+  public TileStats getTileStats() {
+    TileWriter current = this.currentWriter;
+    return null == current ? null : current.getMetrics().snapshot();
+  }
+
+  /**
+   * Sets whether the statistics of each run are registered as {@link TileStatsMXBean
+   * TileStatsMXBean} in the platform MBean server while the run lasts, e.g. to watch a long run or
+   * a batch with JConsole. The name of the MBean is
+   * <code>com.metratec.lib.tileup:type=TileStats,image="name",run=n</code>.
+   *
+   * @param jmxEnabled true to register the MBeans, default false
+   */
+  public void setJmxEnabled(boolean jmxEnabled) {
+    this.jmxEnabled = jmxEnabled;
+  }
+
+  /**
+   * Gets whether the statistics of each run are registered as JMX MBean.
+   *
+   * @return true if the MBeans are registered
+   */
+  public boolean isJmxEnabled() {
+    return this.jmxEnabled;
+  }
+
+  /**
+   * Sets whether the input image is read in strips of one tile row instead of as a whole.
+   * <p>
+   * In streaming mode only the strip being tiled and one row of tiles per zoom level are held in
+   * memory, so the memory needed scales with image width × tile height instead of the image area.
+   * The tiles of all zoom levels are created in a single pass from top to bottom. Note that image
+   * formats without random access, such as PNG, have to be decoded from the start for each strip,
+   * so streaming trades decoding time for memory.
+   * <p>
+   * See also {@link #createTiles() createTiles()}.
+   *
+   * @param streaming whether the input image should be read in strips
+   */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  /**
+   * Returns whether the input image is read in strips of one tile row instead of as a whole.
+   *
+   * @return whether the input image is read in strips
+   */
+  public boolean isStreaming() {
+    return this.streaming;
+  }
+
+  /**
+   * Sets whether the zoom levels are stored in memory-mapped temporary files instead of on the
+   * heap.
+   * <p>
+   * The input image is read in strips of one tile row, like in streaming mode, and its tiles are
+   * created right away. Every further zoom level is halved from the previous one into a temporary
+   * file of 4 bytes per pixel, which is deleted as soon as the next level is complete. The heap
+   * only holds one strip, a few rows and the tile buffers, so images far larger than the heap and
+   * larger than the 2^31 pixels of a Java2D raster can be tiled. The temporary files need about
+   * 1.25 × 4 bytes per pixel of the original image on disk, see
+   * {@link #setTempDir(File) setTempDir(File)}. If set, this mode takes precedence over streaming.
+   *
+   * @param memoryMapped whether the zoom levels are stored in memory-mapped files
+   */
+  public void setMemoryMapped(boolean memoryMapped) {
+    this.memoryMapped = memoryMapped;
+  }
+
+  /**
+   * Returns whether the zoom levels are stored in memory-mapped temporary files.
+   *
+   * @return whether the zoom levels are stored in memory-mapped files
+   */
+  public boolean isMemoryMapped() {
+    return this.memoryMapped;
+  }
+
+  /**
+   * Sets whether the tiles of all zoom levels are created in a single walk over the tile quadtree.
+   * <p>
+   * The tiles of the original size are created in Z-order, and each tile of a lower zoom level is
+   * halved from its four tiles of the next higher level as soon as they are complete. No zoom level
+   * is held as a whole, only one tile and one block of 2 × 2 tiles per level. Tiled TIFF images are
+   * read one area of about the size of their tiles at a time, so the memory needed is independent
+   * of the image size; other images are decoded as a whole first.
+   * <p>
+   * Blocks of 2 × 2 tiles can only be halved on their own with the {@link DownsampleFilter#BOX BOX}
+   * filter and even tile sizes. With other settings the tiles are created like in streaming mode.
+   * If set, this mode takes precedence over memory-mapped zoom levels and streaming.
+   *
+   * @param quadtree whether the tiles are created in a walk over the tile quadtree
+   */
+  public void setQuadtree(boolean quadtree) {
+    this.quadtree = quadtree;
+  }
+
+  /**
+   * Returns whether the tiles of all zoom levels are created in a single walk over the tile
+   * quadtree.
+   *
+   * @return whether the tiles are created in a walk over the tile quadtree
+   */
+  public boolean isQuadtree() {
+    return this.quadtree;
+  }
+
+  /**
+   * Sets the memory the buffers of a run may use. Before any tile is created, the peak memory of
+   * the run is estimated from the image size and pixel type, the tile size, the zoom levels and the
+   * threads. If it exceeds the budget, the run switches to a mode that needs less memory, i.e. to
+   * {@link #setStreaming(boolean) streaming} or {@link #setMemoryMapped(boolean) memory-mapped} zoom
+   * levels, and then uses fewer tile buffers and {@link #setThreads(int) threads}. The
+   * {@link #setQuadtree(boolean) quadtree} is only used if it was set. The tiles stay the same. If
+   * even that does not fit, the run fails before it starts. Memory left in the budget is used for
+   * higher strips in streaming mode.
+   * <p>
+   * The budget covers the image data and tile buffers, see
+   * {@link TileStats#getPeakBufferBytes() TileStats.getPeakBufferBytes()}, the heap should be
+   * somewhat larger.
+   *
+   * @param maxMemory the budget in bytes, 0 (default) for no budget
+   */
+  public void setMaxMemory(long maxMemory) {
+    this.maxMemory = Math.max(0, maxMemory);
+  }
+
+  /**
+   * Gets the memory the buffers of a run may use.
+   *
+   * @return the budget in bytes, 0 for no budget
+   */
+  public long getMaxMemory() {
+    return this.maxMemory;
+  }
+
+  /**
+   * Sets the minimum time between two calls of the {@link CreateTilesCallback CreateTilesCallback},
+   * i.e. between two progress lines of {@link #createTiles() createTiles}. The tiles are counted
+   * without locking, only the tiles passed to the callback are serialized, and the count of all
+   * tiles is passed once at the end of the run. With 0, the callback is called for every tile,
+   * which slows down runs of many small tiles, especially if it prints each of them.
+   *
+   * @param progressInterval the interval in milliseconds, default 0
+   */
+  public void setProgressInterval(long progressInterval) {
+    this.progressInterval = Math.max(0, progressInterval);
+  }
+
+  /**
+   * Gets the minimum time between two calls of the progress callback.
+   *
+   * @return the interval in milliseconds, 0 for every tile
+   */
+  public long getProgressInterval() {
+    return this.progressInterval;
+  }
+
+  /**
+   * Sets whether {@link #createTiles() createTiles} prints no progress lines to
+   * <code>System.out</code>. The progress can still be read with {@link #getProgress()
+   * getProgress}.
+   *
+   * @param quiet true to print no progress, default false
+   */
+  public void setQuiet(boolean quiet) {
+    this.quiet = quiet;
+  }
+
+  /**
+   * Gets whether {@link #createTiles() createTiles} prints no progress lines.
+   *
+   * @return true if no progress is printed
+   */
+  public boolean isQuiet() {
+    return this.quiet;
+  }
+
+  /**
+   * Sets the directory of the temporary files of {@link #setMemoryMapped(boolean) memory-mapped}
+   * zoom levels. It should be on a local disk, not on a file system held in memory.
+   *
+   * @param tempDir the directory, or null (default) for the directory given by the system property
+   *        <code>java.io.tmpdir</code>
+   */
+  public void setTempDir(File tempDir) {
+    this.tempDir = tempDir;
+  }
+
+  /**
+   * Gets the directory of the temporary files of memory-mapped zoom levels.
+   *
+   * @return the directory, or null for the default temporary directory
+   */
+  public File getTempDir() {
+    return this.tempDir;
+  }
+
+  /**
+   * Sets the filter used to halve each zoom level into the next lower one. The default is
+   * {@link DownsampleFilter#BOX BOX}, the fastest one. The other filters reduce aliasing of fine
+   * patterns in the lower zoom levels, at the cost of more computing time per level.
+   *
+   * @param downsampleFilter the filter
+   */
+  public void setDownsampleFilter(DownsampleFilter downsampleFilter) {
+    this.downsampleFilter = downsampleFilter;
+  }
+
+  /**
+   * Gets the filter used to halve the zoom levels.
+   *
+   * @return the filter
+   */
+  public DownsampleFilter getDownsampleFilter() {
+    return this.downsampleFilter;
+  }
+
+  /**
+   * Sets whether zoom levels are read from the overviews stored in a pyramidal TIFF instead of
+   * being halved from the original image. An overview is used for a zoom level if it has exactly its
+   * size, lower levels are halved from it. Tiles of the levels below the first overview are created
+   * without reading the original image at all.
+   * <p>
+   * The overviews were computed by the program that wrote the file, so their tiles differ slightly
+   * from halved ones. Images without overviews are not affected.
+   *
+   * @param embeddedOverviews true to use stored overviews, default false
+   */
+  public void setEmbeddedOverviews(boolean embeddedOverviews) {
+    this.embeddedOverviews = embeddedOverviews;
+  }
+
+  /**
+   * Gets whether zoom levels are read from the overviews stored in the image.
+   *
+   * @return true if stored overviews are used
+   */
+  public boolean isEmbeddedOverviews() {
+    return this.embeddedOverviews;
+  }
+
+  /**
+   * Sets whether a run that starts below the original size, e.g. with a {@link #setTileRange(TileRange)
+   * tile range} of low zoom levels only, decodes a JPEG image directly at 1/2, 1/4 or 1/8 of its
+   * size with subsampling instead of decoding the whole image and halving it. Lower levels are halved
+   * from the decoded one. The same applies to the low zoom levels of a {@link TileRenderer TileRenderer}.
+   * <p>
+   * Subsampling keeps one pixel of each block of 2^z × 2^z pixels instead of averaging them, so the
+   * tiles are sharper than halved ones and may alias. Other image formats are not affected.
+   *
+   * @param subsampledDecoding true to decode JPEG images with subsampling, default false
+   */
+  public void setSubsampledDecoding(boolean subsampledDecoding) {
+    this.subsampledDecoding = subsampledDecoding;
+  }
+
+  /**
+   * Gets whether JPEG images are decoded with subsampling for runs starting below the original size.
+   *
+   * @return true if JPEG images are decoded with subsampling
+   */
+  public boolean isSubsampledDecoding() {
+    return this.subsampledDecoding;
+  }
+
+  /**
+   * Sets the encoder of the tiles. The default is a {@link PngTileEncoder PngTileEncoder} with the
+   * default deflate level. The file extension of the tiles is taken from the encoder.
+   *
+   * @param encoder the encoder
+   */
+  public void setEncoder(TileEncoder encoder) {
+    this.encoder = encoder;
+  }
+
+  /**
+   * Gets the encoder of the tiles.
+   *
+   * @return the encoder
+   */
+  public TileEncoder getEncoder() {
+    return this.encoder;
+  }
+
+  /**
+   * Sets how tiles whose pixels all have the same color are saved. By default they are saved like
+   * any other tile.
+   *
+   * @param uniformTiles how uniform tiles are saved
+   */
+  public void setUniformTiles(UniformTiles uniformTiles) {
+    this.uniformTiles = uniformTiles;
+  }
+
+  /**
+   * Gets how tiles whose pixels all have the same color are saved.
+   *
+   * @return how uniform tiles are saved
+   */
+  public UniformTiles getUniformTiles() {
+    return this.uniformTiles;
+  }
+
+  /**
+   * Sets whether only tiles whose content changed since the last run are saved.
+   * <p>
+   * In incremental mode a hash of every saved tile is recorded in the file
+   * <code>tileup.manifest</code> of the output directory. The next run with the same tile settings
+   * still extracts every tile, but skips encoding and saving the tiles whose hash did not change.
+   * As the hashes are recorded while the tiles are saved, a run that was aborted resumes after the
+   * last saved tile. Changes of the encoder settings that do not change the file extension, like the
+   * PNG compression level, are not detected.
+   *
+   * @param incremental whether only changed tiles are saved
+   */
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  /**
+   * Returns whether only tiles whose content changed since the last run are saved.
+   *
+   * @return whether only changed tiles are saved
+   */
+  public boolean isIncremental() {
+    return this.incremental;
+  }
+
+  /**
+   * Sets whether an index of the saved tiles is written to the file <code>tileup.index</code> of
+   * the output directory at the end of a run. The index holds a bitset of the existing tiles and
+   * their sizes per zoom level, so viewers and later jobs can check the tiles with a
+   * {@link TileIndexReader TileIndexReader} instead of the file system. It lists the tiles of the
+   * last run only, e.g. of its tile range. Pack files have their own index, so no index is written
+   * for a {@link #setTileSink(TileSink) tile sink}.
+   *
+   * @param indexEnabled whether the index is written
+   */
+  public void setIndexEnabled(boolean indexEnabled) {
+    this.indexEnabled = indexEnabled;
+  }
+
+  /**
+   * Returns whether an index of the saved tiles is written to the output directory.
+   *
+   * @return whether the index is written
+   */
+  public boolean isIndexEnabled() {
+    return this.indexEnabled;
+  }
+
+  /**
+   * Sets the sink the encoded tiles are saved to, e.g. a {@link PackTileSink PackTileSink}. By
+   * default, or if set to null, a {@link DirectoryTileSink DirectoryTileSink} saves the tiles into
+   * {@link #outDir outDir}. The sink is closed when the tiles are created, so a new sink has to be
+   * set for every run.
+   *
+   * @param tileSink the sink, or null for the output directory
+   */
+  public void setTileSink(TileSink tileSink) {
+    this.tileSink = tileSink;
+  }
+
+  /**
+   * Gets the sink the encoded tiles are saved to.
+   *
+   * @return the sink, or null if the tiles are saved into the output directory
+   */
+  public TileSink getTileSink() {
+    return this.tileSink;
+  }
+
+  /**
+   * Sets the part of the tiles to create, to split a job into shards. Only the part of the image
+   * these tiles need is read, plus a margin of whole tiles of the last level of the range for filters
+   * wider than {@link DownsampleFilter#BOX BOX}. The created tiles are the same as those of a run
+   * over the whole image.
+   *
+   * @param tileRange the tiles to create, or null (default) for all tiles
+   */
+  public void setTileRange(TileRange tileRange) {
+    this.tileRange = tileRange;
+  }
+
+  /**
+   * Gets the part of the tiles to create.
+   *
+   * @return the tiles to create, or null for all tiles
+   */
+  public TileRange getTileRange() {
+    return this.tileRange;
+  }
+
+  /**
+   * Sets the tile range to one of <code>count</code> shards, see
+   * {@link TileRange#shard(int, int, int, int, int, int, int) TileRange.shard}. The shard is
+   * computed from the current image size, tile size and zoom levels, so this method has to be
+   * called after they are set.
+   *
+   * @param index the index of the shard, from 0 to <code>count</code> - 1
+   * @param count the number of shards
+   * @throws IllegalArgumentException if the index is not within 0 and <code>count</code> - 1
+   */
+  public void setShard(int index, int count) {
+    setTileRange(TileRange.shard(index, count, imageWidth, imageHeight, tileWidth, tileHeight, zoomLevels));
+  }
+
   /**
    * Automatically computes the necessary zoom level based on image dimensions and tile size.
    * <p>
@@ -293,7 +855,7 @@ public class TileUp {
    */
   public void setAutoZoom() {
     int w_zoom = getZoom(imageWidth / tileWidth);
-    int h_zoom = getZoom(imageHeight / tileWidth);
+    int h_zoom = getZoom(imageHeight / tileHeight);
     setZoomLevels(Math.max(w_zoom, h_zoom));
   }
 
@@ -326,23 +888,77 @@ public class TileUp {
    * of 19 and so on. If the {@link #zoomLevels zoomLevels} is unspecified or set to 1(default), the
    * tiles are only created for zoom of 20. If {@link #zoomLevels zoomLevels} is 4, tiles will be
    * generated for zooms of 20, 19, 18 and 17. See {@link #setZoomLevels(int) setZoomLevels(int)}
-   * and {@link #setAutoZoom() setAutoZoom()}.
+   * and {@link #setAutoZoom() setAutoZoom()}. Each zoom level is computed from the next higher one
+   * by averaging blocks of 2 × 2 pixels.
+   * <p>
+   * Each call starts a new thread. Use {@link #createTilesAsync(Executor, CreateTilesCallback)
+   * createTilesAsync(Executor, CreateTilesCallback)} to run the job on an executor and to be able to
+   * cancel it.
    * 
    * @param callback {@link CreateTilesCallback} callback for the progress information and result
    *
    */
   public void createTilesAsyn(CreateTilesCallback callback) {
     if (null != callback) {
-      new Thread(new Runnable() {
-        @Override
-        public void run() {
-          createTiles(callback);
+      createTilesAsync(THREAD_PER_RUN, callback);
+    }
+  }
+
+  /**
+   * Creates and saves tiles from the input image on a thread of an executor, see
+   * {@link #createTiles() createTiles()} for details.
+   * <p>
+   * The returned future completes with the result when all tiles are saved, or exceptionally if an
+   * error occurs. Cancelling the future stops the run cooperatively before the next tile is
+   * created; tiles that are already being encoded are finished, the worker threads are stopped and
+   * the future of a run that has not started yet never starts it. No thread is blocked waiting for
+   * the run. A {@link TileUp TileUp} creates tiles for one run at a time, use one instance per
+   * image to run several jobs on the same executor.
+   *
+   * @param executor the executor running the job, e.g. a pool shared by many jobs
+   * @param callback {@link CreateTilesCallback} callback for the progress information and result,
+   *        or null
+   * @return the future result
+   */
+  public CompletableFuture<TileResult> createTilesAsync(Executor executor, CreateTilesCallback callback) {
+    final CreateTilesCallback progress = null != callback ? callback : NO_CALLBACK;
+    final CompletableFuture<TileResult> future = new CompletableFuture<TileResult>();
+    Runnable job = new Runnable() {
+      @Override
+      public void run() {
+        if (future.isDone()) {
+          // cancelled before it started
+          return;
         }
-      }).start();
+        try {
+          TileResult result = createTiles(callback, future);
+          progress.createTilesResult(CreateTilesCallback.RESULT_OK, null);
+          future.complete(result);
+        } catch (Exception e) {
+          progress.createTilesResult(CreateTilesCallback.RESULT_ERROR, e);
+          future.completeExceptionally(e);
+        }
+      }
+    };
+    try {
+      executor.execute(job);
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
     }
+    return future;
   }
 
-  private void createTiles(CreateTilesCallback callback) {
+  private TileResult createTiles(CreateTilesCallback callback, Future<?> cancellation) throws Exception {
+    TileWriter tileWriter = null;
+    TileManifest manifest = null;
+    TileIndex index = null;
+    TileSink sink = tileSink;
+    ObjectName mbean = null;
+    MemoryPlan memory = MemoryPlan.create(this);
+    if (!memory.fits()) {
+      throw new IllegalStateException(String.format("Creating the tiles needs about %s, more than the %s allowed",
+          MemoryPlan.format(memory.getBytes(), true), MemoryPlan.format(memory.getBudget(), false)));
+    }
     try {
       if (!outDir.isEmpty()) {
         File outputDir = new File(outDir);
@@ -352,66 +968,292 @@ public class TileUp {
       } else {
         outDir = ".";
       }
-      int total = 0;
-      int count = 1;
-      for (int z = 0; z < zoomLevels; z++) {
-        double scale = Math.pow(2.0, z);
-        total += (int) (Math.ceil(imageWidth / (tileWidth * scale)) * Math.ceil(imageHeight / (tileHeight * scale)));
+      TilePlan plan = new TilePlan(imageWidth, imageHeight, tileWidth, tileHeight, zoomLevels, tileRange);
+      int total = (int) Math.min(Integer.MAX_VALUE, plan.getTotal());
+      if (null == sink) {
+        sink = new DirectoryTileSink(outDir, prefix, encoder.getFileExtension());
+      }
+      if (incremental) {
+        manifest = new TileManifest(new File(outDir), String.format(
+            "%dx%d extended=%b prefix=%s format=%s uniform=%s filter=%s%s%s", tileWidth, tileHeight, extended, prefix,
+            encoder.getFileExtension(), uniformTiles, downsampleFilter, embeddedOverviews ? " overviews" : "",
+            subsampledDecoding ? " subsampled" : ""));
+      }
+      if (indexEnabled && null == tileSink) {
+        index = new TileIndex(new File(outDir), plan, tileWidth, tileHeight);
+      }
+      tileWriter = new TileWriter(this, memory, sink, manifest, index, callback, total, cancellation);
+      currentWriter = tileWriter;
+      if (jmxEnabled) {
+        mbean = registerMBean(tileWriter.getMetrics());
       }
-      BufferedImage sm;
-      for (int z = 0; z < zoomLevels; z++) {
-        String subdirpath = String.format("%s/%d", outDir, 20 - z);
-        File subdir = new File(subdirpath);
-        if (!subdir.exists()) {
-          subdir.mkdir();
+      Rectangle region = new Rectangle(0, 0, imageWidth, imageHeight);
+      int levels = zoomLevels;
+      if (null != tileRange) {
+        region = sourceRegion(tileRange);
+        levels = Math.min(zoomLevels, tileRange.getLastLevel() + 1);
+      }
+      // with embedded overviews, the pyramid is split at each stored level and each part is created from it,
+      // a subsampled level is only read if the run starts at it
+      int first = sourceLevel(null != tileRange ? tileRange.getFirstLevel() : 0);
+      while (null != region && first < levels) {
+        int next = first + 1;
+        while (next < levels && !(embeddedOverviews && next == source.getStoredLevel(next))) {
+          next++;
+        }
+        createLevels(tileWriter, memory, plan, region, first, next);
+        first = next;
+      }
+      tileWriter.await();
+      tileWriter.reportLast();
+      TileResult result = new TileResult(tileWriter.getCreated(), tileWriter.getSkipped(), total,
+          tileWriter.getStats(), tileWriter.getMetrics().snapshot());
+      tileWriter.close();
+      tileWriter = null;
+      sink.close();
+      sink = null;
+      if (null != index) {
+        index.commit();
+      }
+      if (null != manifest) {
+        manifest.commit(tileRange);
+      }
+      return result;
+    } finally {
+      if (null != tileWriter) {
+        tileWriter.close();
+      }
+      if (null != sink) {
+        try {
+          sink.abort();
+        } catch (IOException e) {
+          // the run already failed
         }
-        System.gc();
-        double scale = Math.pow(2.0, z);
-        double scale_inv = 1.0 / scale;
-        sm = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
-        AffineTransform at = new AffineTransform();
-        at.scale(scale_inv, scale_inv);
-        AffineTransformOp scaleOp = new AffineTransformOp(at, AffineTransformOp.TYPE_BILINEAR);
-        sm = scaleOp.filter(image, sm);
-
-        BufferedImage img_ext;
-        if (extended) {
-          double x = Math.ceil((double) imageWidth / (double) tileWidth);
-          double y = Math.ceil((double) imageHeight / (double) tileHeight);
-          img_ext = new BufferedImage((int) x * tileWidth, (int) y * tileHeight, BufferedImage.TYPE_INT_ARGB);
-        } else {
-          img_ext = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+      }
+      if (null != manifest) {
+        try {
+          manifest.close();
+        } catch (IOException e) {
+          // the records are only needed to resume, the tiles are complete
         }
-        img_ext.setData(sm.getData());
-        sm = null;
-        scaleOp = null;
-        at = null;
-        System.gc();
-        BufferedImage out;
-        for (int i = 0; i * tileWidth * scale < imageWidth; i++) {
-          for (int j = 0; j * tileHeight * scale < imageHeight; j++) {
-            if (extended) {
-              out = img_ext.getSubimage(i * tileWidth, j * tileHeight, tileWidth, tileHeight);
-            } else {
-              out = img_ext.getSubimage(i * tileWidth, j * tileHeight, Math.min(tileWidth, imageWidth - i * tileWidth),
-                  Math.min(tileHeight, imageHeight - j * tileHeight));
-            }
-            System.gc();
-            String filename = String.format("%s/%s_%d_%d.png", subdirpath, prefix, i, j);
-            File outputfile = new File(filename);
-            ImageIO.write(out, "png", outputfile);
-            callback.createTilesProgress(filename, count, total);
-            count++;
-            out = null;
-            System.gc();
+      }
+      if (null != index) {
+        index.close();
+      }
+      if (null != mbean) {
+        unregisterMBean(mbean);
+      }
+    }
+  }
+
+  private ObjectName registerMBean(TileMetrics metrics) throws JMException {
+    ObjectName name = new ObjectName("com.metratec.lib.tileup:type=TileStats,image="
+        + ObjectName.quote(source.getFile().getName()) + ",run=" + RUNS.incrementAndGet());
+    ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+    return name;
+  }
+
+  private static void unregisterMBean(ObjectName name) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      server.unregisterMBean(name);
+    } catch (JMException e) {
+      // only monitoring is affected
+    }
+  }
+
+  // the part of the image the tiles of a range need, in whole tiles of its last level, so the tiles
+  // of each level are aligned to the region and only their columns and rows have to be offset
+  Rectangle sourceRegion(TileRange range) {
+    if (range.isEmpty() || range.getFirstLevel() >= zoomLevels) {
+      return null;
+    }
+    long blockWidth = (long) tileWidth << range.getLastLevel();
+    long blockHeight = (long) tileHeight << range.getLastLevel();
+    // wider filters read a few pixels beyond the tiles of each level, the margin keeps these pixels
+    // away from the edges of the region, which would otherwise repeat the edge pixels instead
+    int reach = DownsampleFilter.BOX == downsampleFilter ? 0 : downsampleFilter.weights().length / 2 + 1;
+    int marginX = (reach + tileWidth - 1) / tileWidth;
+    int marginY = (reach + tileHeight - 1) / tileHeight;
+    long x0 = Math.max(0, (range.getFirstColumn() - marginX) * blockWidth);
+    long y0 = Math.max(0, (range.getFirstRow() - marginY) * blockHeight);
+    long x1 = Math.min(imageWidth, (range.getLastColumn() + 1L + marginX) * blockWidth);
+    long y1 = Math.min(imageHeight, (range.getLastRow() + 1L + marginY) * blockHeight);
+    if (x0 >= x1 || y0 >= y1) {
+      return null;
+    }
+    return new Rectangle((int) x0, (int) y0, (int) (x1 - x0), (int) (y1 - y0));
+  }
+
+  // the highest zoom level up to z that is read from the file instead of being halved from a higher one
+  int sourceLevel(int z) {
+    int stored = embeddedOverviews ? source.getStoredLevel(z) : 0;
+    return subsampledDecoding ? Math.max(stored, source.getSubsampledLevel(z)) : stored;
+  }
+
+  // creates the zoom levels first to levels - 1 from the stored level first
+  private void createLevels(TileWriter writer, MemoryPlan memory, TilePlan plan, Rectangle region, int first,
+      int levels) throws Exception {
+    switch (memory.getMode()) {
+      case MemoryPlan.QUADTREE:
+        createTilesQuadtree(writer, plan, region, first, levels);
+        break;
+      case MemoryPlan.MEMORY_MAPPED:
+        createTilesMapped(writer, plan, region, first, levels);
+        break;
+      case MemoryPlan.STREAMING:
+        createTilesFromStrips(writer, region, first, levels, memory.getStripHeight());
+        break;
+      default:
+        createTilesFromImage(writer, plan, region, first, levels);
+    }
+  }
+
+  // whether the blocks of 2 × 2 tiles can be halved on their own, see setQuadtree
+  boolean isQuadtreeApplicable() {
+    return quadtree && DownsampleFilter.BOX == downsampleFilter && 0 == tileWidth % 2 && 0 == tileHeight % 2;
+  }
+
+  private void createTilesQuadtree(TileWriter writer, TilePlan plan, Rectangle region, int first, int levels)
+      throws Exception {
+    TileMetrics metrics = writer.getMetrics();
+    ImageReader reader = source.openReader();
+    try {
+      Rectangle scaled = ImageSource.scale(region, first);
+      BufferedImage decoded = null;
+      if (null == source.getTileSize(first)) {
+        long decodeStart = System.nanoTime();
+        decoded = source.read(reader, first, scaled);
+        metrics.decoded(System.nanoTime() - decodeStart);
+        metrics.allocated(TileMetrics.bytes(decoded));
+      }
+      QuadtreePyramid pyramid = new QuadtreePyramid(plan, first, levels, source, reader, decoded, scaled, tileWidth,
+          tileHeight, writer);
+      for (TilePlan.Tile tile : plan.getTiles(levels - 1)) {
+        pyramid.create(tile.column, tile.row);
+      }
+    } finally {
+      ImageSource.closeReader(reader);
+    }
+  }
+
+  private void createTilesFromImage(TileWriter writer, TilePlan plan, Rectangle region, int first, int levels)
+      throws Exception {
+    // the original image keeps its type, only the tiles are converted to ARGB
+    TileMetrics metrics = writer.getMetrics();
+    BufferedImage level;
+    ImageReader reader = source.openReader();
+    try {
+      long decodeStart = System.nanoTime();
+      level = source.read(reader, first, ImageSource.scale(region, first));
+      metrics.decoded(System.nanoTime() - decodeStart);
+    } finally {
+      ImageSource.closeReader(reader);
+    }
+    metrics.allocated(TileMetrics.bytes(level));
+    for (int z = first; z < levels; z++) {
+      if (z > first) {
+        // each zoom level is derived from the previous one instead of the original image
+        long rescaleStart = System.nanoTime();
+        BufferedImage next = Downsampler.halve(level, downsampleFilter);
+        metrics.rescaled(z, System.nanoTime() - rescaleStart);
+        metrics.allocated(TileMetrics.bytes(next));
+        metrics.released(TileMetrics.bytes(level));
+        level = next;
+      }
+      // the level starts at the region, whose edges are on whole tiles of the level
+      int left = region.x >> z;
+      int top = region.y >> z;
+      for (TilePlan.Tile tile : plan.getTiles(z)) {
+        writer.write(level, tile.x - left, tile.y - top, tile.width, tile.height, z, tile.column, tile.row);
+      }
+    }
+  }
+
+  private void createTilesFromStrips(TileWriter writer, Rectangle region, int first, int levels, int rows)
+      throws Exception {
+    Rectangle scaled = ImageSource.scale(region, first);
+    StripPyramid pyramid = new StripPyramid(scaled.width, scaled.height, first, levels, tileWidth, tileHeight,
+        region.x / tileWidth, region.y / tileHeight, downsampleFilter, writer);
+    TileMetrics metrics = writer.getMetrics();
+    // the planned rows are for the largest level, rounded up to whole tile rows of this one
+    int base = source.getStripHeight(first, tileHeight);
+    int stripHeight = Math.max(base, (rows + base - 1) / base * base);
+    ImageReader reader = source.openReader();
+    try {
+      for (int y = 0; y < scaled.height; y += stripHeight) {
+        long decodeStart = System.nanoTime();
+        BufferedImage strip = source.read(reader, first,
+            new Rectangle(scaled.x, scaled.y + y, scaled.width, Math.min(stripHeight, scaled.height - y)));
+        metrics.decoded(System.nanoTime() - decodeStart);
+        metrics.allocated(TileMetrics.bytes(strip));
+        pyramid.push(strip);
+        metrics.released(TileMetrics.bytes(strip));
+      }
+    } finally {
+      ImageSource.closeReader(reader);
+    }
+  }
+
+  private void createTilesMapped(TileWriter writer, TilePlan plan, Rectangle region, int first, int levels)
+      throws Exception {
+    Rectangle scaled = ImageSource.scale(region, first);
+    int width = scaled.width;
+    int height = scaled.height;
+    int column = region.x / tileWidth;
+    int row = region.y / tileHeight;
+    // the first level is only stored if lower zoom levels are halved from it
+    MappedRaster level = levels - first > 1 ? new MappedRaster(width, height, tempDir) : null;
+    TileMetrics metrics = writer.getMetrics();
+    try {
+      int[] pixels = new int[width];
+      int[] tile = new int[tileWidth * tileHeight];
+      metrics.allocated(4L * (pixels.length + tile.length));
+      ImageReader reader = source.openReader();
+      try {
+        for (int j = 0; j * tileHeight < height; j++) {
+          int y = j * tileHeight;
+          int rows = Math.min(tileHeight, height - y);
+          long decodeStart = System.nanoTime();
+          BufferedImage strip = source.read(reader, first, new Rectangle(scaled.x, scaled.y + y, width, rows));
+          metrics.decoded(System.nanoTime() - decodeStart);
+          metrics.allocated(TileMetrics.bytes(strip));
+          for (int i = 0; i * tileWidth < width; i++) {
+            int x = i * tileWidth;
+            writer.write(strip, x, 0, Math.min(tileWidth, width - x), rows, first, (column >> first) + i,
+                (row >> first) + j);
           }
+          long copyStart = System.nanoTime();
+          for (int r = 0; null != level && r < rows; r++) {
+            Pixels.copyArgb(strip, 0, r, width, 1, pixels, 0, width);
+            level.setRows(y + r, 1, pixels, 0);
+          }
+          metrics.copied(System.nanoTime() - copyStart);
+          metrics.released(TileMetrics.bytes(strip));
+        }
+      } finally {
+        ImageSource.closeReader(reader);
+      }
+      for (int z = first + 1; z < levels; z++) {
+        long rescaleStart = System.nanoTime();
+        MappedRaster next = level.halve(tempDir, downsampleFilter);
+        metrics.rescaled(z, System.nanoTime() - rescaleStart);
+        level.close();
+        level = next;
+        int left = region.x >> z;
+        int top = region.y >> z;
+        for (TilePlan.Tile planned : plan.getTiles(z)) {
+          long copyStart = System.nanoTime();
+          level.read(planned.x - left, planned.y - top, planned.width, planned.height, tile, 0, tileWidth);
+          metrics.copied(System.nanoTime() - copyStart);
+          writer.write(tile, tileWidth, 0, 0, planned.width, planned.height, z, planned.column, planned.row);
         }
       }
-      callback.createTilesResult(CreateTilesCallback.RESULT_OK, null);
-    } catch (Exception e) {
-      callback.createTilesResult(CreateTilesCallback.RESULT_ERROR, e);
+    } finally {
+      if (null != level) {
+        level.close();
+      }
     }
-    System.gc();
   }
 
   /**
@@ -434,21 +1276,16 @@ public class TileUp {
    * of 19 and so on. If the {@link #zoomLevels zoomLevels} is unspecified or set to 1(default), the
    * tiles are only created for zoom of 20. If {@link #zoomLevels zoomLevels} is 4, tiles will be
    * generated for zooms of 20, 19, 18 and 17. See {@link #setZoomLevels(int) setZoomLevels(int)}
-   * and {@link #setAutoZoom() setAutoZoom()}.
+   * and {@link #setAutoZoom() setAutoZoom()}. Each zoom level is computed from the next higher one
+   * by averaging blocks of 2 × 2 pixels.
+   * <p>
+   * The tiles are created on the calling thread, see
+   * {@link #createTilesAsync(Executor, CreateTilesCallback) createTilesAsync(Executor,
+   * CreateTilesCallback)} for creating them asynchronously.
    *
    * @throws Exception if output files or directories can not be created or a other error occurs
    */
   public void createTiles() throws Exception {
-    SynCreateTilesCallback callback = new SynCreateTilesCallback();
-    createTiles(callback);
-    while (!callback.isFinish()) {
-      try {
-        Thread.sleep(10);
-      } catch (InterruptedException e) {
-      }
-    }
-    if (null != callback.getException()) {
-      throw callback.getException();
-    }
+    createTiles(quiet ? null : new SynCreateTilesCallback(this), null);
   }
 }
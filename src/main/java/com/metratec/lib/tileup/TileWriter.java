@@ -0,0 +1,635 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Encodes and saves the tiles handed over by {@link TileUp TileUp} in a pipeline of three stages:
+ * the calling thread extracts the tiles, a pool of worker threads (or the calling thread) encodes
+ * them, and a pool of I/O threads (or the encoding threads) saves them to the
+ * {@link TileSink TileSink}.
+ * <p>
+ * Tiles are copied into a fixed number of reusable tile buffers, so creating a tile does not
+ * allocate any pixel data. The source pixels can therefore be changed as soon as
+ * {@link #write(int[], int, int, int, int, int, int, int, int) write} returns. If all
+ * buffers are in use, {@link #write(int[], int, int, int, int, int, int, int, int) write} blocks
+ * until a worker has finished a tile, which bounds the number of tiles waiting for or being
+ * encoded. In the same way tiles are encoded into a fixed number of reusable byte buffers, and an
+ * encoding thread blocks while all of them wait for or are being saved. A slow file system
+ * therefore only stalls the encoding threads once the I/O queue is full. The first error stops the
+ * writer, it is thrown by the next call to
+ * {@link #write(int[], int, int, int, int, int, int, int, int) write} or {@link #await() await}.
+ * Cancelling the future passed to the constructor stops the writer before the next tile, even
+ * while it waits for a tile buffer.
+ * <p>
+ * Tiles with a single color are skipped or linked as configured by
+ * {@link TileUp#setUniformTiles(UniformTiles) TileUp.setUniformTiles(UniformTiles)}.
+ */
+final class TileWriter {
+
+  // how often a writer waiting for a tile buffer checks whether it was cancelled
+  private static final long CANCELLATION_CHECK_MILLIS = 10;
+
+  private final int tileWidth;
+  private final int tileHeight;
+  private final boolean extended;
+  private final TileEncoder encoder;
+  private final UniformTiles uniformTiles;
+  private final TileRange tileRange;
+  private final Map<String, byte[]> uniformTileData = new HashMap<String, byte[]>();
+  private final TileSink sink;
+  private final TileManifest manifest;
+  private final TileIndex index;
+  private final TilePools pools;
+  private final ExecutorService pool;
+  private final int slotCount;
+  private final BlockingQueue<BufferedImage> slots;
+  private final ExecutorService ioPool;
+  private final int encodedSlotCount;
+  private final BlockingQueue<EncodedTile> encodedSlots;
+  private final TileMetrics metrics;
+  private volatile boolean closed;
+  private final AtomicInteger writeQueueDepth = new AtomicInteger();
+  /** the tasks that may reach the sink, see {@link #enter() enter} */
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicReference<Exception> error = new AtomicReference<Exception>();
+  private final CreateTilesCallback callback;
+  private final int total;
+  private final Future<?> cancellation;
+  private final LongAdder created = new LongAdder();
+  private final LongAdder skipped = new LongAdder();
+  private final long progressInterval;
+  private final AtomicLong nextReport;
+  /** the tiles done and skipped as passed to the callback */
+  private long reported;
+  private long reportedSkipped;
+  /** the last tile handed to the encoders, named by {@link #reportLast() reportLast} */
+  private int lastZ;
+  private int lastI;
+  private int lastJ;
+
+  /**
+   * @param tileUp the settings of the tiles
+   * @param memory the plan of the run, giving the number of threads and tile buffers
+   * @param sink the sink the encoded tiles are saved to
+   * @param manifest the manifest of the saved tiles, or null to save all tiles
+   * @param index the index of the saved tiles, or null
+   * @param callback the callback for the progress information, or null
+   * @param total total number of tiles to create
+   * @param cancellation a future whose cancellation stops the writer, or null
+   */
+  TileWriter(TileUp tileUp, MemoryPlan memory, TileSink sink, TileManifest manifest, TileIndex index,
+      CreateTilesCallback callback, int total, Future<?> cancellation) {
+    this.tileWidth = tileUp.getTileWidth();
+    this.tileHeight = tileUp.getTileHeight();
+    this.extended = tileUp.isExtended();
+    this.encoder = tileUp.getEncoder();
+    this.uniformTiles = tileUp.getUniformTiles();
+    this.tileRange = tileUp.getTileRange();
+    this.sink = sink;
+    this.manifest = manifest;
+    this.index = index;
+    this.pools = tileUp.getTilePools();
+    this.metrics = new TileMetrics(tileUp.getZoomLevels());
+    int threads = memory.getThreads();
+    int ioThreads = null != pools ? pools.getIoThreads() : tileUp.getIoThreads();
+    if (null != pools) {
+      pools.register(encoder);
+      this.pool = pools.getEncodePool();
+      this.ioPool = pools.getIoPool();
+    } else {
+      this.pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+      this.ioPool = ioThreads > 0 ? Executors.newFixedThreadPool(ioThreads) : null;
+    }
+    this.slotCount = memory.getTileSlots();
+    this.slots = new ArrayBlockingQueue<BufferedImage>(slotCount);
+    for (int k = 0; k < slotCount; k++) {
+      slots.add(null != pools ? pools.takeTileBuffer(tileWidth, tileHeight)
+          : new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB));
+    }
+    // one buffer per encoding thread and up to two waiting tiles per I/O thread
+    this.encodedSlotCount = threads + 2 * ioThreads;
+    this.encodedSlots = new ArrayBlockingQueue<EncodedTile>(encodedSlotCount);
+    for (int k = 0; k < encodedSlotCount; k++) {
+      EncodedTile buffer = null != pools ? pools.takeEncodedBuffer() : new EncodedTile();
+      buffer.counted = buffer.data().length;
+      metrics.allocated(buffer.counted);
+      encodedSlots.add(buffer);
+    }
+    metrics.allocated(4L * slotCount * tileWidth * tileHeight);
+    this.callback = callback;
+    this.total = total;
+    this.cancellation = cancellation;
+    this.progressInterval = TimeUnit.MILLISECONDS.toNanos(tileUp.getProgressInterval());
+    this.nextReport = new AtomicLong(System.nanoTime() + progressInterval);
+  }
+
+  /**
+   * Copies a tile out of an ARGB pixel array, then encodes and saves it. Edge tiles smaller than
+   * the tile size are extended with transparent pixels if the writer was created with
+   * <code>extended</code> set to true. Tiles outside of the {@link TileRange TileRange} of the
+   * settings are ignored.
+   *
+   * @param src the ARGB pixels, row by row
+   * @param scan the distance between two rows in <code>src</code>
+   * @param x the left edge of the tile in <code>src</code>
+   * @param y the top edge of the tile in <code>src</code>
+   * @param width the width of the tile content, at most the tile width
+   * @param height the height of the tile content, at most the tile height
+   * @param z the zoom level index, 0 is the original image size
+   * @param i the column of the tile
+   * @param j the row of the tile
+   * @throws Exception if a tile could not be saved
+   * @throws CancellationException if the writer was cancelled
+   */
+  void write(int[] src, int scan, int x, int y, int width, int height, int z, int i, int j) throws Exception {
+    if (null != tileRange && !tileRange.contains(z, i, j)) {
+      return;
+    }
+    long waitStart = System.nanoTime();
+    BufferedImage buffer = take();
+    long copyStart = System.nanoTime();
+    copy(src, scan, x, y, width, height, buffer);
+    metrics.extracted(copyStart - waitStart, System.nanoTime() - copyStart);
+    submit(buffer, width, height, z, i, j);
+  }
+
+  /**
+   * Copies a tile out of an image of any type, then encodes and saves it, see
+   * {@link #write(int[], int, int, int, int, int, int, int, int) write}. Only the pixels of the tile
+   * are converted to ARGB.
+   *
+   * @param src the image
+   * @param x the left edge of the tile in <code>src</code>
+   * @param y the top edge of the tile in <code>src</code>
+   * @param width the width of the tile content, at most the tile width
+   * @param height the height of the tile content, at most the tile height
+   * @param z the zoom level index, 0 is the original image size
+   * @param i the column of the tile
+   * @param j the row of the tile
+   * @throws Exception if a tile could not be saved
+   * @throws CancellationException if the writer was cancelled
+   */
+  void write(BufferedImage src, int x, int y, int width, int height, int z, int i, int j) throws Exception {
+    if (null != tileRange && !tileRange.contains(z, i, j)) {
+      return;
+    }
+    long waitStart = System.nanoTime();
+    BufferedImage buffer = take();
+    long copyStart = System.nanoTime();
+    int[] dst = ((DataBufferInt) buffer.getRaster().getDataBuffer()).getData();
+    Pixels.copyArgb(src, x, y, width, height, dst, 0, buffer.getWidth());
+    clearPadding(dst, buffer.getWidth(), buffer.getHeight(), width, height);
+    metrics.extracted(copyStart - waitStart, System.nanoTime() - copyStart);
+    submit(buffer, width, height, z, i, j);
+  }
+
+  /**
+   * Waits until all tiles handed to {@link #write(int[], int, int, int, int, int, int, int, int)
+   * write} are saved.
+   *
+   * @throws Exception if a tile could not be saved
+   */
+  void await() throws Exception {
+    drain(slots, slotCount);
+    drain(encodedSlots, encodedSlotCount);
+    metrics.finish();
+    checkError();
+  }
+
+  /**
+   * Passes the count of all tiles done to the callback if the progress interval left it out, so
+   * the last count is the total. Called once after {@link #await() await}.
+   */
+  synchronized void reportLast() {
+    long done = created.sum() + skipped.sum();
+    if (null != callback && done > reported) {
+      reported = done;
+      reportedSkipped = skipped.sum();
+      callback.createTilesProgress(sink.getName(20 - lastZ, lastI, lastJ), (int) reported, total);
+    }
+  }
+
+  /**
+   * Gets a snapshot of the tiles done so far.
+   *
+   * @return the progress
+   */
+  TileProgress getProgress() {
+    return new TileProgress(created.sum(), skipped.sum(), total, metrics.getElapsedNanos());
+  }
+
+  /**
+   * Gets a snapshot of the progress of the pipeline stages.
+   *
+   * @return the pipeline statistics
+   */
+  PipelineStats getStats() {
+    int encodeQueueDepth = closed ? 0 : slotCount - slots.size();
+    return new PipelineStats(metrics.getElapsedNanos(), metrics.getExtractedTiles(), metrics.getEncodedTiles(),
+        metrics.getSavedTiles(), encodeQueueDepth, writeQueueDepth.get(), metrics.getEncodeNanos(),
+        metrics.getWriteNanos());
+  }
+
+  /**
+   * Gets the timers and counters of the run, which the callers of the writer also add their phases
+   * to.
+   *
+   * @return the metrics
+   */
+  TileMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Gets the number of saved tiles.
+   *
+   * @return the number of saved tiles
+   */
+  int getCreated() {
+    return (int) created.sum();
+  }
+
+  /**
+   * Gets the number of skipped tiles.
+   *
+   * @return the number of skipped tiles
+   */
+  int getSkipped() {
+    return (int) skipped.sum();
+  }
+
+  /**
+   * Stops the worker threads and releases the native memory of the encoder, or returns the idle
+   * buffers and the encoder to the shared {@link TilePools TilePools}. Tiles still waiting are not saved anymore,
+   * and when it returns no tile is handed to the sink anymore, so the sink can be closed.
+   */
+  void close() {
+    metrics.finish();
+    closed = true;
+    if (null == pools) {
+      if (null != pool) {
+        pool.shutdownNow();
+      }
+      if (null != ioPool) {
+        ioPool.shutdownNow();
+      }
+    }
+    awaitIdle();
+    if (null != pools) {
+      // buffers still in use after a failure are left to the garbage collector
+      List<BufferedImage> idle = new ArrayList<BufferedImage>(slotCount);
+      slots.drainTo(idle);
+      for (BufferedImage buffer : idle) {
+        pools.releaseTileBuffer(buffer);
+      }
+      List<EncodedTile> idleEncoded = new ArrayList<EncodedTile>(encodedSlotCount);
+      encodedSlots.drainTo(idleEncoded);
+      for (EncodedTile buffer : idleEncoded) {
+        pools.releaseEncodedBuffer(buffer);
+      }
+      pools.unregister(encoder);
+      return;
+    }
+    encoder.close();
+  }
+
+  /**
+   * Copies an area of an ARGB pixel array into the top left corner of a tile and clears the rest
+   * of the tile.
+   *
+   * @param src the ARGB pixels, row by row
+   * @param scan the distance between two rows in <code>src</code>
+   * @param x the left edge of the area
+   * @param y the top edge of the area
+   * @param width the width of the area, at most the tile width
+   * @param height the height of the area, at most the tile height
+   * @param tile a tile created with {@link BufferedImage#TYPE_INT_ARGB TYPE_INT_ARGB}
+   */
+  static void copy(int[] src, int scan, int x, int y, int width, int height, BufferedImage tile) {
+    int[] dst = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+    int tw = tile.getWidth();
+    for (int row = 0; row < height; row++) {
+      System.arraycopy(src, (y + row) * scan + x, dst, row * tw, width);
+    }
+    clearPadding(dst, tw, tile.getHeight(), width, height);
+  }
+
+  // clears the pixels of a tile right of and below its content
+  private static void clearPadding(int[] tile, int tw, int th, int width, int height) {
+    if (width < tw) {
+      for (int row = 0; row < height; row++) {
+        Arrays.fill(tile, row * tw + width, (row + 1) * tw, 0);
+      }
+    }
+    if (height < th) {
+      Arrays.fill(tile, height * tw, th * tw, 0);
+    }
+  }
+
+  // waits for a free tile buffer, a cancellation is noticed while all buffers are being encoded
+  private BufferedImage take() throws Exception {
+    BufferedImage buffer = null;
+    while (true) {
+      checkError();
+      if (null != cancellation && cancellation.isCancelled()) {
+        if (null != buffer) {
+          slots.add(buffer);
+        }
+        throw new CancellationException("Creating tiles was cancelled");
+      }
+      if (null != buffer) {
+        return buffer;
+      }
+      buffer = slots.poll(CANCELLATION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  // hands a filled tile buffer to the encoding stage
+  private void submit(final BufferedImage buffer, int width, int height, final int z, final int i, final int j) {
+    lastZ = z;
+    lastI = i;
+    lastJ = j;
+    final BufferedImage tile =
+        extended || (width == tileWidth && height == tileHeight) ? buffer : buffer.getSubimage(0, 0, width, height);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (null == error.get() && enter()) {
+            try {
+              save(tile, buffer, z, i, j);
+            } finally {
+              exit();
+            }
+          }
+        } catch (Exception e) {
+          error.compareAndSet(null, e);
+        } finally {
+          slots.add(buffer);
+        }
+      }
+    };
+    if (null == pool) {
+      task.run();
+    } else {
+      pool.execute(task);
+    }
+  }
+
+  private void save(BufferedImage tile, BufferedImage buffer, int z, int i, int j) throws Exception {
+    int zoom = 20 - z;
+    int[] pixels = ((DataBufferInt) buffer.getRaster().getDataBuffer()).getData();
+    long color = -1;
+    if (UniformTiles.WRITE != uniformTiles) {
+      color = Pixels.uniformColor(pixels, tileWidth, tile.getWidth(), tile.getHeight());
+    }
+    long hash = 0;
+    if (null != manifest) {
+      // the buffer outside of smaller edge tiles is cleared, so hashing all of it is stable
+      hash = XXHash64.hash(pixels, 0, pixels.length, (long) tile.getWidth() << 32 | tile.getHeight());
+    }
+    if (0 == color && UniformTiles.SKIP_EMPTY == uniformTiles) {
+      if (null != manifest) {
+        // the tile may have had content in the previous run
+        sink.remove(zoom, i, j);
+        manifest.put(z, i, j, hash);
+      }
+      tileSkipped(zoom, i, j);
+      return;
+    }
+    if (null != manifest && manifest.isUnchanged(z, i, j, hash) && sink.contains(zoom, i, j)) {
+      manifest.put(z, i, j, hash);
+      if (null != index) {
+        index.unchanged(z, i, j);
+      }
+      tileSkipped(zoom, i, j);
+      return;
+    }
+    final EncodedTile out = encodedSlots.take();
+    long encodeStart = System.nanoTime();
+    try {
+      out.zoom = zoom;
+      out.z = z;
+      out.i = i;
+      out.j = j;
+      out.hash = hash;
+      if (-1 != color && UniformTiles.LINK == uniformTiles) {
+        out.sharedId = String.format("%08x_%dx%d", color, tile.getWidth(), tile.getHeight());
+        out.shared = uniformTileData(out.sharedId, tile);
+      } else {
+        out.sharedId = null;
+        out.shared = null;
+        out.reset();
+        encoder.encode(tile, out);
+      }
+    } catch (Exception e) {
+      encodedSlots.add(out);
+      throw e;
+    }
+    metrics.encoded(z, System.nanoTime() - encodeStart);
+    if (out.data().length > out.counted) {
+      // the buffer grew for a large tile
+      metrics.allocated(out.data().length - out.counted);
+      out.counted = out.data().length;
+    }
+    writeQueueDepth.incrementAndGet();
+    if (null == ioPool) {
+      store(out);
+    } else {
+      ioPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          store(out);
+        }
+      });
+    }
+  }
+
+  // the I/O stage, hands an encoded tile to the sink and returns its buffer
+  private void store(EncodedTile tile) {
+    long writeStart = System.nanoTime();
+    boolean entered = false;
+    try {
+      entered = null == error.get() && enter();
+      if (entered) {
+        int size;
+        if (null != tile.sharedId) {
+          size = tile.shared.length;
+          sink.putShared(tile.zoom, tile.i, tile.j, tile.sharedId, tile.shared, size);
+        } else {
+          size = tile.size();
+          sink.put(tile.zoom, tile.i, tile.j, tile.data(), size);
+        }
+        if (null != manifest) {
+          manifest.put(tile.z, tile.i, tile.j, tile.hash);
+        }
+        if (null != index) {
+          index.saved(tile.z, tile.i, tile.j, size);
+        }
+        metrics.saved(tile.z, size, System.nanoTime() - writeStart);
+        tileCreated(tile.zoom, tile.i, tile.j);
+      }
+    } catch (Exception e) {
+      error.compareAndSet(null, e);
+    } finally {
+      if (entered) {
+        exit();
+      }
+      writeQueueDepth.decrementAndGet();
+      encodedSlots.add(tile);
+    }
+  }
+
+  // counts a task that may reach the sink, counted before checking closed so close can wait for it
+  private boolean enter() {
+    active.incrementAndGet();
+    if (closed) {
+      exit();
+      return false;
+    }
+    return true;
+  }
+
+  private void exit() {
+    if (0 == active.decrementAndGet()) {
+      synchronized (active) {
+        active.notifyAll();
+      }
+    }
+  }
+
+  // waits until the tasks that passed enter are done, the pools of the run interrupt them
+  private void awaitIdle() {
+    boolean interrupted = false;
+    synchronized (active) {
+      while (0 != active.get()) {
+        try {
+          active.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // encodes each distinct uniform tile only once, uniform tiles are rare enough to do it under a lock
+  private synchronized byte[] uniformTileData(String id, BufferedImage tile) throws Exception {
+    byte[] data = uniformTileData.get(id);
+    if (null == data) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      encoder.encode(tile, out);
+      data = out.toByteArray();
+      uniformTileData.put(id, data);
+    }
+    return data;
+  }
+
+  // takes all buffers, i.e. waits until they are idle, and returns them
+  private static <T> void drain(BlockingQueue<T> queue, int size) throws InterruptedException {
+    List<T> idle = new ArrayList<T>(size);
+    try {
+      while (idle.size() < size) {
+        idle.add(queue.take());
+      }
+    } finally {
+      queue.addAll(idle);
+    }
+  }
+
+  private void checkError() throws Exception {
+    if (null != error.get()) {
+      throw error.get();
+    }
+  }
+
+  // counted without locking, only the tiles passed to the callback are serialized
+  private void tileCreated(int zoom, int i, int j) {
+    created.increment();
+    if (null != callback && isReportDue()) {
+      report(zoom, i, j, false);
+    }
+  }
+
+  private void tileSkipped(int zoom, int i, int j) {
+    skipped.increment();
+    if (null != callback && isReportDue()) {
+      report(zoom, i, j, true);
+    }
+  }
+
+  // every tile without a progress interval, else the first tile after the interval, the last tile is
+  // reported by reportLast
+  private boolean isReportDue() {
+    if (0 == progressInterval) {
+      return true;
+    }
+    long next = nextReport.get();
+    long now = System.nanoTime();
+    return now - next >= 0 && nextReport.compareAndSet(next, now + progressInterval);
+  }
+
+  // serialized, so the counts passed to the callback are strictly increasing
+  private synchronized void report(int zoom, int i, int j, boolean skippedTile) {
+    if (0 == progressInterval) {
+      reported++;
+      reportedSkipped += skippedTile ? 1 : 0;
+    } else {
+      long done = created.sum() + skipped.sum();
+      if (done <= reported) {
+        // a later tile was reported first
+        return;
+      }
+      reported = done;
+      reportedSkipped = skipped.sum();
+    }
+    if (skippedTile) {
+      callback.createTilesSkipped(sink.getName(zoom, i, j), (int) reportedSkipped);
+    } else {
+      callback.createTilesProgress(sink.getName(zoom, i, j), (int) reported, total);
+    }
+  }
+
+  // an encoded tile on its way to the sink, exposes its buffer so it can be saved without copying it
+  static final class EncodedTile extends ByteArrayOutputStream {
+
+    int zoom;
+    int z;
+    int i;
+    int j;
+    long hash;
+    /** the id of a shared tile, or null if the tile is in the buffer */
+    String sharedId;
+    byte[] shared;
+    /** the size of the buffer counted by the metrics of the current run */
+    int counted;
+
+    EncodedTile() {
+      super(64 * 1024);
+    }
+
+    byte[] data() {
+      return buf;
+    }
+  }
+}
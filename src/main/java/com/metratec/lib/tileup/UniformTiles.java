@@ -0,0 +1,30 @@
+package com.metratec.lib.tileup;
+
+/**
+ * Defines how {@link TileUp TileUp} saves tiles whose pixels all have the same color, e.g. the
+ * fully transparent tiles created by extending the edges or blank margins of scans.
+ * <p>
+ * See also {@link TileUp#setUniformTiles(UniformTiles) TileUp.setUniformTiles(UniformTiles)}.
+ */
+public enum UniformTiles {
+
+  /**
+   * Every tile is encoded and saved, this is the default.
+   */
+  WRITE,
+
+  /**
+   * Fully transparent tiles are not saved. They are reported with
+   * {@link CreateTilesCallback#createTilesSkipped(String, int)
+   * CreateTilesCallback.createTilesSkipped(String, int)}.
+   */
+  SKIP_EMPTY,
+
+  /**
+   * Each distinct uniform tile is encoded once and saved in the sub-folder <code>uniform</code> of
+   * the output directory. The tiles themselves are hard links to these files, or copies if the file
+   * system does not support hard links. A {@link PackTileSink PackTileSink} stores the tile data
+   * once instead.
+   */
+  LINK
+}
@@ -0,0 +1,81 @@
+package com.metratec.lib.tileup;
+
+/**
+ * The 64 bit xxHash of pixel data. The result is the same as the reference implementation applied to
+ * the pixels as little-endian bytes.
+ */
+final class XXHash64 {
+
+  private static final long P1 = 0x9E3779B185EBCA87L;
+  private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long P3 = 0x165667B19E3779F9L;
+  private static final long P4 = 0x85EBCA77C2B2AE63L;
+  private static final long P5 = 0x27D4EB2F165667C5L;
+
+  private XXHash64() {
+  }
+
+  /**
+   * Computes the hash of a range of an int array.
+   *
+   * @param data the array
+   * @param offset the start of the range
+   * @param length the number of ints
+   * @param seed the seed
+   * @return the hash
+   */
+  static long hash(int[] data, int offset, int length, long seed) {
+    int end = offset + length;
+    int k = offset;
+    long h;
+    if (length >= 8) {
+      long v1 = seed + P1 + P2;
+      long v2 = seed + P2;
+      long v3 = seed;
+      long v4 = seed - P1;
+      for (int limit = end - 8; k <= limit; k += 8) {
+        v1 = round(v1, lane(data, k));
+        v2 = round(v2, lane(data, k + 2));
+        v3 = round(v3, lane(data, k + 4));
+        v4 = round(v4, lane(data, k + 6));
+      }
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = merge(h, v1);
+      h = merge(h, v2);
+      h = merge(h, v3);
+      h = merge(h, v4);
+    } else {
+      h = seed + P5;
+    }
+    h += 4L * length;
+    for (; k + 2 <= end; k += 2) {
+      h ^= round(0, lane(data, k));
+      h = Long.rotateLeft(h, 27) * P1 + P4;
+    }
+    if (k < end) {
+      h ^= (data[k] & 0xffffffffL) * P1;
+      h = Long.rotateLeft(h, 23) * P2 + P3;
+    }
+    h ^= h >>> 33;
+    h *= P2;
+    h ^= h >>> 29;
+    h *= P3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  private static long lane(int[] data, int k) {
+    return (data[k] & 0xffffffffL) | ((long) data[k + 1] << 32);
+  }
+
+  private static long round(long acc, long input) {
+    acc += input * P2;
+    acc = Long.rotateLeft(acc, 31);
+    return acc * P1;
+  }
+
+  private static long merge(long acc, long value) {
+    acc ^= round(0, value);
+    return acc * P1 + P4;
+  }
+}
@@ -0,0 +1,111 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CreateTilesAsyncTest {
+
+  // the tiles encoded before both encoding threads block
+  private static final int ENCODED = 20;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void cancelledRunStopsAndLeavesThePackIncomplete() throws Exception {
+    File input = folder.newFile("in.png");
+    BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(11);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        image.setRGB(x, y, random.nextInt());
+      }
+    }
+    ImageIO.write(image, "png", input);
+    TileUp tileUp = new TileUp(input.getPath(), folder.newFolder("tiles").getPath(), "", 32, 32, 2);
+    final Set<Thread> workers = Collections.synchronizedSet(new HashSet<Thread>());
+    final AtomicInteger encoded = new AtomicInteger();
+    final AtomicInteger started = new AtomicInteger();
+    final CountDownLatch blocked = new CountDownLatch(2);
+    tileUp.setEncoder(new PngTileEncoder() {
+      @Override
+      public void encode(BufferedImage tile, OutputStream out) throws IOException {
+        workers.add(Thread.currentThread());
+        if (started.incrementAndGet() > ENCODED) {
+          blocked.countDown();
+          try {
+            // until the writer is closed and stops its threads
+            new CountDownLatch(1).await();
+          } catch (InterruptedException e) {
+            // finish the tile
+          }
+        }
+        super.encode(tile, out);
+        encoded.incrementAndGet();
+      }
+    });
+    final AtomicInteger saved = new AtomicInteger();
+    File file = new File(folder.getRoot(), "tiles.pack");
+    tileUp.setTileSink(new PackTileSink(file, "png") {
+      @Override
+      public synchronized void put(int zoom, int x, int y, byte[] data, int length) throws IOException {
+        workers.add(Thread.currentThread());
+        super.put(zoom, x, y, data, length);
+        saved.incrementAndGet();
+      }
+    });
+    tileUp.setThreads(2);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    CompletableFuture<TileResult> future = tileUp.createTilesAsync(executor, null);
+    assertTrue(blocked.await(10, TimeUnit.SECONDS));
+    // the tiles encoded so far are saved, the tile buffers are held by the blocked and queued tiles
+    long end = System.currentTimeMillis() + 10000;
+    while (saved.get() < ENCODED && System.currentTimeMillis() < end) {
+      Thread.sleep(1);
+    }
+    assertEquals(ENCODED, saved.get());
+    assertTrue(future.cancel(true));
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertTrue(future.isCancelled());
+    try {
+      future.get();
+      fail();
+    } catch (CancellationException e) {
+      // expected
+    }
+    for (Thread worker : workers) {
+      worker.join(10000);
+      assertFalse(worker.getName(), worker.isAlive());
+    }
+    // no queued tile was encoded, the blocked tiles were finished but not saved
+    assertEquals(ENCODED + 2, started.get());
+    assertEquals(ENCODED + 2, encoded.get());
+    assertEquals(ENCODED, saved.get());
+    PackTileSinkTest.assertIncomplete(file);
+  }
+}
@@ -0,0 +1,83 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectoryTileSinkTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void rerunInLinkModeReplacesLinkedTiles() throws Exception {
+    File out = folder.newFolder("rerun");
+    // tile 0,0 is uniform in the first run and linked to the shared white tile, the second run draws into it
+    createTiles(image(1, 1), out);
+    createTiles(image(0, 0), out);
+    File fresh = folder.newFolder("fresh");
+    createTiles(image(0, 0), fresh);
+    assertSameTree(fresh, out);
+  }
+
+  /**
+   * Creates a white 256x256 image with a gray square in the 128x128 tile <code>i,j</code>.
+   */
+  static BufferedImage image(int i, int j) {
+    BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 256; y++) {
+      for (int x = 0; x < 256; x++) {
+        boolean square = x / 128 == i && y / 128 == j && x % 128 > 16 && y % 128 > 16;
+        image.setRGB(x, y, square ? 0x808080 : 0xffffff);
+      }
+    }
+    return image;
+  }
+
+  static void assertSameTree(File expected, File actual) throws IOException {
+    Map<String, File> expectedFiles = files(expected);
+    Map<String, File> actualFiles = files(actual);
+    assertEquals(expectedFiles.keySet(), actualFiles.keySet());
+    for (Map.Entry<String, File> entry : expectedFiles.entrySet()) {
+      assertArrayEquals(entry.getKey(), Files.readAllBytes(entry.getValue().toPath()),
+          Files.readAllBytes(actualFiles.get(entry.getKey()).toPath()));
+    }
+  }
+
+  private void createTiles(BufferedImage image, File out) throws Exception {
+    File input = new File(folder.getRoot(), "in.png");
+    ImageIO.write(image, "png", input);
+    TileUp tileUp = new TileUp(input.getPath(), out.getPath(), "", 128, 128, 1);
+    tileUp.setUniformTiles(UniformTiles.LINK);
+    tileUp.setQuiet(true);
+    tileUp.createTiles();
+  }
+
+  private static Map<String, File> files(File dir) {
+    Map<String, File> files = new TreeMap<String, File>();
+    collect(dir, "", files);
+    return files;
+  }
+
+  private static void collect(File dir, String path, Map<String, File> files) {
+    for (File file : dir.listFiles()) {
+      if (file.isDirectory()) {
+        collect(file, path + file.getName() + "/", files);
+      } else {
+        files.put(path + file.getName(), file);
+      }
+    }
+  }
+}
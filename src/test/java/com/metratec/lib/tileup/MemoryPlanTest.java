@@ -0,0 +1,44 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MemoryPlanTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void formatsSizesForMessages() {
+    assertEquals("1000 bytes", MemoryPlan.format(1000, true));
+    assertEquals("1 MB", MemoryPlan.format(1 << 20, true));
+    assertEquals("2 MB", MemoryPlan.format((1 << 20) + 1, true));
+    assertEquals("1 MB", MemoryPlan.format((1 << 20) + 1, false));
+  }
+
+  @Test
+  public void tooSmallBudgetFailsWithTheSizes() throws Exception {
+    File input = folder.newFile("in.png");
+    ImageIO.write(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB), "png", input);
+    TileUp tileUp = new TileUp(input.getPath(), folder.newFolder("tiles").getPath(), "", 128, 128, 2);
+    tileUp.setMaxMemory(1000);
+    tileUp.setQuiet(true);
+    MemoryPlan plan = MemoryPlan.create(tileUp);
+    try {
+      tileUp.createTiles();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Creating the tiles needs about " + plan.getBytes() + " bytes, more than the 1000 bytes allowed",
+          e.getMessage());
+    }
+  }
+}
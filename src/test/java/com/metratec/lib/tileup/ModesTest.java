@@ -0,0 +1,120 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Compares the tiles of each mode of {@link MemoryPlan MemoryPlan} with the tiles of an image held
+ * as a whole, for each filter, for all tiles and for a tile range.
+ */
+@RunWith(Parameterized.class)
+public class ModesTest {
+
+  private static final int WIDTH = 517;
+  private static final int HEIGHT = 389;
+  private static final int TILE_SIZE = 64;
+  private static final int ZOOM_LEVELS = 4;
+  // the columns 1 to 2 and row 1 of level 2, up to the right and bottom edges of the image
+  private static final TileRange RANGE = new TileRange(0, 2, 1, 1, 2, 1);
+
+  @ClassRule
+  public static TemporaryFolder folder = new TemporaryFolder();
+
+  private static File input;
+  private static final Map<DownsampleFilter, File> REFERENCES = new HashMap<DownsampleFilter, File>();
+
+  private final int mode;
+  private final DownsampleFilter filter;
+
+  public ModesTest(String name, int mode, DownsampleFilter filter) {
+    this.mode = mode;
+    this.filter = filter;
+  }
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> parameters() {
+    String[] names = {"image", "quadtree", "streaming", "memory-mapped"};
+    List<Object[]> parameters = new ArrayList<Object[]>();
+    for (int mode = MemoryPlan.IMAGE; mode <= MemoryPlan.MEMORY_MAPPED; mode++) {
+      for (DownsampleFilter filter : DownsampleFilter.values()) {
+        parameters.add(new Object[] {names[mode] + " " + filter, mode, filter});
+      }
+    }
+    return parameters;
+  }
+
+  @Test
+  public void createsTheTilesOfTheWholeImage() throws Exception {
+    File out = folder.newFolder();
+    TileUp tileUp = create(out, mode, filter);
+    // the quadtree needs the box filter, other filters stream
+    int expected = MemoryPlan.QUADTREE == mode && DownsampleFilter.BOX != filter ? MemoryPlan.STREAMING : mode;
+    assertEquals(expected, MemoryPlan.create(tileUp).getMode());
+    tileUp.createTiles();
+    DirectoryTileSinkTest.assertSameTree(reference(filter), out);
+  }
+
+  @Test
+  public void createsTheTilesOfARange() throws Exception {
+    File out = folder.newFolder();
+    TileUp tileUp = create(out, mode, filter);
+    tileUp.setTileRange(RANGE);
+    tileUp.createTiles();
+    File expected = folder.newFolder();
+    File reference = reference(filter);
+    for (int z = 0; z < ZOOM_LEVELS; z++) {
+      String zoom = Integer.toString(20 - z);
+      for (String name : new File(reference, zoom).list()) {
+        String[] position = name.substring(1, name.indexOf('.')).split("_");
+        if (RANGE.contains(z, Integer.parseInt(position[0]), Integer.parseInt(position[1]))) {
+          new File(expected, zoom).mkdirs();
+          Files.copy(new File(reference, zoom + "/" + name).toPath(),
+              new File(expected, zoom + "/" + name).toPath());
+        }
+      }
+    }
+    // the columns 4 to 8 and rows 4 to 6 of the original size
+    assertEquals(15, new File(expected, "20").list().length);
+    DirectoryTileSinkTest.assertSameTree(expected, out);
+  }
+
+  private static synchronized File reference(DownsampleFilter filter) throws Exception {
+    File reference = REFERENCES.get(filter);
+    if (null == reference) {
+      reference = folder.newFolder();
+      create(reference, MemoryPlan.IMAGE, filter).createTiles();
+      REFERENCES.put(filter, reference);
+    }
+    return reference;
+  }
+
+  private static synchronized TileUp create(File out, int mode, DownsampleFilter filter) throws IOException {
+    if (null == input) {
+      input = TestImages.writeNoise(folder.newFile("in.png"), WIDTH, HEIGHT);
+    }
+    TileUp tileUp = new TileUp(input.getPath(), out.getPath(), "", TILE_SIZE, TILE_SIZE, ZOOM_LEVELS);
+    tileUp.setDownsampleFilter(filter);
+    tileUp.setQuadtree(MemoryPlan.QUADTREE == mode);
+    tileUp.setStreaming(MemoryPlan.STREAMING == mode);
+    tileUp.setMemoryMapped(MemoryPlan.MEMORY_MAPPED == mode);
+    tileUp.setTempDir(folder.getRoot());
+    tileUp.setThreads(2);
+    tileUp.setQuiet(true);
+    return tileUp;
+  }
+}
@@ -0,0 +1,158 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackTileSinkTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsBackSavedAndSharedTiles() throws Exception {
+    File file = new File(folder.getRoot(), "tiles.pack");
+    PackTileSink sink = new PackTileSink(file, "png");
+    byte[][] data = new byte[4][];
+    Random random = new Random(9);
+    for (int k = 0; k < data.length; k++) {
+      data[k] = new byte[100 + 37 * k];
+      random.nextBytes(data[k]);
+    }
+    byte[] uniform = {1, 2, 3, 4, 5};
+    sink.put(20, 3, 1, data[0], data[0].length);
+    sink.putShared(20, 0, 0, "ffffffff_256x256", uniform, uniform.length);
+    sink.put(19, 1, 0, data[1], data[1].length);
+    sink.putShared(20, 2, 7, "ffffffff_256x256", uniform, uniform.length);
+    sink.putShared(18, 0, 0, "ffffffff_256x256", uniform, uniform.length);
+    // saved twice, the last tile wins
+    sink.put(20, 1, 2, data[2], data[2].length);
+    sink.put(20, 1, 2, data[3], 50);
+    sink.close();
+
+    TilePackReader reader = new TilePackReader(file);
+    try {
+      assertEquals("png", reader.getFileExtension());
+      assertEquals(6, reader.getTileCount());
+      assertArrayEquals(data[0], reader.getTile(20, 3, 1));
+      assertArrayEquals(data[1], reader.getTile(19, 1, 0));
+      byte[] last = new byte[50];
+      System.arraycopy(data[3], 0, last, 0, 50);
+      assertArrayEquals(last, reader.getTile(20, 1, 2));
+      assertArrayEquals(uniform, reader.getTile(20, 0, 0));
+      assertArrayEquals(uniform, reader.getTile(20, 2, 7));
+      assertArrayEquals(uniform, reader.getTile(18, 0, 0));
+      assertNull(reader.getTile(20, 3, 2));
+      assertNull(reader.getTile(17, 0, 0));
+    } finally {
+      reader.close();
+    }
+    // the header, each tile and the shared tile once, and the index
+    long tiles = data[0].length + data[1].length + data[2].length + 50 + uniform.length;
+    assertEquals(16 + 2 + 3 + tiles + 4 + 6 * PackTileSink.INDEX_ENTRY_SIZE, file.length());
+  }
+
+  @Test
+  public void abortedPackStaysIncomplete() throws Exception {
+    File file = new File(folder.getRoot(), "tiles.pack");
+    PackTileSink sink = new PackTileSink(file, "png");
+    byte[] data = new byte[1000];
+    sink.put(20, 0, 0, data, data.length);
+    sink.putShared(20, 1, 0, "00000000_256x256", data, 10);
+    sink.abort();
+    assertIncomplete(file);
+  }
+
+  @Test
+  public void packOfARunHoldsTheTilesOfTheDirectory() throws Exception {
+    File input = folder.newFile("in.png");
+    ImageIO.write(DirectoryTileSinkTest.image(1, 0), "png", input);
+    File dir = folder.newFolder("tiles");
+    TileUp tileUp = new TileUp(input.getPath(), dir.getPath(), "", 128, 128, 2);
+    tileUp.setUniformTiles(UniformTiles.LINK);
+    tileUp.setQuiet(true);
+    tileUp.createTiles();
+    File file = new File(folder.getRoot(), "tiles.pack");
+    tileUp.setTileSink(new PackTileSink(file, "png"));
+    tileUp.createTiles();
+
+    TilePackReader reader = new TilePackReader(file);
+    try {
+      assertEquals(5, reader.getTileCount());
+      for (int zoom = 19; zoom <= 20; zoom++) {
+        for (int x = 0; x < 2; x++) {
+          for (int y = 0; y < 2; y++) {
+            File tile = new File(dir, zoom + "/_" + x + "_" + y + ".png");
+            if (tile.isFile()) {
+              assertArrayEquals(tile.getPath(), Files.readAllBytes(tile.toPath()), reader.getTile(zoom, x, y));
+            } else {
+              assertNull(reader.getTile(zoom, x, y));
+            }
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void packOfAFailedRunStaysIncomplete() throws Exception {
+    File input = folder.newFile("in.png");
+    ImageIO.write(DirectoryTileSinkTest.image(1, 0), "png", input);
+    TileUp tileUp = new TileUp(input.getPath(), folder.newFolder("tiles").getPath(), "", 128, 128, 2);
+    final AtomicInteger encoded = new AtomicInteger();
+    tileUp.setEncoder(new PngTileEncoder() {
+      @Override
+      public void encode(BufferedImage tile, OutputStream out) throws IOException {
+        if (3 == encoded.incrementAndGet()) {
+          throw new IOException("disk full");
+        }
+        super.encode(tile, out);
+      }
+    });
+    tileUp.setThreads(2);
+    tileUp.setQuiet(true);
+    File file = new File(folder.getRoot(), "tiles.pack");
+    tileUp.setTileSink(new PackTileSink(file, "png"));
+    try {
+      tileUp.createTiles();
+      fail();
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
+    }
+    assertIncomplete(file);
+  }
+
+  static void assertIncomplete(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      raf.seek(PackTileSink.INDEX_OFFSET_POSITION);
+      assertEquals(0, raf.readLong());
+    } finally {
+      raf.close();
+    }
+    try {
+      new TilePackReader(file).close();
+      fail();
+    } catch (IOException e) {
+      assertEquals("Incomplete tile pack: " + file, e.getMessage());
+    }
+  }
+}
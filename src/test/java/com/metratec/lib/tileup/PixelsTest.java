@@ -0,0 +1,96 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PixelsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void copiesGrayLikeTileUp103() {
+    for (int type : new int[] {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY}) {
+      BufferedImage gray = grayRamp(64, 48, type);
+      int[] copied = new int[30 * 20];
+      Pixels.copyArgb(gray, 7, 5, 30, 20, copied, 0, 30);
+      assertArrayEquals("type " + type, legacy(gray).getRGB(7, 5, 30, 20, null, 0, 30), copied);
+    }
+  }
+
+  @Test
+  public void grayTilesOfZoom20MatchTileUp103() throws Exception {
+    File input = folder.newFile("gray.png");
+    BufferedImage gray = grayRamp(300, 200, BufferedImage.TYPE_BYTE_GRAY);
+    ImageIO.write(gray, "png", input);
+    File out = folder.newFolder("tiles");
+    TileUp tileUp = new TileUp(input.getPath(), out.getPath(), "", 128, 128, 2);
+    tileUp.setQuiet(true);
+    tileUp.createTiles();
+    BufferedImage expected = legacy(ImageIO.read(input));
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 2; j++) {
+        BufferedImage tile = ImageIO.read(new File(out, "20/_" + i + "_" + j + ".png"));
+        int width = Math.min(128, 300 - 128 * i);
+        int height = Math.min(128, 200 - 128 * j);
+        assertArrayEquals("tile " + i + "," + j, expected.getRGB(128 * i, 128 * j, width, height, null, 0, width),
+            tile.getRGB(0, 0, width, height, null, 0, width));
+      }
+    }
+  }
+
+  @Test
+  public void halvesOpaqueImagesLikeBilinearScale() {
+    BufferedImage image = new BufferedImage(128, 128, BufferedImage.TYPE_INT_ARGB);
+    Random random = new Random(1);
+    for (int y = 0; y < 128; y++) {
+      for (int x = 0; x < 128; x++) {
+        image.setRGB(x, y, 0xff000000 | random.nextInt());
+      }
+    }
+    AffineTransform half = AffineTransform.getScaleInstance(0.5, 0.5);
+    BufferedImage expected = new AffineTransformOp(half, AffineTransformOp.TYPE_BILINEAR).filter(image,
+        new BufferedImage(128, 128, BufferedImage.TYPE_INT_ARGB));
+    BufferedImage halved = Downsampler.halve(image, DownsampleFilter.BOX);
+    for (int y = 0; y < 63; y++) {
+      for (int x = 0; x < 63; x++) {
+        int a = expected.getRGB(x, y);
+        int b = halved.getRGB(x, y);
+        for (int shift = 0; shift < 32; shift += 8) {
+          assertTrue(x + "," + y, Math.abs((a >>> shift & 0xff) - (b >>> shift & 0xff)) <= 1);
+        }
+      }
+    }
+  }
+
+  private static BufferedImage grayRamp(int width, int height, int type) {
+    BufferedImage image = new BufferedImage(width, height, type);
+    WritableRaster raster = image.getRaster();
+    int max = BufferedImage.TYPE_BYTE_GRAY == type ? 255 : 65535;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        raster.setSample(x, y, 0, (x * 7 + y * 13) * (max / 255) % (max + 1));
+      }
+    }
+    return image;
+  }
+
+  // zoom level 0 of TileUp 1.0.3, scaled by 1 with a bilinear AffineTransformOp into ARGB
+  private static BufferedImage legacy(BufferedImage image) {
+    return new AffineTransformOp(new AffineTransform(), AffineTransformOp.TYPE_BILINEAR).filter(image,
+        new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB));
+  }
+}
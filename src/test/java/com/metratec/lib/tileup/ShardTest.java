@@ -0,0 +1,115 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the shards of a job as separate processes of the command line tool at the same time and
+ * compares their merged output directories with the output of a single run.
+ */
+public class ShardTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void mergedShardsEqualASingleRun() throws Exception {
+    assertMergedShardsEqualASingleRun(3);
+  }
+
+  @Test
+  public void mergedStreamingShardsEqualASingleRun() throws Exception {
+    assertMergedShardsEqualASingleRun(3, "-s");
+  }
+
+  @Test
+  public void mergedLanczosShardsEqualASingleRun() throws Exception {
+    assertMergedShardsEqualASingleRun(3, "-ds", "lanczos2");
+  }
+
+  // 4 shards cut the 5 tile rows of the original size into 3 uneven bands, the last shard creates the lower levels
+  @Test
+  public void mergedUnevenShardsEqualASingleRun() throws Exception {
+    assertMergedShardsEqualASingleRun(4);
+  }
+
+  @Test
+  public void mergedUnevenStreamingLanczosShardsEqualASingleRun() throws Exception {
+    assertMergedShardsEqualASingleRun(4, "-s", "-ds", "lanczos2");
+  }
+
+  private void assertMergedShardsEqualASingleRun(int count, String... mode) throws Exception {
+    File input = folder.newFile("in.png");
+    ImageIO.write(noise(700, 520), "png", input);
+    File single = folder.newFolder("single");
+    assertEquals(0, start(input, single, null, mode).waitFor());
+    List<Process> processes = new ArrayList<Process>();
+    File[] shards = new File[count];
+    for (int k = 0; k < count; k++) {
+      shards[k] = folder.newFolder("shard" + (k + 1));
+      processes.add(start(input, shards[k], (k + 1) + "/" + count, mode));
+    }
+    for (Process process : processes) {
+      assertEquals(0, process.waitFor());
+    }
+    File merged = folder.newFolder("merged");
+    for (File shard : shards) {
+      merge(shard, merged);
+    }
+    // 6 x 5 tiles of the original size
+    assertEquals(30, new File(single, "20").list().length);
+    DirectoryTileSinkTest.assertSameTree(single, merged);
+  }
+
+  private static Process start(File input, File out, String shard, String... mode) throws IOException {
+    List<String> command = new ArrayList<String>(Arrays.asList(
+        new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp", System.getProperty("java.class.path"),
+        CLI.class.getName(), "-i", input.getPath(), "-o", out.getPath(), "-tw", "128", "-th", "128", "-z", "4",
+        "-t", "2", "-q"));
+    command.addAll(Arrays.asList(mode));
+    if (null != shard) {
+      command.add("-sh");
+      command.add(shard);
+    }
+    return new ProcessBuilder(command).redirectErrorStream(true)
+        .redirectOutput(new File(out.getParentFile(), out.getName() + ".log")).start();
+  }
+
+  // copies the tiles of a shard into the merged directory, shards never create the same tile
+  private static void merge(File dir, File merged) throws IOException {
+    for (File file : dir.listFiles()) {
+      File target = new File(merged, file.getName());
+      if (file.isDirectory()) {
+        target.mkdirs();
+        merge(file, target);
+      } else {
+        Files.copy(file.toPath(), target.toPath());
+      }
+    }
+  }
+
+  private static BufferedImage noise(int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Random random = new Random(15);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, 0xff000000 | x * 255 / width << 16 | y * 255 / height << 8 | random.nextInt(256));
+      }
+    }
+    return image;
+  }
+}
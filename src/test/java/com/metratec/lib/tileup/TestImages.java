@@ -0,0 +1,51 @@
+package com.metratec.lib.tileup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Images for the tests comparing the tiles of different modes.
+ */
+final class TestImages {
+
+  private TestImages() {
+  }
+
+  /**
+   * Creates an image of gradients and noise, with a translucent band and a fully transparent corner.
+   *
+   * @param width the width
+   * @param height the height
+   * @param seed the seed of the noise
+   * @return the image
+   */
+  static BufferedImage noise(int width, int height, long seed) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Random random = new Random(seed);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int alpha = x < width / 5 && y < height / 5 ? 0 : y > height * 3 / 4 ? 64 + random.nextInt(128) : 255;
+        image.setRGB(x, y, alpha << 24 | x * 255 / width << 16 | y * 255 / height << 8 | random.nextInt(256));
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Writes an image of {@link #noise(int, int, long) noise} as PNG.
+   *
+   * @param file the file
+   * @param width the width
+   * @param height the height
+   * @return the file
+   * @throws IOException if the file could not be written
+   */
+  static File writeNoise(File file, int width, int height) throws IOException {
+    ImageIO.write(noise(width, height, width * 31L + height), "png", file);
+    return file;
+  }
+}
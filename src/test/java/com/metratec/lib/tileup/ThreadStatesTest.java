@@ -0,0 +1,96 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ThreadStatesTest {
+
+  @Test
+  public void freesStatesOfEndedThreadsOnClose() throws Exception {
+    Counting states = new Counting();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    for (int k = 0; k < 100; k++) {
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          states.acquire();
+          states.release();
+        }
+      });
+    }
+    for (Runnable task : tasks) {
+      pool.execute(task);
+    }
+    pool.shutdown();
+    pool.awaitTermination(10, TimeUnit.SECONDS);
+    assertEquals(0, states.freed.size());
+    states.close();
+    assertEquals(states.created, states.freed.size());
+    states.close();
+    assertEquals(states.created, states.freed.size());
+  }
+
+  @Test
+  public void freesStatesInUseWhenReleased() {
+    Counting states = new Counting();
+    Object first = states.acquire();
+    states.close();
+    assertEquals(0, states.freed.size());
+    states.release();
+    assertEquals(1, states.freed.size());
+    assertSame(first, states.freed.get(0));
+    assertNotSame(first, states.acquire());
+    states.release();
+    assertEquals(1, states.freed.size());
+  }
+
+  @Test
+  public void encodersCanBeUsedAfterClose() throws Exception {
+    BufferedImage tile = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+    for (int k = 0; k < 64; k++) {
+      tile.setRGB(k, k, 0x80ff0000 + k);
+    }
+    for (TileEncoder encoder : new TileEncoder[] {new PngTileEncoder(), new JpegTileEncoder()}) {
+      byte[] before = encode(encoder, tile);
+      encoder.close();
+      assertArrayEquals(encoder.getFileExtension(), before, encode(encoder, tile));
+      encoder.close();
+    }
+  }
+
+  private static byte[] encode(TileEncoder encoder, BufferedImage tile) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoder.encode(tile, out);
+    return out.toByteArray();
+  }
+
+  private static final class Counting extends ThreadStates<Object> {
+
+    int created;
+    final List<Object> freed = new ArrayList<Object>();
+
+    @Override
+    synchronized Object create() {
+      created++;
+      return new Object();
+    }
+
+    @Override
+    synchronized void free(Object state) {
+      freed.add(state);
+    }
+  }
+}
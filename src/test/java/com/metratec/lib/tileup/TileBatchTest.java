@@ -0,0 +1,86 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TileBatchTest {
+
+  private static final int IMAGES = 12;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void closesTheEncoderOfEachImage() throws Exception {
+    CountingEncoder[] encoders = new CountingEncoder[IMAGES];
+    for (int k = 0; k < IMAGES; k++) {
+      encoders[k] = new CountingEncoder();
+    }
+    TilePools pools = run(encoders);
+    assertEquals(0, pools.getEncoderCount());
+    for (CountingEncoder encoder : encoders) {
+      assertEquals(1, encoder.closed.get());
+    }
+  }
+
+  @Test
+  public void closesASharedEncoderWhenNoImageUsesIt() throws Exception {
+    CountingEncoder encoder = new CountingEncoder();
+    CountingEncoder[] encoders = new CountingEncoder[IMAGES];
+    for (int k = 0; k < IMAGES; k++) {
+      encoders[k] = encoder;
+    }
+    TilePools pools = run(encoders);
+    assertEquals(0, pools.getEncoderCount());
+    int closed = encoder.closed.get();
+    assertTrue(String.valueOf(closed), closed >= 1 && closed <= IMAGES);
+  }
+
+  // tiles one image per encoder, 4 at the same time, and returns the pools of the batch
+  private TilePools run(CountingEncoder[] encoders) throws Exception {
+    File input = folder.newFile("in.png");
+    ImageIO.write(DirectoryTileSinkTest.image(1, 0), "png", input);
+    TileBatch batch = new TileBatch(4, 1L << 30, 3, 1);
+    TilePools pools;
+    try {
+      List<CompletableFuture<TileResult>> results = new ArrayList<CompletableFuture<TileResult>>();
+      TileUp tileUp = null;
+      for (int k = 0; k < encoders.length; k++) {
+        tileUp = new TileUp(input.getPath(), folder.newFolder("tiles" + k).getPath(), "", 128, 128, 2);
+        tileUp.setEncoder(encoders[k]);
+        tileUp.setQuiet(true);
+        results.add(batch.submit(tileUp, null));
+      }
+      for (CompletableFuture<TileResult> result : results) {
+        assertEquals(5, result.get().getCreatedTiles());
+      }
+      pools = tileUp.getTilePools();
+    } finally {
+      batch.awaitAndClose();
+    }
+    return pools;
+  }
+
+  private static final class CountingEncoder extends PngTileEncoder {
+
+    final AtomicInteger closed = new AtomicInteger();
+
+    @Override
+    public void close() {
+      closed.incrementAndGet();
+      super.close();
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TileIndexTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsBackSavedTilesAndSizes() throws Exception {
+    File dir = folder.getRoot();
+    // 100 x 70 tiles at the original size, the bitsets span many longs
+    TilePlan plan = new TilePlan(1000, 700, 10, 10, 3, null);
+    int[][] sizes = randomSizes(plan, new Random(22));
+    TileIndex index = new TileIndex(dir, plan, 10, 10);
+    save(index, plan, sizes);
+    index.commit();
+
+    TileIndexReader reader = new TileIndexReader(new File(dir, TileIndex.FILE_NAME));
+    try {
+      assertEquals(10, reader.getTileWidth());
+      assertEquals(10, reader.getTileHeight());
+      assertIndex(reader, plan, sizes);
+      assertEquals(0, reader.getColumns(17));
+      assertEquals(0, reader.getTileCount(17));
+      assertFalse(reader.exists(17, 0, 0));
+      assertEquals(-1, reader.size(20, 100, 0));
+      assertEquals(-1, reader.size(20, 0, 70));
+      assertEquals(-1, reader.size(20, -1, 0));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void unchangedTilesKeepTheirSizes() throws Exception {
+    File dir = folder.getRoot();
+    TilePlan plan = new TilePlan(1000, 700, 10, 10, 3, null);
+    int[][] sizes = randomSizes(plan, new Random(23));
+    TileIndex index = new TileIndex(dir, plan, 10, 10);
+    save(index, plan, sizes);
+    index.commit();
+
+    // the next run saves every other tile again and finds the rest unchanged
+    Random random = new Random(24);
+    index = new TileIndex(dir, plan, 10, 10);
+    for (int z = 0; z < plan.getZoomLevels(); z++) {
+      for (int j = 0; j < plan.getRows(z); j++) {
+        for (int i = 0; i < plan.getColumns(z); i++) {
+          int cell = j * plan.getColumns(z) + i;
+          if (sizes[z][cell] < 0) {
+            continue;
+          }
+          if (0 == (i + j) % 2) {
+            sizes[z][cell] = 1 + random.nextInt(100000);
+            index.saved(z, i, j, sizes[z][cell]);
+          } else {
+            index.unchanged(z, i, j);
+          }
+        }
+      }
+    }
+    index.commit();
+    TileIndexReader reader = new TileIndexReader(new File(dir, TileIndex.FILE_NAME));
+    try {
+      assertIndex(reader, plan, sizes);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void indexOfIncrementalRunsMatchesTheTileFiles() throws Exception {
+    File input = folder.newFile("in.png");
+    File out = folder.newFolder("tiles");
+    ImageIO.write(DirectoryTileSinkTest.image(1, 0), "png", input);
+    createTiles(input, out);
+    assertIndexMatchesFiles(out);
+    ImageIO.write(DirectoryTileSinkTest.image(0, 1), "png", input);
+    createTiles(input, out);
+    assertIndexMatchesFiles(out);
+  }
+
+  private static void createTiles(File input, File out) throws Exception {
+    TileUp tileUp = new TileUp(input.getPath(), out.getPath(), "", 100, 100, 3);
+    tileUp.setIncremental(true);
+    tileUp.setIndexEnabled(true);
+    tileUp.setQuiet(true);
+    tileUp.createTiles();
+  }
+
+  private static void assertIndexMatchesFiles(File out) throws Exception {
+    TileIndexReader reader = new TileIndexReader(new File(out, TileIndex.FILE_NAME));
+    try {
+      for (int zoom = 18; zoom <= 20; zoom++) {
+        int count = 0;
+        for (int y = 0; y < reader.getRows(zoom); y++) {
+          for (int x = 0; x < reader.getColumns(zoom); x++) {
+            File tile = new File(out, zoom + "/_" + x + "_" + y + ".png");
+            assertEquals(tile.getPath(), tile.isFile(), reader.exists(zoom, x, y));
+            assertEquals(tile.getPath(), tile.isFile() ? tile.length() : -1, reader.size(zoom, x, y));
+            count += tile.isFile() ? 1 : 0;
+          }
+        }
+        assertEquals(count, reader.getTileCount(zoom));
+      }
+      // 256 / 100 rounded up
+      assertEquals(3, reader.getColumns(20));
+      assertEquals(1, reader.getRows(18));
+    } finally {
+      reader.close();
+    }
+  }
+
+  // the size of each tile of each level, -1 for a tile that is not saved
+  private static int[][] randomSizes(TilePlan plan, Random random) {
+    int[][] sizes = new int[plan.getZoomLevels()][];
+    for (int z = 0; z < sizes.length; z++) {
+      sizes[z] = new int[plan.getColumns(z) * plan.getRows(z)];
+      for (int cell = 0; cell < sizes[z].length; cell++) {
+        sizes[z][cell] = random.nextInt(3) > 0 ? 1 + random.nextInt(100000) : -1;
+      }
+    }
+    return sizes;
+  }
+
+  private static void save(TileIndex index, TilePlan plan, int[][] sizes) {
+    for (int z = 0; z < sizes.length; z++) {
+      for (int cell = 0; cell < sizes[z].length; cell++) {
+        if (sizes[z][cell] >= 0) {
+          index.saved(z, cell % plan.getColumns(z), cell / plan.getColumns(z), sizes[z][cell]);
+        }
+      }
+    }
+  }
+
+  private static void assertIndex(TileIndexReader reader, TilePlan plan, int[][] sizes) {
+    for (int z = 0; z < sizes.length; z++) {
+      int zoom = 20 - z;
+      assertEquals(plan.getColumns(z), reader.getColumns(zoom));
+      assertEquals(plan.getRows(z), reader.getRows(zoom));
+      int count = 0;
+      for (int cell = 0; cell < sizes[z].length; cell++) {
+        int i = cell % plan.getColumns(z);
+        int j = cell / plan.getColumns(z);
+        assertEquals(zoom + "/" + i + "/" + j, sizes[z][cell] >= 0, reader.exists(zoom, i, j));
+        assertEquals(zoom + "/" + i + "/" + j, sizes[z][cell], reader.size(zoom, i, j));
+        count += sizes[z][cell] >= 0 ? 1 : 0;
+      }
+      assertEquals(count, reader.getTileCount(zoom));
+      assertTrue(count > 0);
+    }
+  }
+}
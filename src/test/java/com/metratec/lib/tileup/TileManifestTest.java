@@ -0,0 +1,59 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TileManifestTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void incrementalRerunInLinkModeReplacesLinkedTiles() throws Exception {
+    File out = folder.newFolder("rerun");
+    run(DirectoryTileSinkTest.image(1, 1), out, null);
+    TileProgress result = run(DirectoryTileSinkTest.image(0, 0), out, null);
+    // tiles 0,0 and 1,1 of zoom level 20 and the tile of zoom level 19
+    assertEquals(3, result.getCreatedTiles());
+    File fresh = folder.newFolder("fresh");
+    run(DirectoryTileSinkTest.image(0, 0), fresh, null);
+    // the order of the records depends on the order the tiles were saved in
+    new File(out, TileManifest.FILE_NAME).delete();
+    new File(fresh, TileManifest.FILE_NAME).delete();
+    DirectoryTileSinkTest.assertSameTree(fresh, out);
+  }
+
+  @Test
+  public void shardsKeepTheRecordsOfOtherShards() throws Exception {
+    File out = folder.newFolder("shards");
+    BufferedImage image = DirectoryTileSinkTest.image(0, 1);
+    int created = 0;
+    for (int shard = 0; shard < 3; shard++) {
+      created += run(image, out, TileRange.shard(shard, 3, 256, 256, 128, 128, 2)).getCreatedTiles();
+    }
+    assertEquals(5, created);
+    TileProgress result = run(image, out, null);
+    assertEquals(0, result.getCreatedTiles());
+    assertEquals(5, result.getSkippedTiles());
+  }
+
+  private TileProgress run(BufferedImage image, File out, TileRange range) throws Exception {
+    File input = new File(folder.getRoot(), "in.png");
+    ImageIO.write(image, "png", input);
+    TileUp tileUp = new TileUp(input.getPath(), out.getPath(), "", 128, 128, 2);
+    tileUp.setUniformTiles(UniformTiles.LINK);
+    tileUp.setIncremental(true);
+    tileUp.setTileRange(range);
+    tileUp.setQuiet(true);
+    tileUp.createTiles();
+    return tileUp.getProgress();
+  }
+}
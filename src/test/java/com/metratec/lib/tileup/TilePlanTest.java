@@ -0,0 +1,144 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TilePlanTest {
+
+  private static final int[][] IMAGE_SIZES = {{1, 1}, {1, 1000}, {1000, 1}, {257, 129}, {1000, 700}, {4097, 513}};
+  private static final int[][] TILE_SIZES = {{1, 1}, {7, 5}, {64, 64}, {100, 256}, {256, 256}};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void countsTheTilesOfEachLevel() {
+    TilePlan plan = new TilePlan(1000, 700, 256, 256, 4, null);
+    assertEquals(4, plan.getZoomLevels());
+    assertEquals(125, plan.getLevelWidth(3));
+    assertEquals(88, plan.getLevelHeight(3));
+    // 4 x 3, 2 x 2 and twice 1 tile
+    assertEquals(12 + 4 + 1 + 1, plan.getTotal());
+
+    plan = new TilePlan(1, 1, 256, 256, 5, null);
+    assertEquals(1, plan.getLevelWidth(4));
+    assertEquals(1, plan.getLevelHeight(4));
+    assertEquals(5, plan.getTotal());
+
+    plan = new TilePlan(257, 1, 64, 64, 3, null);
+    assertEquals(5, plan.getColumns(0));
+    assertEquals(129, plan.getLevelWidth(1));
+    assertEquals(3, plan.getColumns(1));
+    assertEquals(1, plan.getRows(2));
+    assertEquals(5 + 3 + 2, plan.getTotal());
+  }
+
+  @Test
+  public void countsTheTilesOfHalvedLevels() {
+    for (int[] image : IMAGE_SIZES) {
+      for (int[] tile : TILE_SIZES) {
+        TilePlan plan = new TilePlan(image[0], image[1], tile[0], tile[1], 12, null);
+        int width = image[0];
+        int height = image[1];
+        long total = 0;
+        for (int z = 0; z < 12; z++) {
+          String level = image[0] + "x" + image[1] + " " + tile[0] + "x" + tile[1] + " z" + z;
+          assertEquals(level, width, plan.getLevelWidth(z));
+          assertEquals(level, height, plan.getLevelHeight(z));
+          int columns = 0;
+          for (int x = 0; x < width; x += tile[0]) {
+            columns++;
+          }
+          int rows = 0;
+          for (int y = 0; y < height; y += tile[1]) {
+            rows++;
+          }
+          assertEquals(level, columns, plan.getColumns(z));
+          assertEquals(level, rows, plan.getRows(z));
+          assertEquals(level, columns * rows, plan.getTiles(z).size());
+          total += columns * rows;
+          width = (width + 1) / 2;
+          height = (height + 1) / 2;
+        }
+        assertEquals(total, plan.getTotal());
+      }
+    }
+  }
+
+  @Test
+  public void listsEachTileOnceInZOrder() {
+    // 9 x 6 tiles, the last column and row are at the edges
+    TilePlan plan = new TilePlan(517, 389, 64, 72, 1, null);
+    List<TilePlan.Tile> tiles = plan.getTiles(0);
+    assertEquals(54, tiles.size());
+    int[][] first = {{0, 0}, {1, 0}, {0, 1}, {1, 1}, {2, 0}, {3, 0}, {2, 1}, {3, 1}, {0, 2}, {1, 2}};
+    for (int k = 0; k < first.length; k++) {
+      assertEquals(first[k][0], tiles.get(k).column);
+      assertEquals(first[k][1], tiles.get(k).row);
+    }
+    Set<Long> seen = new HashSet<Long>();
+    for (TilePlan.Tile tile : tiles) {
+      assertTrue(seen.add((long) tile.column << 32 | tile.row));
+      assertEquals(tile.column * 64, tile.x);
+      assertEquals(tile.row * 72, tile.y);
+      assertEquals(8 == tile.column ? 5 : 64, tile.width);
+      assertEquals(5 == tile.row ? 29 : 72, tile.height);
+    }
+  }
+
+  @Test
+  public void listsTheTilesOfARange() {
+    TileRange range = new TileRange(1, 3, 1, 0, 2, 1);
+    for (int[] tile : TILE_SIZES) {
+      TilePlan plan = new TilePlan(4097, 513, tile[0], tile[1], 5, range);
+      TilePlan all = new TilePlan(4097, 513, tile[0], tile[1], 5, null);
+      long total = 0;
+      for (int z = 0; z < 5; z++) {
+        Set<Long> expected = new HashSet<Long>();
+        for (TilePlan.Tile planned : all.getTiles(z)) {
+          if (range.contains(z, planned.column, planned.row)) {
+            expected.add((long) planned.column << 32 | planned.row);
+          }
+        }
+        Set<Long> actual = new HashSet<Long>();
+        for (TilePlan.Tile planned : plan.getTiles(z)) {
+          actual.add((long) planned.column << 32 | planned.row);
+        }
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), plan.getTiles(z).size());
+        total += expected.size();
+      }
+      assertEquals(total, plan.getTotal());
+    }
+  }
+
+  @Test
+  public void autoZoomUsesTheTileHeightForTheHeight() throws Exception {
+    File input = folder.newFile("in.png");
+    ImageIO.write(new BufferedImage(300, 2000, BufferedImage.TYPE_BYTE_GRAY), "png", input);
+    TileUp tileUp = new TileUp(input.getPath(), folder.getRoot().getPath(), "", 512, 64, 1);
+    tileUp.setAutoZoom();
+    // 31 rows of tiles need 5 levels, the 3 tile widths of the height would only need 2
+    assertEquals(5, tileUp.getZoomLevels());
+    TilePlan plan = new TilePlan(300, 2000, 512, 64, tileUp.getZoomLevels(), null);
+    assertEquals(1, plan.getColumns(4));
+    assertEquals(2, plan.getRows(4));
+
+    tileUp = new TileUp(input.getPath(), folder.getRoot().getPath(), "", 64, 512, 1);
+    tileUp.setAutoZoom();
+    // 4 columns and 3 rows of tiles
+    assertEquals(3, tileUp.getZoomLevels());
+  }
+}
@@ -0,0 +1,67 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TileProgressTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void throttledCallbackCountsUpToTheTotal() throws Exception {
+    // 64 x 48, 32 x 24 and 16 x 12 tiles
+    List<Integer> counts = run(5);
+    assertTrue(counts.size() < 4032);
+    for (int k = 1; k < counts.size(); k++) {
+      assertTrue(counts.get(k - 1) + " " + counts.get(k), counts.get(k - 1) < counts.get(k));
+    }
+    assertEquals(4032, (int) counts.get(counts.size() - 1));
+  }
+
+  @Test
+  public void callbackGetsTheTotalOnceWithALongInterval() throws Exception {
+    List<Integer> counts = run(3600000);
+    assertEquals(1, counts.size());
+    assertEquals(4032, (int) counts.get(0));
+  }
+
+  private List<Integer> run(long progressInterval) throws Exception {
+    File input = TestImages.writeNoise(folder.newFile("in.png"), 1024, 768);
+    TileUp tileUp = new TileUp(input.getPath(), folder.newFolder().getPath(), "", 16, 16, 3);
+    tileUp.setTileSink(new PackTileSink(new File(folder.getRoot(), "tiles.pack"), "png"));
+    tileUp.setProgressInterval(progressInterval);
+    tileUp.setThreads(4);
+    final List<Integer> counts = new ArrayList<Integer>();
+    // runs on the calling thread
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        command.run();
+      }
+    };
+    tileUp.createTilesAsync(executor, new CreateTilesCallback() {
+      @Override
+      public void createTilesProgress(String createdTile, int count, int total) {
+        assertEquals(4032, total);
+        synchronized (counts) {
+          counts.add(count);
+        }
+      }
+
+      @Override
+      public void createTilesResult(int retval, Exception e) {
+      }
+    }).get();
+    return counts;
+  }
+}
@@ -0,0 +1,94 @@
+package com.metratec.lib.tileup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TileRendererTest {
+
+  private static final int ZOOM_LEVELS = 5;
+  private static final int TILE_SIZE = 64;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void rendersTheTilesOfCreateTiles() throws Exception {
+    File input = TestImages.writeNoise(folder.newFile("in.png"), 501, 379);
+    for (DownsampleFilter filter : new DownsampleFilter[] {DownsampleFilter.BOX, DownsampleFilter.LANCZOS2}) {
+      for (boolean extended : new boolean[] {true, false}) {
+        File out = folder.newFolder(filter + "-" + extended);
+        TileUp tileUp = new TileUp(input.getPath(), out.getPath(), "", TILE_SIZE, TILE_SIZE, ZOOM_LEVELS, extended);
+        tileUp.setDownsampleFilter(filter);
+        tileUp.setQuiet(true);
+        tileUp.createTiles();
+        // from the original image only, and from an overview of zoom level 18 for the levels up to 18
+        assertRendersTiles(new TileRenderer(tileUp, 0, Long.MAX_VALUE), out);
+        assertRendersTiles(new TileRenderer(tileUp, 0, 130L * 100), out);
+      }
+    }
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedTiles() throws Exception {
+    File input = TestImages.writeNoise(folder.newFile("in.png"), 256, 256);
+    TileUp tileUp = new TileUp(input.getPath(), folder.getRoot().getPath(), "", TILE_SIZE, TILE_SIZE, 1);
+    // every tile has the same size
+    tileUp.setEncoder(new RawTileEncoder());
+    int size = 4 * TILE_SIZE * TILE_SIZE;
+    TileRenderer renderer = new TileRenderer(tileUp, 2 * size + size / 2);
+    byte[] a = renderer.getTile(20, 0, 0);
+    renderer.getTile(20, 1, 0);
+    assertEquals(2 * size, renderer.getCachedBytes());
+    assertSame(a, renderer.getTile(20, 0, 0));
+    // evicts tile 1,0, which was used less recently than 0,0
+    renderer.getTile(20, 2, 0);
+    assertEquals(2 * size, renderer.getCachedBytes());
+    assertSame(a, renderer.getTile(20, 0, 0));
+    assertEquals(2, renderer.getCacheHits());
+    assertEquals(3, renderer.getCacheMisses());
+    renderer.getTile(20, 1, 0);
+    assertEquals(4, renderer.getCacheMisses());
+    // tiles outside of the image are not cached
+    assertNull(renderer.getTile(20, 4, 0));
+    for (int k = 0; k < 16; k++) {
+      renderer.getTile(20, k % 4, k / 4);
+      assertTrue(renderer.getCachedBytes() <= 2 * size + size / 2);
+    }
+    renderer.clearCache();
+    assertEquals(0, renderer.getCachedBytes());
+
+    TileRenderer tooSmall = new TileRenderer(tileUp, size - 1);
+    tooSmall.getTile(20, 0, 0);
+    assertEquals(0, tooSmall.getCachedBytes());
+  }
+
+  private static void assertRendersTiles(TileRenderer renderer, File out) throws Exception {
+    for (int zoom = 20; zoom > 20 - ZOOM_LEVELS; zoom--) {
+      String[] files = new File(out, Integer.toString(zoom)).list();
+      int count = 0;
+      for (int x = 0; x < 9; x++) {
+        for (int y = 0; y < 7; y++) {
+          File tile = new File(out, zoom + "/_" + x + "_" + y + ".png");
+          byte[] rendered = renderer.getTile(zoom, x, y);
+          if (tile.isFile()) {
+            assertArrayEquals(tile.getPath(), Files.readAllBytes(tile.toPath()), rendered);
+            count++;
+          } else {
+            assertNull(tile.getPath(), rendered);
+          }
+        }
+      }
+      assertEquals(files.length, count);
+    }
+  }
+}